@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 为DAO方法(或DAO接口的所有方法)设置每次从数据库读取的行数(Statement#setFetchSize)，覆盖DAOConfig中的默认值.
+ * <p>
+ * &#64;FetchSize(500)<br>
+ * &#64;SQL(&quot;select ... where create_time &gt; :1&quot;)<br>
+ * public Stream&lt;User&gt; findSince(Date time);
+ *
+ * @see com.hengjue.dao.dataAccess.StatementSettings
+ */
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface FetchSize {
+
+    /**
+     * 每次读取的行数；0表示使用驱动的默认值，MySQL中Integer.MIN_VALUE表示流式读取
+     *
+     * @return
+     */
+    int value();
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 为DAO方法(或DAO接口的所有方法)开启或关闭 IN (...) 参数个数的补齐，覆盖全局的设置(系统属性
+ * jade.exql.inListBuckets，默认关闭).
+ * <p>
+ * 开启后集合参数展开的问号个数补齐到不小于元素个数的2的幂(1、2、4、8...)，多出的位置重复最后一个元素，
+ * 使1到1000个id的查询最多只产生11种不同的SQL语句，便于数据库和驱动复用语句缓存：
+ * <p>
+ * &#64;InListBuckets<br>
+ * &#64;SQL(&quot;select ... where id in (:1)&quot;)<br>
+ * public List&lt;User&gt; findByIds(List&lt;Long&gt; ids);
+ * <p>
+ * 补齐只适用于 IN (...) 这种重复元素不影响结果的场合，不要对 values (:list) 等用法开启。
+ *
+ * @see com.hengjue.dao.statement.metrics.MetricsSnapshot#getDistinctStatements()
+ */
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface InListBuckets {
+
+    /**
+     * 是否补齐；在DAO接口上开启时，可以在个别方法上用 &#64;InListBuckets(false) 关闭
+     *
+     * @return
+     */
+    boolean value() default true;
+}
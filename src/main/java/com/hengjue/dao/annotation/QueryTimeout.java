@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 为DAO方法(或DAO接口的所有方法)设置执行超时的秒数(Statement#setQueryTimeout)，超时后驱动取消执行并抛出异常，覆盖DAOConfig中的默认值.
+ * <p>
+ * &#64;QueryTimeout(5)<br>
+ * &#64;SQL(&quot;select count(*) from ... where status=:1&quot;)<br>
+ * public int countByStatus(int status);
+ *
+ * @see com.hengjue.dao.dataAccess.StatementSettings
+ */
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QueryTimeout {
+
+    /**
+     * 超时的秒数；0表示不限
+     *
+     * @return
+     */
+    int value();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 为DAO方法(或DAO接口的所有方法)单独设置慢SQL日志的阈值，覆盖全局的设置.
+ * <p>
+ * &#64;SlowSQL(50)<br>
+ * &#64;SQL(&quot;select ... where id=:1&quot;)<br>
+ * public User getById(long id);
+ *
+ * @see com.hengjue.dao.statement.SlowSQLLogger
+ */
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SlowSQL {
+
+    /**
+     * 超过此毫秒数的调用才被记录；负数表示该方法从不被视为慢SQL(但仍可能被采样)
+     *
+     * @return
+     */
+    long value();
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.context;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+import org.springframework.util.ClassUtils;
+
+import com.hengjue.dao.statement.BoundParameters;
+import com.hengjue.dao.statement.ParameterBinding;
+import com.hengjue.dao.statement.Statement;
+
+/**
+ * {@link DAOClassGenerator} 为一个DAO接口在运行时生成具体的实现类，用以替代
+ * {@link java.lang.reflect.Proxy} + {@link JadeInvocationHandler} 的分派方式。
+ * <p>
+ *
+ * 生成的类为每个DAO方法持有一个final的 {@link Statement} 字段和对应的 {@link ParameterBinding}
+ * 字段，然后调用 {@link Statement#execute(java.util.Map)}，不再需要按 {@link Method} 查找Statement。
+ * <p>
+ *
+ * 对每个有参数的DAO方法还生成一个 {@link BoundParameters} 的子类，按参数的个数和类型各有一个字段：
+ * 方法体只创建这一个参数表对象，不创建参数数组；基本类型的参数以原类型保存，直到解析SQL、绑定参数时
+ * 通过 {@link BoundParameters#getAt(int)} 取出才装箱。
+ * <p>
+ *
+ * 异常的处理与Proxy一致：RuntimeException、Error以及方法声明的异常原样抛出，其他的受检异常包装为
+ * {@link java.lang.reflect.UndeclaredThrowableException}。
+ * <p>
+ *
+ * Statement由 {@link JadeInvocationHandler#getStatement(Method)} 在创建DAO实例时一次性创建，
+ * 所以 {@link com.hengjue.dao.statement.cached.CachedStatement}、
+ * {@link com.hengjue.dao.statement.StatementWrapperProvider} 等装饰照常生效。
+ * <p>
+ *
+ * 生成的类定义在一个以DAO接口的ClassLoader为父亲的ClassLoader中，因此只支持public的DAO接口，
+ * 且方法的参数、返回类型也必须是public的，参见 {@link #isSupported(Class)}。生成的类通过
+ * {@link ClassValue} 挂在DAO接口上，不会因为jade所在的ClassLoader而阻止DAO所在的ClassLoader被回收。
+ *
+ */
+public class DAOClassGenerator {
+
+    private static final Log logger = LogFactory.getLog(DAOClassGenerator.class);
+
+    private static final String CLASS_NAME_SUFFIX = "$$JadeDAO";
+
+    private static final String SUPPORT = Type.getInternalName(GeneratedDAOSupport.class);
+
+    private static final String HANDLER_DESC = Type.getDescriptor(JadeInvocationHandler.class);
+
+    private static final String STATEMENT = Type.getInternalName(Statement.class);
+
+    private static final String STATEMENT_DESC = Type.getDescriptor(Statement.class);
+
+    private static final String BINDING = Type.getInternalName(ParameterBinding.class);
+
+    private static final String BINDING_DESC = Type.getDescriptor(ParameterBinding.class);
+
+    private static final String PARAMETERS = Type.getInternalName(BoundParameters.class);
+
+    private static final String UNDECLARED = Type
+        .getInternalName(UndeclaredThrowableException.class);
+
+    private static final ClassValue<GeneratedClass> generatedClasses = new ClassValue<GeneratedClass>() {
+
+        @Override
+        protected GeneratedClass computeValue(Class<?> daoClass) {
+            if (!isSupported(daoClass)) {
+                throw new IllegalArgumentException("cannot generate class for non-public DAO: "
+                                                   + daoClass.getName());
+            }
+            return generate(daoClass);
+        }
+    };
+
+    /**
+     * 是否可以为给定的DAO接口生成实现类
+     *
+     * @param daoClass
+     * @return
+     */
+    public static boolean isSupported(Class<?> daoClass) {
+        if (!daoClass.isInterface() || !isPublic(daoClass)) {
+            return false;
+        }
+        for (Method method : JadeInvocationHandler.getDAOMethods(daoClass)) {
+            if (!isPublic(method.getReturnType())) {
+                return false;
+            }
+            for (Class<?> parameterType : method.getParameterTypes()) {
+                if (!isPublic(parameterType)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 创建handler所代表的DAO接口的一个实例，该实例的每个DAO方法对应的Statement都将在此被创建
+     *
+     * @param handler
+     * @return
+     * @throws IllegalArgumentException 不支持该DAO接口时
+     */
+    public static Object newInstance(JadeInvocationHandler handler) {
+        Class<?> daoClass = handler.getDAOMetaData().getDAOClass();
+        GeneratedClass generatedClass = generatedClasses.get(daoClass);
+        Method[] methods = generatedClass.methods;
+        Statement[] statements = new Statement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            statements[i] = handler.getStatement(methods[i]);
+        }
+        try {
+            return generatedClass.constructor.newInstance(handler, statements);
+        } catch (Exception e) {
+            throw new IllegalStateException("failed to instantiate " + generatedClass.constructor,
+                e);
+        }
+    }
+
+    private static boolean isPublic(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        while (type != null) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                return false;
+            }
+            type = type.getEnclosingClass();
+        }
+        return true;
+    }
+
+    private static GeneratedClass generate(Class<?> daoClass) {
+        long begin = System.currentTimeMillis();
+        List<Method> methods = JadeInvocationHandler.getDAOMethods(daoClass);
+        String className = daoClass.getName() + CLASS_NAME_SUFFIX;
+        String internalName = className.replace('.', '/');
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+            internalName, null, SUPPORT, new String[] { Type.getInternalName(daoClass) });
+
+        for (int i = 0; i < methods.size(); i++) {
+            cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "statement" + i, STATEMENT_DESC,
+                null, null).visitEnd();
+            cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "binding" + i, BINDING_DESC,
+                null, null).visitEnd();
+        }
+
+        ClassLoader parent = daoClass.getClassLoader();
+        if (parent == null) {
+            parent = ClassUtils.getDefaultClassLoader();
+        }
+        GeneratedClassLoader classLoader = new GeneratedClassLoader(parent);
+
+        generateConstructor(cw, internalName, methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            Type[] argumentTypes = Type.getArgumentTypes(methods.get(i));
+            String parametersName = null;
+            if (argumentTypes.length > 0) {
+                parametersName = internalName + "$Parameters" + i;
+                classLoader.define(parametersName.replace('/', '.'),
+                    generateParameters(parametersName, argumentTypes));
+            }
+            generateMethod(cw, internalName, i, methods.get(i), parametersName);
+        }
+        cw.visitEnd();
+
+        Class<?> clazz = classLoader.define(className, cw.toByteArray());
+        Constructor<?> constructor;
+        try {
+            constructor = clazz.getConstructor(JadeInvocationHandler.class, Statement[].class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("generated " + className + " with " + methods.size() + " methods in "
+                        + (System.currentTimeMillis() - begin) + "ms");
+        }
+        return new GeneratedClass(constructor, methods.toArray(new Method[methods.size()]));
+    }
+
+    // public XxxDAO$$JadeDAO(JadeInvocationHandler handler, Statement[] statements)
+    private static void generateConstructor(ClassWriter cw, String internalName, int count) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>",
+            "(" + HANDLER_DESC + "[" + STATEMENT_DESC + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPPORT, "<init>", "(" + HANDLER_DESC + ")V",
+            false);
+        for (int i = 0; i < count; i++) {
+            // this.statementN = statements[N];
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            pushInt(mv, i);
+            mv.visitInsn(Opcodes.AALOAD);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, "statement" + i, STATEMENT_DESC);
+            // this.bindingN = statements[N].getMetaData().getParameterBinding();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            pushInt(mv, i);
+            mv.visitInsn(Opcodes.AALOAD);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, STATEMENT, "getMetaData",
+                "()Lcom/hengjue/dao/statement/StatementMetaData;", true);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/hengjue/dao/statement/StatementMetaData",
+                "getParameterBinding", "()" + BINDING_DESC, false);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, "binding" + i, BINDING_DESC);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // try {
+    //     return (R) statementN.execute(new ParametersN(bindingN, arg1, arg2, ...));
+    // } catch (RuntimeException | Error | 声明的异常 e) {
+    //     throw e;
+    // } catch (Throwable e) {
+    //     throw new UndeclaredThrowableException(e);
+    // }
+    private static void generateMethod(ClassWriter cw, String internalName, int index,
+                                       Method method, String parametersName) {
+        String[] exceptions = new String[method.getExceptionTypes().length];
+        for (int i = 0; i < exceptions.length; i++) {
+            exceptions[i] = Type.getInternalName(method.getExceptionTypes()[i]);
+        }
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+            method.getName(), Type.getMethodDescriptor(method), null, exceptions);
+        mv.visitCode();
+        Label start = new Label();
+        Label end = new Label();
+        Label rethrow = new Label();
+        Label undeclared = new Label();
+        mv.visitTryCatchBlock(start, end, rethrow, "java/lang/RuntimeException");
+        mv.visitTryCatchBlock(start, end, rethrow, "java/lang/Error");
+        for (String exception : exceptions) {
+            mv.visitTryCatchBlock(start, end, rethrow, exception);
+        }
+        mv.visitTryCatchBlock(start, end, undeclared, "java/lang/Throwable");
+        mv.visitLabel(start);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "statement" + index, STATEMENT_DESC);
+        Type[] argumentTypes = Type.getArgumentTypes(method);
+        if (parametersName == null) {
+            // bindingN.bind(null)
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "binding" + index, BINDING_DESC);
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BINDING, "bind",
+                "([Ljava/lang/Object;)L" + PARAMETERS + ";", false);
+        } else {
+            // new ParametersN(bindingN, arg1, arg2, ...)
+            mv.visitTypeInsn(Opcodes.NEW, parametersName);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "binding" + index, BINDING_DESC);
+            int slot = 1;
+            for (Type argumentType : argumentTypes) {
+                mv.visitVarInsn(argumentType.getOpcode(Opcodes.ILOAD), slot);
+                slot += argumentType.getSize();
+            }
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, parametersName, "<init>",
+                parametersConstructorDesc(argumentTypes), false);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, STATEMENT, "execute",
+            "(Ljava/util/Map;)Ljava/lang/Object;", true);
+        Type returnType = Type.getReturnType(method);
+        switch (returnType.getSort()) {
+            case Type.VOID:
+                mv.visitInsn(Opcodes.POP);
+                break;
+            case Type.OBJECT:
+            case Type.ARRAY:
+                if (!"java/lang/Object".equals(returnType.getInternalName())) {
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, returnType.getInternalName());
+                }
+                break;
+            default:
+                unbox(mv, returnType);
+        }
+        mv.visitLabel(end);
+        mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        mv.visitLabel(rethrow);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitLabel(undeclared);
+        mv.visitTypeInsn(Opcodes.NEW, UNDECLARED);
+        mv.visitInsn(Opcodes.DUP_X1);
+        mv.visitInsn(Opcodes.SWAP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, UNDECLARED, "<init>",
+            "(Ljava/lang/Throwable;)V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // final class XxxDAO$$JadeDAO$ParametersN extends BoundParameters {
+    //     private final T0 p0; ...
+    //     public Object getAt(int index) {
+    //         switch (index) { case 0: return box(p0); ... default: throw new IndexOutOfBoundsException(); }
+    //     }
+    // }
+    private static byte[] generateParameters(String internalName, Type[] argumentTypes) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+            internalName, null, PARAMETERS, null);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "p" + i,
+                fieldDesc(argumentTypes[i]), null, null).visitEnd();
+        }
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>",
+            parametersConstructorDesc(argumentTypes), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, PARAMETERS, "<init>", "(" + BINDING_DESC + ")V",
+            false);
+        int slot = 2;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(argumentTypes[i].getOpcode(Opcodes.ILOAD), slot);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, "p" + i,
+                fieldDesc(argumentTypes[i]));
+            slot += argumentTypes[i].getSize();
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getAt", "(I)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        Label[] cases = new Label[argumentTypes.length];
+        for (int i = 0; i < cases.length; i++) {
+            cases[i] = new Label();
+        }
+        Label outOfBounds = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitTableSwitchInsn(0, cases.length - 1, outOfBounds, cases);
+        for (int i = 0; i < cases.length; i++) {
+            mv.visitLabel(cases[i]);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "p" + i,
+                fieldDesc(argumentTypes[i]));
+            box(mv, argumentTypes[i]);
+            mv.visitInsn(Opcodes.ARETURN);
+        }
+        mv.visitLabel(outOfBounds);
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/IndexOutOfBoundsException");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/IndexOutOfBoundsException", "<init>",
+            "()V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // (ParameterBinding, T0, T1, ...)V, 引用类型的参数按Object保存
+    private static String parametersConstructorDesc(Type[] argumentTypes) {
+        StringBuilder desc = new StringBuilder("(").append(BINDING_DESC);
+        for (Type argumentType : argumentTypes) {
+            desc.append(fieldDesc(argumentType));
+        }
+        return desc.append(")V").toString();
+    }
+
+    private static String fieldDesc(Type type) {
+        return wrapperOf(type) == null ? "Ljava/lang/Object;" : type.getDescriptor();
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        }
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        String wrapper = wrapperOf(type);
+        if (wrapper != null) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper, "valueOf",
+                "(" + type.getDescriptor() + ")L" + wrapper + ";", false);
+        }
+    }
+
+    // 与Proxy一致：返回null时抛出NullPointerException，类型不符时抛出ClassCastException
+    private static void unbox(MethodVisitor mv, Type type) {
+        String wrapper = wrapperOf(type);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, type.getClassName() + "Value",
+            "()" + type.getDescriptor(), false);
+    }
+
+    private static String wrapperOf(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
+        }
+    }
+
+    private static class GeneratedClass {
+
+        final Constructor<?> constructor;
+
+        // 与构造函数的statements参数一一对应
+        final Method[] methods;
+
+        GeneratedClass(Constructor<?> constructor, Method[] methods) {
+            this.constructor = constructor;
+            this.methods = methods;
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
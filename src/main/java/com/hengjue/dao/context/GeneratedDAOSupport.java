@@ -0,0 +1,57 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.context;
+
+/**
+ * 由 {@link DAOClassGenerator} 生成的DAO实现类的父类，提供和 {@link JadeInvocationHandler}
+ * 代理一致的 toString、hashCode、equals 行为。
+ * <p>
+ *
+ * 这是一个内部类，请不要直接继承它
+ *
+ */
+public abstract class GeneratedDAOSupport {
+
+    private final JadeInvocationHandler handler;
+
+    protected GeneratedDAOSupport(JadeInvocationHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     *
+     * @return 创建本DAO实例时所用的处理器，DAO方法对应的Statement都由它创建
+     */
+    public JadeInvocationHandler getJadeInvocationHandler() {
+        return handler;
+    }
+
+    @Override
+    public String toString() {
+        return handler.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return handler.getDAOMetaData().getDAOClass().hashCode() * 13 + handler.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this;
+    }
+
+}
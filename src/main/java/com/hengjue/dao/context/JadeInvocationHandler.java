@@ -17,16 +17,24 @@ package com.hengjue.dao.context;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.asm.Type;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.ClassUtils;
 
 import com.hengjue.dao.annotation.DAO;
-import com.hengjue.dao.annotation.SQLParam;
 import com.hengjue.dao.annotation.SQLType;
 import com.hengjue.dao.dataAccess.DataAccessFactory;
 import com.hengjue.dao.rowMapper.RowMapperFactory;
@@ -53,10 +61,17 @@ import com.hengjue.dao.statement.cached.CachedStatement;
 public class JadeInvocationHandler implements InvocationHandler {
 
     private static final Log logger = LogFactory.getLog(JadeInvocationHandler.class);
-    private static final Log sqlLogger = LogFactory.getLog("jade_sql.log");
 
     private final ConcurrentHashMap<Method, Statement> statements = new ConcurrentHashMap<Method, Statement>();
 
+    private final Function<Method, Statement> statementCreator = new Function<Method, Statement>() {
+
+        @Override
+        public Statement apply(Method method) {
+            return createStatement(method);
+        }
+    };
+
     private final DAOMetaData daoMetaData;
 
     /**
@@ -75,10 +90,6 @@ public class JadeInvocationHandler implements InvocationHandler {
         return daoMetaData;
     }
 
-    private static final String[] INDEX_NAMES = new String[] { ":1", ":2", ":3", ":4", ":5", ":6",
-            ":7", ":8", ":9", ":10", ":11", ":12", ":13", ":14", ":15", ":16", ":17", ":18", ":19",
-            ":20", ":21", ":22", ":23", ":24", ":25", ":26", ":27", ":28", ":29", ":30", };
-
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         final boolean debugEnabled = logger.isDebugEnabled();
@@ -93,77 +104,135 @@ public class JadeInvocationHandler implements InvocationHandler {
         // 获取当前DAO方法对应的Statement对象
         Statement statement = getStatement(method);
         //
-        // 将参数放入  Map
-        Map<String, Object> parameters;
+        // 按预先编译的绑定计划将参数包装为只读Map(不复制参数数组)
         StatementMetaData statemenetMetaData = statement.getMetaData();
-        if (args == null || args.length == 0) {
-            parameters = new HashMap<String, Object>(4);
-        } else {
-            parameters = new HashMap<String, Object>(args.length * 2 + 4);
-            for (int i = 0; i < args.length; i++) {
-                parameters.put(INDEX_NAMES[i], args[i]);
-                SQLParam sqlParam = statemenetMetaData.getSQLParamAt(i);
-                if (sqlParam != null) {
-                    parameters.put(sqlParam.value(), args[i]);
-                }
-            }
-        }
+        Map<String, Object> parameters = statemenetMetaData.getParameterBinding().bind(args);
         // logging
         if (debugEnabled) {
             logger.info("invoking " + statemenetMetaData);
         }
 
-        // executing
-        long begin = System.currentTimeMillis();
-        final Object result = statement.execute(parameters);
-        long cost = System.currentTimeMillis() - begin;
-
-        // logging
-        if (sqlLogger.isInfoEnabled()) {
-            sqlLogger.info(statemenetMetaData + "\tcost " + cost + "ms." );
-        }
-        return result;
+        // executing (慢SQL日志由JdbcStatement按阈值和采样记录)
+        return statement.execute(parameters);
     }
 
-    private Statement getStatement(Method method) {
+    /**
+     * 返回给定DAO方法对应的 {@link Statement}，第一次调用时创建之
+     * 
+     * @param method
+     * @return
+     */
+    public Statement getStatement(Method method) {
         Statement statement = statements.get(method);
         if (statement == null) {
-            synchronized (method) {
-                statement = statements.get(method);
-                if (statement == null) {
-                    // config
-                    DAOConfig config = daoMetaData.getConfig();
-                    DataAccessFactory dataAccessFactory = config.getDataAccessFactory();
-                    RowMapperFactory rowMapperFactory = config.getRowMapperFactory();
-                    InterpreterFactory interpreterFactory = config.getInterpreterFactory();
-                    CacheProvider cacheProvider = config.getCacheProvider();
-                    StatementWrapperProvider wrapperProvider = config.getStatementWrapperProvider();
-
-                    // create
-                    StatementMetaData smd = new StatementMetaData(daoMetaData, method);
-                    SQLType sqlType = smd.getSQLType();
-                    Querier querier;
-                    if (sqlType == SQLType.READ) {
-                        RowMapper<?> rowMapper = rowMapperFactory.getRowMapper(smd);
-                        querier = new SelectQuerier(dataAccessFactory, smd, rowMapper);
-                    } else {
-                        querier = new UpdateQuerier(dataAccessFactory, smd);
-                    }
-                    Interpreter[] interpreters = interpreterFactory.getInterpreters(smd);
-                    statement = new JdbcStatement(smd, sqlType, interpreters, querier);
-                    if (cacheProvider != null) {
-                        statement = new CachedStatement(cacheProvider, statement);
-                    }
-                    if (wrapperProvider != null) {
-                        statement = wrapperProvider.wrap(statement);
-                    }
-                    statements.put(method, statement);
+            // 每个方法只创建一次：并发的调用者(包括预热)等待同一个创建完成，只锁住该方法所在的桶
+            statement = statements.computeIfAbsent(method, statementCreator);
+        }
+        return statement;
+    }
+
+    /**
+     * 预热：使用给定的线程池并行创建本DAO所有方法对应的 {@link Statement}，并预编译其SQL。
+     * <p>
+     * 
+     * 任何一个方法创建失败(比如SQL不合法)都将使本方法抛出异常，而不是等到第一次调用时才发现。
+     * 
+     * @param pool
+     * @return 预热耗费的毫秒数
+     * @throws IllegalStateException 有DAO方法无法创建Statement时
+     */
+    public long warmUp(ForkJoinPool pool) {
+        long begin = System.currentTimeMillis();
+        List<Method> methods = getDAOMethods(daoMetaData.getDAOClass());
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(methods.size());
+        for (final Method method : methods) {
+            tasks.add(pool.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    Statement statement = getStatement(method);
+                    statement.getMetaData().getSQLPattern();
+                }
+            }));
+        }
+        IllegalStateException error = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).join();
+            } catch (RuntimeException e) {
+                String message = "failed to warm up " + daoMetaData.getDAOClass().getName() + "#"
+                                 + methods.get(i).getName();
+                if (error == null) {
+                    error = new IllegalStateException(message, e);
+                } else {
+                    error.addSuppressed(new IllegalStateException(message, e));
                 }
             }
         }
+        if (error != null) {
+            throw error;
+        }
+        long cost = System.currentTimeMillis() - begin;
+        if (logger.isInfoEnabled()) {
+            logger.info("[jade] warmed up " + daoMetaData.getDAOClass().getName() + ": "
+                        + methods.size() + " statements in " + cost + "ms");
+        }
+        return cost;
+    }
+
+    private Statement createStatement(Method method) {
+        // config
+        DAOConfig config = daoMetaData.getConfig();
+        DataAccessFactory dataAccessFactory = config.getDataAccessFactory();
+        RowMapperFactory rowMapperFactory = config.getRowMapperFactory();
+        InterpreterFactory interpreterFactory = config.getInterpreterFactory();
+        CacheProvider cacheProvider = config.getCacheProvider();
+        StatementWrapperProvider wrapperProvider = config.getStatementWrapperProvider();
+
+        // create
+        StatementMetaData smd = new StatementMetaData(daoMetaData, method);
+        SQLType sqlType = smd.getSQLType();
+        Querier querier;
+        if (sqlType == SQLType.READ) {
+            RowMapper<?> rowMapper = rowMapperFactory.getRowMapper(smd);
+            querier = new SelectQuerier(dataAccessFactory, smd, rowMapper);
+        } else {
+            querier = new UpdateQuerier(dataAccessFactory, smd);
+        }
+        Interpreter[] interpreters = interpreterFactory.getInterpreters(smd);
+        Statement statement = new JdbcStatement(smd, sqlType, interpreters, querier);
+        if (cacheProvider != null) {
+            statement = new CachedStatement(cacheProvider, statement);
+        }
+        if (wrapperProvider != null) {
+            statement = wrapperProvider.wrap(statement);
+        }
         return statement;
     }
 
+    /**
+     * 返回DAO接口中需要实现的方法：去掉签名重复的、静态的以及与Object的public方法相同的
+     * 
+     * @param daoClass
+     * @return
+     */
+    static List<Method> getDAOMethods(Class<?> daoClass) {
+        List<Method> methods = new ArrayList<Method>();
+        Set<String> signatures = new HashSet<String>();
+        for (Method method : daoClass.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            if (ClassUtils.hasMethod(Object.class, method.getName(), method.getParameterTypes())) {
+                continue;
+            }
+            if (signatures.add(method.getName() + Type.getMethodDescriptor(method))) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
     private Object invokeObjectMethod(Object proxy, Method method, Object[] args) 
             throws CloneNotSupportedException {
         String methodName = method.getName();
@@ -16,23 +16,28 @@
 package com.hengjue.dao.context.application;
 
 import java.lang.reflect.Proxy;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.sql.DataSource;
 
 import org.springframework.util.ClassUtils;
 
+import com.hengjue.dao.context.DAOClassGenerator;
 import com.hengjue.dao.context.JadeInvocationHandler;
 import com.hengjue.dao.dataAccess.DataAccessFactoryAdapter;
 import com.hengjue.dao.dataAccess.DataSourceFactory;
 import com.hengjue.dao.dataAccess.SimpleDataSourceFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
 import com.hengjue.dao.rowMapper.DefaultRowMapperFactory;
 import com.hengjue.dao.rowMapper.RowMapperFactory;
 import com.hengjue.dao.statement.DAOConfig;
 import com.hengjue.dao.statement.DAOMetaData;
 import com.hengjue.dao.statement.DefaultInterpreterFactory;
 import com.hengjue.dao.statement.Interpreter;
+import com.hengjue.dao.statement.SlowSQLLogger;
 import com.hengjue.dao.statement.StatementWrapperProvider;
 import com.hengjue.dao.statement.cached.CacheProvider;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
 
 /**
  * 
@@ -50,9 +55,24 @@ public class JadeFactory {
 
     private CacheProvider cacheProvider;
 
+    // 可选的
+    private MetricsRegistry metricsRegistry;
+
+    // 可选的，为null时使用 SlowSQLLogger.getDefault()
+    private SlowSQLLogger slowSQLLogger;
+
+    // 可选的，DAO方法没有标注 @FetchSize、@MaxRows、@QueryTimeout 时使用的设置
+    private StatementSettings statementSettings;
+
     // 可选的
     private StatementWrapperProvider statementWrapperProvider;
 
+    // 可选的，参见 DAOClassGenerator
+    private boolean generateDAOClass;
+
+    // 可选的，参见 JadeInvocationHandler#warmUp
+    private boolean warmUp;
+
     public JadeFactory() {
     }
 
@@ -72,6 +92,45 @@ public class JadeFactory {
         this.cacheProvider = cacheProvider;
     }
 
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * 设置后，所创建的DAO的各方法调用情况将被统计到给定的registry中
+     * 
+     * @param metricsRegistry
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public SlowSQLLogger getSlowSQLLogger() {
+        return slowSQLLogger;
+    }
+
+    /**
+     * 设置所创建的DAO使用的慢SQL日志(阈值、采样率)，不设置时使用全局默认的
+     * 
+     * @param slowSQLLogger
+     */
+    public void setSlowSQLLogger(SlowSQLLogger slowSQLLogger) {
+        this.slowSQLLogger = slowSQLLogger;
+    }
+
+    public StatementSettings getStatementSettings() {
+        return statementSettings;
+    }
+
+    /**
+     * 设置所创建的DAO默认的fetchSize、maxRows、queryTimeout，DAO接口或方法上的注解优先
+     * 
+     * @param statementSettings
+     */
+    public void setStatementSettings(StatementSettings statementSettings) {
+        this.statementSettings = statementSettings;
+    }
+
     public DataSourceFactory getDataSourceFactory() {
         if (this.dataAccessFactory == null) {
             return null;
@@ -91,6 +150,36 @@ public class JadeFactory {
         this.statementWrapperProvider = statementWrapperProvider;
     }
 
+    public boolean isGenerateDAOClass() {
+        return generateDAOClass;
+    }
+
+    /**
+     * 设置为true时，对public的DAO接口在运行时生成实现类替代 {@link Proxy}，其它DAO接口仍然使用
+     * {@link Proxy}
+     * 
+     * @param generateDAOClass
+     * @see DAOClassGenerator
+     */
+    public void setGenerateDAOClass(boolean generateDAOClass) {
+        this.generateDAOClass = generateDAOClass;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * 设置为true时，在创建DAO时就并行创建其所有方法的Statement并预编译SQL，SQL有误时 {@link #create(Class)}
+     * 将直接抛出异常
+     * 
+     * @param warmUp
+     * @see JadeInvocationHandler#warmUp(ForkJoinPool)
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
     public void addInterpreter(Interpreter... interpreters) {
         for (Interpreter interpreter : interpreters) {
             interpreterFactory.addInterpreter(interpreter);
@@ -102,12 +191,30 @@ public class JadeFactory {
         try {
             DAOConfig config = new DAOConfig(dataAccessFactory, rowMapperFactory,
                 interpreterFactory, cacheProvider, statementWrapperProvider);
+            config.setMetricsRegistry(metricsRegistry);
+            config.setSlowSQLLogger(slowSQLLogger);
+            config.setStatementSettings(statementSettings);
             DAOMetaData daoMetaData = new DAOMetaData(daoClass, config);
             JadeInvocationHandler handler = new JadeInvocationHandler(daoMetaData);
+            if (warmUp) {
+                handler.warmUp(ForkJoinPool.commonPool());
+            }
+            if (generateDAOClass && DAOClassGenerator.isSupported(daoClass)) {
+                return (T) DAOClassGenerator.newInstance(handler);
+            }
             ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
             return (T) Proxy.newProxyInstance(classLoader, new Class[] { daoClass }, handler);
         } catch (RuntimeException e) {
             throw new IllegalStateException("failed to create bean for " + daoClass.getName(), e);
         }
     }
+
+    /**
+     * 关闭异步DAO方法使用的线程池，之后调用所创建DAO的异步方法将被拒绝
+     */
+    public void close() {
+        if (dataAccessFactory != null) {
+            dataAccessFactory.close();
+        }
+    }
 }
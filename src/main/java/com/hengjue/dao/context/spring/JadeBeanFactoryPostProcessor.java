@@ -29,6 +29,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
@@ -43,14 +44,17 @@ import org.springframework.util.ResourceUtils;
 import com.hengjue.dao.dataAccess.DataAccessFactory;
 import com.hengjue.dao.dataAccess.DataAccessFactoryAdapter;
 import com.hengjue.dao.dataAccess.DataSourceFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
 import com.hengjue.dao.load.ResourceRef;
 import com.hengjue.dao.load.RoseScanner;
 import com.hengjue.dao.rowMapper.DefaultRowMapperFactory;
 import com.hengjue.dao.rowMapper.RowMapperFactory;
 import com.hengjue.dao.statement.Interpreter;
 import com.hengjue.dao.statement.InterpreterFactory;
+import com.hengjue.dao.statement.SlowSQLLogger;
 import com.hengjue.dao.statement.StatementWrapperProvider;
 import com.hengjue.dao.statement.cached.CacheProvider;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
 
 /**
  * {@link JadeBeanFactoryPostProcessor}
@@ -153,7 +157,7 @@ import com.hengjue.dao.statement.cached.CacheProvider;
  * @author 王志亮 [qieqie.wang@gmail.com]
  * @author 廖涵 [in355hz@gmail.com]
  */
-public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor, DisposableBean {
 
     /**
      * 开关属性前缀常量
@@ -199,6 +203,31 @@ public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
      */
     private String cacheProviderName;
 
+    /**
+     * 统计registry的bean名称，为“none”等价于null
+     */
+    private String metricsRegistryName;
+
+    /**
+     * 慢SQL日志的bean名称，为“none”等价于null
+     */
+    private String slowSQLLoggerName;
+
+    /**
+     * 默认语句设置(fetchSize、maxRows、queryTimeout)的bean名称，为“none”等价于null
+     */
+    private String statementSettingsName;
+
+    /**
+     * 是否为public的DAO接口在运行时生成实现类替代Proxy，参见 {@link JadeFactoryBean#setGenerateDAOClass(boolean)}
+     */
+    private boolean generateDAOClass;
+
+    /**
+     * 是否在Spring容器启动时预热DAO，参见 {@link JadeFactoryBean#setWarmUp(boolean)}
+     */
+    private boolean warmUp;
+
     // ------------------------------
 
     public DataAccessFactory getDataAccessFactory(ConfigurableListableBeanFactory beanFactory) {
@@ -209,6 +238,16 @@ public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
         return dataAccessFactory;
     }
 
+    /**
+     * Spring容器关闭时，关闭本处理器创建的 {@link DataAccessFactoryAdapter} 中异步DAO方法使用的线程池
+     */
+    @Override
+    public void destroy() {
+        if (dataAccessFactory instanceof DataAccessFactoryAdapter) {
+            ((DataAccessFactoryAdapter) dataAccessFactory).close();
+        }
+    }
+
     public InterpreterFactory getInterpreterFactory(ConfigurableListableBeanFactory beanFactory) {
         if (interpreterFactory == null) {
             interpreterFactory = new SpringInterpreterFactory(beanFactory);
@@ -227,6 +266,22 @@ public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
         this.rowMapperFactory = rowMapperFactory;
     }
     
+    public boolean isGenerateDAOClass() {
+        return generateDAOClass;
+    }
+
+    public void setGenerateDAOClass(boolean generateDAOClass) {
+        this.generateDAOClass = generateDAOClass;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
     public String getCacheProviderName(ConfigurableListableBeanFactory beanFactory) {
         if (cacheProviderName == null) {
             String[] names = beanFactory.getBeanNamesForType(CacheProvider.class);
@@ -247,6 +302,66 @@ public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
         return "none".equals(cacheProviderName) ? null : cacheProviderName;
     }
 
+    public String getMetricsRegistryName(ConfigurableListableBeanFactory beanFactory) {
+        if (metricsRegistryName == null) {
+            String[] names = beanFactory.getBeanNamesForType(MetricsRegistry.class);
+            if (names.length == 0) {
+                metricsRegistryName = "none";
+            } else if (names.length == 1) {
+                metricsRegistryName = names[0];
+            } else {
+                String topPriority = "jade.metricsRegistry";
+                if (ArrayUtils.contains(names, topPriority)) {
+                    metricsRegistryName = topPriority;
+                } else {
+                    throw new IllegalStateException(
+                            "required not more than 1 MetricsRegistry, but found " + names.length);
+                }
+            }
+        }
+        return "none".equals(metricsRegistryName) ? null : metricsRegistryName;
+    }
+
+    public String getSlowSQLLoggerName(ConfigurableListableBeanFactory beanFactory) {
+        if (slowSQLLoggerName == null) {
+            String[] names = beanFactory.getBeanNamesForType(SlowSQLLogger.class);
+            if (names.length == 0) {
+                slowSQLLoggerName = "none";
+            } else if (names.length == 1) {
+                slowSQLLoggerName = names[0];
+            } else {
+                String topPriority = "jade.slowSQLLogger";
+                if (ArrayUtils.contains(names, topPriority)) {
+                    slowSQLLoggerName = topPriority;
+                } else {
+                    throw new IllegalStateException(
+                            "required not more than 1 SlowSQLLogger, but found " + names.length);
+                }
+            }
+        }
+        return "none".equals(slowSQLLoggerName) ? null : slowSQLLoggerName;
+    }
+
+    public String getStatementSettingsName(ConfigurableListableBeanFactory beanFactory) {
+        if (statementSettingsName == null) {
+            String[] names = beanFactory.getBeanNamesForType(StatementSettings.class);
+            if (names.length == 0) {
+                statementSettingsName = "none";
+            } else if (names.length == 1) {
+                statementSettingsName = names[0];
+            } else {
+                String topPriority = "jade.statementSettings";
+                if (ArrayUtils.contains(names, topPriority)) {
+                    statementSettingsName = topPriority;
+                } else {
+                    throw new IllegalStateException(
+                            "required not more than 1 StatementSettings, but found " + names.length);
+                }
+            }
+        }
+        return "none".equals(statementSettingsName) ? null : statementSettingsName;
+    }
+
     public String getStatementWrapperProvider(ConfigurableListableBeanFactory beanFactory) {
         if (statmentWrapperProviderName == null) {
             String[] names = beanFactory.getBeanNamesForType(StatementWrapperProvider.class);
@@ -422,6 +537,27 @@ public class JadeBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
             RuntimeBeanReference beanRef = new RuntimeBeanReference(statementWrapperProvider);
             propertyValues.addPropertyValue("statementWrapperProvider", beanRef);
         }
+        String metricsRegistryName = getMetricsRegistryName(beanFactory);
+        if (metricsRegistryName != null) {
+            RuntimeBeanReference beanRef = new RuntimeBeanReference(metricsRegistryName);
+            propertyValues.addPropertyValue("metricsRegistry", beanRef);
+        }
+        String slowSQLLoggerName = getSlowSQLLoggerName(beanFactory);
+        if (slowSQLLoggerName != null) {
+            RuntimeBeanReference beanRef = new RuntimeBeanReference(slowSQLLoggerName);
+            propertyValues.addPropertyValue("slowSQLLogger", beanRef);
+        }
+        String statementSettingsName = getStatementSettingsName(beanFactory);
+        if (statementSettingsName != null) {
+            RuntimeBeanReference beanRef = new RuntimeBeanReference(statementSettingsName);
+            propertyValues.addPropertyValue("statementSettings", beanRef);
+        }
+        if (generateDAOClass) {
+            propertyValues.addPropertyValue("generateDAOClass", Boolean.TRUE);
+        }
+        if (warmUp) {
+            propertyValues.addPropertyValue("warmUp", Boolean.TRUE);
+        }
         ScannedGenericBeanDefinition scannedBeanDefinition = (ScannedGenericBeanDefinition) beanDefinition;
         scannedBeanDefinition.setPropertyValues(propertyValues);
         scannedBeanDefinition.setBeanClass(JadeFactoryBean.class);
@@ -16,20 +16,25 @@
 package com.hengjue.dao.context.spring;
 
 import java.lang.reflect.Proxy;
+import java.util.concurrent.ForkJoinPool;
 
-import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.SmartFactoryBean;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
+import com.hengjue.dao.context.DAOClassGenerator;
 import com.hengjue.dao.context.JadeInvocationHandler;
 import com.hengjue.dao.dataAccess.DataAccessFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
 import com.hengjue.dao.rowMapper.RowMapperFactory;
 import com.hengjue.dao.statement.DAOConfig;
 import com.hengjue.dao.statement.DAOMetaData;
 import com.hengjue.dao.statement.InterpreterFactory;
+import com.hengjue.dao.statement.SlowSQLLogger;
 import com.hengjue.dao.statement.StatementWrapperProvider;
 import com.hengjue.dao.statement.cached.CacheProvider;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
 
 /**
  * 
@@ -39,7 +44,7 @@ import com.hengjue.dao.statement.cached.CacheProvider;
  * 
  */
 @SuppressWarnings("rawtypes")
-public class JadeFactoryBean implements FactoryBean, InitializingBean {
+public class JadeFactoryBean implements SmartFactoryBean, InitializingBean {
 
     protected Class<?> objectType;
 
@@ -51,11 +56,25 @@ public class JadeFactoryBean implements FactoryBean, InitializingBean {
 
     protected CacheProvider cacheProvider;
 
+    // 可选的
+    protected MetricsRegistry metricsRegistry;
+
+    protected SlowSQLLogger slowSQLLogger;
+
+    // 可选的，DAO方法没有标注 @FetchSize 等时使用的语句设置
+    protected StatementSettings statementSettings;
+
     protected Object daoObject;
 
     // 可选的
     private StatementWrapperProvider statementWrapperProvider;
 
+    // 可选的，参见 DAOClassGenerator
+    private boolean generateDAOClass;
+
+    // 可选的，参见 JadeInvocationHandler#warmUp
+    private boolean warmUp;
+
     public JadeFactoryBean() {
     }
 
@@ -112,6 +131,30 @@ public class JadeFactoryBean implements FactoryBean, InitializingBean {
         return cacheProvider;
     }
 
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public SlowSQLLogger getSlowSQLLogger() {
+        return slowSQLLogger;
+    }
+
+    public void setSlowSQLLogger(SlowSQLLogger slowSQLLogger) {
+        this.slowSQLLogger = slowSQLLogger;
+    }
+
+    public StatementSettings getStatementSettings() {
+        return statementSettings;
+    }
+
+    public void setStatementSettings(StatementSettings statementSettings) {
+        this.statementSettings = statementSettings;
+    }
+
     public StatementWrapperProvider getStatementWrapperProvider() {
         return statementWrapperProvider;
     }
@@ -120,11 +163,49 @@ public class JadeFactoryBean implements FactoryBean, InitializingBean {
         this.statementWrapperProvider = statementWrapperProvider;
     }
 
+    public boolean isGenerateDAOClass() {
+        return generateDAOClass;
+    }
+
+    /**
+     * 设置为true时，对public的DAO接口在运行时生成实现类替代 {@link Proxy}
+     * 
+     * @param generateDAOClass
+     * @see DAOClassGenerator
+     */
+    public void setGenerateDAOClass(boolean generateDAOClass) {
+        this.generateDAOClass = generateDAOClass;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * 设置为true时，Spring容器启动时即创建本DAO，并行创建其所有方法的Statement并预编译SQL
+     * 
+     * @param warmUp
+     * @see JadeInvocationHandler#warmUp(ForkJoinPool)
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
     @Override
     public boolean isSingleton() {
         return true;
     }
 
+    @Override
+    public boolean isPrototype() {
+        return false;
+    }
+
+    @Override
+    public boolean isEagerInit() {
+        return warmUp;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.isTrue(objectType.isInterface(), "not a interface class: " + objectType.getName());
@@ -147,8 +228,17 @@ public class JadeFactoryBean implements FactoryBean, InitializingBean {
         try {
             DAOConfig config = new DAOConfig(dataAccessFactory, rowMapperFactory,
                 interpreterFactory, cacheProvider, statementWrapperProvider);
+            config.setMetricsRegistry(metricsRegistry);
+            config.setSlowSQLLogger(slowSQLLogger);
+            config.setStatementSettings(statementSettings);
             DAOMetaData daoMetaData = new DAOMetaData(objectType, config);
             JadeInvocationHandler handler = new JadeInvocationHandler(daoMetaData);
+            if (warmUp) {
+                handler.warmUp(ForkJoinPool.commonPool());
+            }
+            if (generateDAOClass && DAOClassGenerator.isSupported(objectType)) {
+                return DAOClassGenerator.newInstance(handler);
+            }
             return Proxy.newProxyInstance(ClassUtils.getDefaultClassLoader(),
                 new Class[] { objectType }, handler);
         } catch (RuntimeException e) {
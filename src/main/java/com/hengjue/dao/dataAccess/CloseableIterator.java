@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.dataAccess;
+
+import java.util.Iterator;
+
+/**
+ * 逐行读取查询结果的迭代器，背后是一个打开的ResultSet：读完最后一行或者调用 {@link #close()} 时，
+ * 关闭ResultSet、语句并释放连接。
+ * <p>
+ * 
+ * DAO方法可以声明返回 CloseableIterator&lt;T&gt;，调用者应在 try-with-resources 中使用；
+ * 迭代过程中出错时也会自动关闭。
+ * 
+ * @see DataAccess#iterate(String, Object[], org.springframework.jdbc.core.RowMapper, StatementSettings)
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * 关闭ResultSet、语句并释放连接，可以重复调用
+     */
+    @Override
+    void close();
+}
@@ -15,10 +15,14 @@
  */
 package com.hengjue.dao.dataAccess;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.sql.DataSource;
 
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.KeyHolder;
 
@@ -39,6 +43,13 @@ public interface DataAccess {
      */
     DataSource getDataSource();
 
+    /**
+     * 返回专属于该DataSource的有界线程池，供返回 CompletableFuture 的异步DAO方法使用
+     * 
+     * @return
+     */
+    Executor getExecutor();
+
     /**
      * 读访问
      * 
@@ -49,6 +60,74 @@ public interface DataAccess {
      */
     <T> List<T> select(String sql, Object[] args, RowMapper<T> rowMapper);
 
+    /**
+     * 读访问，并按给定的设置执行语句
+     * <p>
+     * 默认实现忽略设置，只为兼容没有实现此方法的 {@link DataAccess}
+     * 
+     * @param sql 所要执行的实际SQL语句
+     * @param args 伴随该SQL语句的参数
+     * @param rowMapper 行映射器
+     * @param settings 设置到语句上的fetchSize、maxRows、queryTimeout
+     * @return
+     */
+    default <T> List<T> select(String sql, Object[] args, RowMapper<T> rowMapper,
+                               StatementSettings settings) {
+        return select(sql, args, rowMapper);
+    }
+
+    /**
+     * 读访问，由给定的extractor逐行读取ResultSet，直接生成最终的结果(而不是先读入一个List)
+     * <p>
+     * 默认实现直接在 {@link #getDataSource()} 上执行，只为兼容没有实现此方法的 {@link DataAccess}
+     * 
+     * @param sql 所要执行的实际SQL语句
+     * @param args 伴随该SQL语句的参数
+     * @param extractor 结果集读取器
+     * @param settings 设置到语句上的fetchSize、maxRows、queryTimeout
+     * @return
+     */
+    default <T> T select(String sql, Object[] args, ResultSetExtractor<T> extractor,
+                         StatementSettings settings) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(getDataSource());
+        jdbcTemplate.setFetchSize(settings.getFetchSize());
+        jdbcTemplate.setMaxRows(settings.getMaxRows());
+        jdbcTemplate.setQueryTimeout(settings.getQueryTimeout());
+        return jdbcTemplate.query(sql, args, extractor);
+    }
+
+    /**
+     * 逐行读访问：不把结果全部读入内存，而是返回背后为打开的ResultSet的迭代器，调用者负责关闭
+     * <p>
+     * 默认实现读出全部结果，只为兼容没有实现此方法的 {@link DataAccess}
+     * 
+     * @param sql 所要执行的实际SQL语句
+     * @param args 伴随该SQL语句的参数
+     * @param rowMapper 行映射器
+     * @param settings 设置到语句上的fetchSize、maxRows、queryTimeout
+     * @return
+     */
+    default <T> CloseableIterator<T> iterate(String sql, Object[] args, RowMapper<T> rowMapper,
+                                             StatementSettings settings) {
+        final Iterator<T> iterator = select(sql, args, rowMapper, settings).iterator();
+        return new CloseableIterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
     /**
      * 写访问（更新或插入）
      * 
@@ -59,6 +138,22 @@ public interface DataAccess {
      */
     int update(String sql, Object[] args, KeyHolder generatedKeyHolder);
 
+    /**
+     * 写访问（更新或插入），并按给定的设置执行语句
+     * <p>
+     * 默认实现忽略设置，只为兼容没有实现此方法的 {@link DataAccess}
+     * 
+     * @param sql 所要执行的实际SQL语句
+     * @param args 伴随该SQL语句的参数
+     * @param generatedKeyHolder 是否要读取该SQL生成的key
+     * @param settings 设置到语句上的queryTimeout等
+     * @return
+     */
+    default int update(String sql, Object[] args, KeyHolder generatedKeyHolder,
+                       StatementSettings settings) {
+        return update(sql, args, generatedKeyHolder);
+    }
+
     /**
      * 批量写访问（更新或插入）
      * 
@@ -67,4 +162,18 @@ public interface DataAccess {
      * @return
      */
     int[] batchUpdate(String sql, List<Object[]> batchArgs);
+
+    /**
+     * 批量写访问（更新或插入），并按给定的设置执行语句
+     * <p>
+     * 默认实现忽略设置，只为兼容没有实现此方法的 {@link DataAccess}
+     * 
+     * @param sql 所要执行的实际SQL语句
+     * @param batchArgs 伴随该SQL语句的参数
+     * @param settings 设置到语句上的queryTimeout等
+     * @return
+     */
+    default int[] batchUpdate(String sql, List<Object[]> batchArgs, StatementSettings settings) {
+        return batchUpdate(sql, batchArgs);
+    }
 }
@@ -62,4 +62,17 @@ public class DataAccessFactoryAdapter implements DataAccessFactory {
         }
         return dataAccess;
     }
+
+    /**
+     * 关闭所创建的 {@link DataAccessImpl} 的异步线程池
+     * 
+     * @see DataAccessImpl#shutdown()
+     */
+    public void close() {
+        for (DataAccess dataAccess : dataAccessCache.values()) {
+            if (dataAccess instanceof DataAccessImpl) {
+                ((DataAccessImpl) dataAccess).shutdown();
+            }
+        }
+    }
 }
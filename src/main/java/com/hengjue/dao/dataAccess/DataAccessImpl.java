@@ -17,19 +17,32 @@ package com.hengjue.dao.dataAccess;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.RowMapperResultSetExtractor;
 import org.springframework.jdbc.core.SqlParameterValue;
 import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.KeyHolder;
 
 /**
@@ -39,10 +52,49 @@ import org.springframework.jdbc.support.KeyHolder;
  */
 public class DataAccessImpl implements DataAccess {
 
+    /**
+     * 异步线程池的线程数，默认为CPU数的2倍(至少4个)，可通过系统属性 jade.async.poolSize 设置
+     */
+    private static final int ASYNC_POOL_SIZE = Integer.getInteger("jade.async.poolSize",
+        Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    /**
+     * 异步线程池的等待队列长度，默认1024，可通过系统属性 jade.async.queueSize 设置；队列满时提交将被拒绝
+     */
+    private static final int ASYNC_QUEUE_SIZE = Integer.getInteger("jade.async.queueSize", 1024);
+
+    /**
+     * 每个连接缓存的PreparedStatement个数，默认0(不缓存)，可通过系统属性 jade.statementCacheSize 设置
+     */
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("jade.statementCacheSize", 0);
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
     private final JdbcTemplate jdbcTemplate;
 
+    // 不缓存PreparedStatement时为null
+    private final PreparedStatementCache statementCache;
+
+    // 第一次调用异步DAO方法时才创建
+    private volatile ThreadPoolExecutor executor;
+
+    // 调用 shutdown() 之后不再创建线程池
+    private boolean shutdown;
+
     public DataAccessImpl(DataSource dataSource) {
+        this(dataSource, STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * 
+     * @param dataSource
+     * @param statementCacheSize 每个连接缓存的PreparedStatement个数，0表示不缓存
+     * @see PreparedStatementCache
+     */
+    public DataAccessImpl(DataSource dataSource, int statementCacheSize) {
         this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.statementCache = statementCacheSize > 0 ? new PreparedStatementCache(
+            statementCacheSize) : null;
     }
 
     // ------------------------------------------------
@@ -51,16 +103,108 @@ public class DataAccessImpl implements DataAccess {
         return this.jdbcTemplate.getDataSource();
     }
 
+    /**
+     * 
+     * @return PreparedStatement的缓存，可以查看其命中率；不缓存时返回null
+     */
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    if (shutdown) {
+                        throw new RejectedExecutionException("shutdown: " + getDataSource());
+                    }
+                    executor = new ThreadPoolExecutor(ASYNC_POOL_SIZE, ASYNC_POOL_SIZE, 60L,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+                        new AsyncThreadFactory());
+                    // 空闲时不保留线程
+                    executor.allowCoreThreadTimeOut(true);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 关闭异步线程池：已提交的异步DAO方法继续执行完，之后的调用被拒绝(RejectedExecutionException)
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
     @Override
     public <T> List<T> select(String sql, Object[] args, RowMapper<T> rowMapper) {
-        PreparedStatementCreator csc = getPreparedStatementCreator(sql, args, false);
-        return jdbcTemplate.query(csc, new RowMapperResultSetExtractor<T>(rowMapper));
+        return select(sql, args, rowMapper, StatementSettings.DEFAULT);
+    }
+
+    @Override
+    public <T> List<T> select(String sql, Object[] args, RowMapper<T> rowMapper,
+                              StatementSettings settings) {
+        return select(sql, args, new RowMapperResultSetExtractor<T>(rowMapper), settings);
+    }
+
+    @Override
+    public <T> T select(String sql, Object[] args, ResultSetExtractor<T> extractor,
+                        StatementSettings settings) {
+        PreparedStatementCreator csc = getPreparedStatementCreator(sql, args, false, settings);
+        return jdbcTemplate.query(csc, extractor);
+    }
+
+    @Override
+    public <T> CloseableIterator<T> iterate(String sql, Object[] args, RowMapper<T> rowMapper,
+                                            StatementSettings settings) {
+        DataSource dataSource = getDataSource();
+        Connection con = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = getPreparedStatementCreator(sql, args, false, settings)
+                .createPreparedStatement(con);
+            // 与JdbcTemplate一样，事务设置了超时时以事务剩余的时间为准
+            DataSourceUtils.applyTransactionTimeout(ps, dataSource);
+            rs = ps.executeQuery();
+            return new ResultSetIterator<T>(sql, con, ps, rs, rowMapper);
+        } catch (SQLException e) {
+            release(con, ps, rs);
+            throw jdbcTemplate.getExceptionTranslator().translate("iterate", sql, e);
+        } catch (RuntimeException e) {
+            // 比如事务已超时(TransactionTimedOutException)
+            release(con, ps, rs);
+            throw e;
+        } catch (Error e) {
+            release(con, ps, rs);
+            throw e;
+        }
+    }
+
+    private void release(Connection con, PreparedStatement ps, ResultSet rs) {
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(ps);
+        DataSourceUtils.releaseConnection(con, getDataSource());
     }
 
     @Override
     public int update(String sql, Object[] args, KeyHolder generatedKeyHolder) {
+        return update(sql, args, generatedKeyHolder, StatementSettings.DEFAULT);
+    }
+
+    @Override
+    public int update(String sql, Object[] args, KeyHolder generatedKeyHolder,
+                      StatementSettings settings) {
         boolean returnKeys = generatedKeyHolder != null;
-        PreparedStatementCreator psc = getPreparedStatementCreator(sql, args, returnKeys);
+        PreparedStatementCreator psc = getPreparedStatementCreator(sql, args, returnKeys,
+            settings);
         if (generatedKeyHolder == null) {
             return jdbcTemplate.update(psc);
         } else {
@@ -70,39 +214,155 @@ public class DataAccessImpl implements DataAccess {
 
     @Override
     public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
-        return jdbcTemplate.batchUpdate(sql, batchArgs);
+        return batchUpdate(sql, batchArgs, StatementSettings.DEFAULT);
+    }
+
+    @Override
+    public int[] batchUpdate(String sql, final List<Object[]> batchArgs,
+                             StatementSettings settings) {
+        // 默认设置也经过 getPreparedStatementCreator, 以便使用语句缓存
+        return jdbcTemplate.execute(getPreparedStatementCreator(sql, null, false, settings),
+            new PreparedStatementCallback<int[]>() {
+
+                @Override
+                public int[] doInPreparedStatement(PreparedStatement ps) throws SQLException {
+                    for (Object[] args : batchArgs) {
+                        setParameters(ps, args);
+                        ps.addBatch();
+                    }
+                    return ps.executeBatch();
+                }
+            });
+    }
+
+    private static void setParameters(PreparedStatement ps, Object[] args) throws SQLException {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg instanceof SqlParameterValue) {
+                    SqlParameterValue paramValue = (SqlParameterValue) arg;
+                    StatementCreatorUtils.setParameterValue(ps, i + 1, paramValue,
+                            paramValue.getValue());
+                } else {
+                    StatementCreatorUtils.setParameterValue(ps, i + 1,
+                            SqlTypeValue.TYPE_UNKNOWN, arg);
+                }
+            }
+        }
     }
 
     private PreparedStatementCreator getPreparedStatementCreator(//
-            final String sql, final Object[] args, final boolean returnKeys) {
+            final String sql, final Object[] args, final boolean returnKeys,
+            final StatementSettings settings) {
         PreparedStatementCreator creator = new PreparedStatementCreator() {
 
             @Override
             public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
-                PreparedStatement ps = con.prepareStatement(sql);
-                if (returnKeys) {
+                PreparedStatement ps;
+                if (statementCache != null) {
+                    ps = statementCache.prepareStatement(con, sql, returnKeys);
+                } else if (returnKeys) {
                     ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
                 } else {
                     ps = con.prepareStatement(sql);
                 }
-
-                if (args != null) {
-                    for (int i = 0; i < args.length; i++) {
-                        Object arg = args[i];
-                        if (arg instanceof SqlParameterValue) {
-                            SqlParameterValue paramValue = (SqlParameterValue) arg;
-                            StatementCreatorUtils.setParameterValue(ps, i + 1, paramValue,
-                                    paramValue.getValue());
-                        } else {
-                            StatementCreatorUtils.setParameterValue(ps, i + 1,
-                                    SqlTypeValue.TYPE_UNKNOWN, arg);
-                        }
-                    }
-                }
+                settings.applyTo(ps);
+                setParameters(ps, args);
                 return ps;
             }
         };
         return creator;
     }
 
+    /**
+     * 逐行映射打开的ResultSet，读完或出错时自动关闭
+     */
+    private class ResultSetIterator<T> implements CloseableIterator<T> {
+
+        private final String sql;
+
+        private final Connection con;
+
+        private final PreparedStatement ps;
+
+        private final ResultSet rs;
+
+        private final RowMapper<T> rowMapper;
+
+        private int rowNum;
+
+        // 是否已移到下一行但还没有映射
+        private boolean fetched;
+
+        private boolean closed;
+
+        ResultSetIterator(String sql, Connection con, PreparedStatement ps, ResultSet rs,
+                          RowMapper<T> rowMapper) {
+            this.sql = sql;
+            this.con = con;
+            this.ps = ps;
+            this.rs = rs;
+            this.rowMapper = rowMapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (!fetched) {
+                try {
+                    if (!rs.next()) {
+                        close();
+                        return false;
+                    }
+                } catch (SQLException e) {
+                    close();
+                    throw jdbcTemplate.getExceptionTranslator().translate("iterate", sql, e);
+                }
+                fetched = true;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            try {
+                return rowMapper.mapRow(rs, rowNum++);
+            } catch (SQLException e) {
+                close();
+                throw jdbcTemplate.getExceptionTranslator().translate("iterate", sql, e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(con, ps, rs);
+            }
+        }
+    }
+
+    private static class AsyncThreadFactory implements ThreadFactory {
+
+        private final String namePrefix = "jade-async-" + poolNumber.incrementAndGet() + "-";
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.dataAccess;
+
+import java.util.Arrays;
+
+/**
+ * long到long的映射，key、value都以long存放(开放寻址、线性探测)，不为每一对创建 Long 和 Map.Entry 对象。
+ * <p>
+ * 
+ * 返回两列的查询(如 id-&gt;count、id-&gt;id)结果很多时，DAO方法可以声明返回 LongLongMap 代替
+ * Map&lt;Long, Long&gt;：第一列(或 {@link com.hengjue.dao.annotation.KeyColumnOfMap} 指定的列)为key，
+ * 另一列为value，直接用 ResultSet#getLong 读取；列值为null时抛出异常。int等整数列同样可以使用。
+ * <p>
+ * 
+ * 不是线程安全的。
+ * 
+ */
+public class LongLongMap {
+
+    /**
+     * 遍历映射的回调
+     */
+    public interface Visitor {
+
+        void visit(long key, long value);
+    }
+
+    // key为0的一对单独存放，数组中的0代表空位
+    private long[] keys;
+
+    private long[] values;
+
+    private int mask;
+
+    private int size;
+
+    private boolean hasZeroKey;
+
+    private long zeroValue;
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    /**
+     * 
+     * @param expectedSize 预计的元素个数，放入这么多元素前不会扩容
+     */
+    public LongLongMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+        }
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : keys[indexOf(key)] != 0;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return key对应的value，不存在时返回0
+     */
+    public long get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return key对应的value，不存在时返回defaultValue
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int index = indexOf(key);
+        return keys[index] != 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param value
+     * @return 原来的value，原来不存在时返回0
+     */
+    public long put(long key, long value) {
+        long old;
+        if (key == 0) {
+            old = hasZeroKey ? zeroValue : 0;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return old;
+        }
+        int index = indexOf(key);
+        if (keys[index] != 0) {
+            old = values[index];
+            values[index] = value;
+            return old;
+        }
+        keys[index] = key;
+        values[index] = value;
+        // 负载因子不超过0.5
+        if (++size > (mask + 1) >> 1) {
+            rehash(keys.length << 1);
+        }
+        return 0;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return 删除的value，原来不存在时返回0
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return 0;
+            }
+            hasZeroKey = false;
+            size--;
+            return zeroValue;
+        }
+        int index = indexOf(key);
+        if (keys[index] == 0) {
+            return 0;
+        }
+        long old = values[index];
+        size--;
+        // 把后面同一探测链上的元素前移，保证查找不会在空位提前结束
+        int gap = index;
+        int i = (index + 1) & mask;
+        while (keys[i] != 0) {
+            int home = hash(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * 按不确定的顺序遍历所有的key-value
+     * 
+     * @param visitor
+     */
+    public void forEach(Visitor visitor) {
+        if (hasZeroKey) {
+            visitor.visit(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return 所有的key，顺序与 {@link #values()} 一致
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            result[n++] = 0;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 
+     * @return 所有的value，顺序与 {@link #keys()} 一致
+     */
+    public long[] values() {
+        long[] result = new long[size];
+        int n = 0;
+        if (hasZeroKey) {
+            result[n++] = zeroValue;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                result[n++] = values[i];
+            }
+        }
+        return result;
+    }
+
+    // key所在的位置，不存在时为应该放入的空位
+    private int indexOf(long key) {
+        int i = hash(key);
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongLongMap)) {
+            return false;
+        }
+        final LongLongMap other = (LongLongMap) obj;
+        if (other.size != size) {
+            return false;
+        }
+        final boolean[] equal = { true };
+        forEach(new Visitor() {
+
+            @Override
+            public void visit(long key, long value) {
+                if (equal[0] && (!other.containsKey(key) || other.get(key) != value)) {
+                    equal[0] = false;
+                }
+            }
+        });
+        return equal[0];
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hashCode = { 0 };
+        forEach(new Visitor() {
+
+            @Override
+            public void visit(long key, long value) {
+                hashCode[0] += Long.hashCode(key) ^ Long.hashCode(value);
+            }
+        });
+        return hashCode[0];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(size * 16 + 2).append('{');
+        forEach(new Visitor() {
+
+            @Override
+            public void visit(long key, long value) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+            }
+        });
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.dataAccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 按物理连接缓存 {@link PreparedStatement}：同一个连接上相同的SQL(及是否返回自增主键)再次执行时，
+ * 重用之前预编译的语句，而不是再调用一次 {@link Connection#prepareStatement(String)}。
+ * <p>
+ *
+ * 连接池(如Hikari、Druid)每次 getConnection() 返回一个新的包装对象，归还时关闭经它创建的语句。
+ * 所以这里先用 {@link Connection#unwrap(Class)} 取得被包装的物理连接，按物理连接的对象标识缓存，
+ * 语句也在物理连接上预编译，不经过连接池的包装，连接被归还、再次取出后仍然可以命中。
+ * unwrap 只返回包装对象本身的连接池(如未开启accessToUnderlyingConnectionAllowed的DBCP)
+ * 只能在同一次取出连接期间(比如同一个事务中)命中，这时建议使用连接池自己的语句缓存。
+ * <p>
+ *
+ * 取出的语句包装了缓存的语句，调用其 close() 时清除参数、恢复fetchSize等设置并放回所属连接的缓存，
+ * 而不真正关闭；每个连接最多缓存 maxSize 个语句，超出时关闭最久未使用的。
+ * <p>
+ *
+ * 缓存的语句一般引用着它的连接，弱引用的键不能使连接被回收，所以每登记一个新的物理连接时，
+ * 都丢弃已关闭的连接及其语句(已缓存的语句由连接本身负责关闭)。连接池中的物理连接很少更换，
+ * 登记新连接不是频繁的操作。
+ *
+ */
+public class PreparedStatementCache {
+
+    private static final Log logger = LogFactory.getLog(PreparedStatementCache.class);
+
+    private final int maxSize;
+
+    // 物理连接 -> 该连接上缓存的语句; 按对象标识区分连接
+    private final Map<Connection, Statements> connections = new IdentityHashMap<Connection, Statements>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     *
+     * @param maxSize - 每个连接最多缓存的语句数
+     */
+    public PreparedStatementCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 返回给定连接上预编译的语句，缓存中有时直接重用。
+     *
+     * @param con - 连接，可以是连接池的包装对象
+     * @param sql - SQL语句
+     * @param returnKeys - 是否返回自增主键
+     * @return 包装的语句，调用者使用完后照常 close()
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(Connection con, String sql, boolean returnKeys)
+            throws SQLException {
+        con = getPhysicalConnection(con);
+        Statements statements = getStatements(con);
+        Key key = new Key(sql, returnKeys);
+        PreparedStatement ps;
+        synchronized (statements) {
+            ps = statements.remove(key);
+        }
+        if (ps != null && !ps.isClosed()) {
+            hits.increment();
+        } else {
+            misses.increment();
+            ps = returnKeys ? con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : con
+                .prepareStatement(sql);
+        }
+        return new CachedStatement(statements, key, ps);
+    }
+
+    // 连接池的包装对象返回其物理连接, 不支持 unwrap 的返回本身
+    private static Connection getPhysicalConnection(Connection con) {
+        try {
+            for (int i = 0; i < 4 && con.isWrapperFor(Connection.class); i++) {
+                Connection target = con.unwrap(Connection.class);
+                if (target == null || target == con) {
+                    break;
+                }
+                con = target;
+            }
+        } catch (SQLException e) {
+            logger.debug("Could not unwrap Connection", e);
+        } catch (AbstractMethodError e) {
+            // JDBC4之前的驱动
+        }
+        return con;
+    }
+
+    private Statements getStatements(Connection con) {
+        List<Connection> registered;
+        Statements statements;
+        synchronized (connections) {
+            statements = connections.get(con);
+            if (statements != null) {
+                return statements;
+            }
+            statements = new Statements();
+            connections.put(con, statements);
+            registered = new ArrayList<Connection>(connections.keySet());
+        }
+        // 登记新连接时丢弃已关闭连接的缓存, 不在锁内调用 isClosed()
+        List<Connection> closed = new ArrayList<Connection>();
+        for (Connection registeredCon : registered) {
+            if (registeredCon != con && isClosed(registeredCon)) {
+                closed.add(registeredCon);
+            }
+        }
+        synchronized (connections) {
+            for (Connection closedCon : closed) {
+                connections.remove(closedCon);
+            }
+        }
+        return statements;
+    }
+
+    private static boolean isClosed(Connection con) {
+        try {
+            return con.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            logger.debug("Could not close cached PreparedStatement", e);
+        }
+    }
+
+    /**
+     *
+     * @return 每个连接最多缓存的语句数
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     * @return 当前登记的连接数
+     */
+    public int getConnectionCount() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     *
+     * @return 命中率，还没有取过语句时为0
+     */
+    public double getHitRate() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "maxSize=" + maxSize + ", connections=" + getConnectionCount() + ", hits="
+               + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+               + getEvictionCount();
+    }
+
+    /**
+     * 一个连接上缓存的语句，按最近使用的顺序排列
+     */
+    private final class Statements extends LinkedHashMap<Key, PreparedStatement> {
+
+        private static final long serialVersionUID = 1L;
+
+        Statements() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                close(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+
+        final String sql;
+
+        final boolean returnKeys;
+
+        Key(String sql, boolean returnKeys) {
+            this.sql = sql;
+            this.returnKeys = returnKeys;
+        }
+
+        @Override
+        public int hashCode() {
+            return returnKeys ? ~sql.hashCode() : sql.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return returnKeys == other.returnKeys && sql.equals(other.sql);
+        }
+    }
+
+    /**
+     * 取出的语句：close() 时放回缓存，其他方法直接调用原语句
+     */
+    private static final class CachedStatement extends DelegatingPreparedStatement {
+
+        private final Statements statements;
+
+        private final Key key;
+
+        private boolean closed;
+
+        // 是否修改过fetchSize、maxRows、queryTimeout, 是则放回前恢复默认值
+        private boolean settingsChanged;
+
+        CachedStatement(Statements statements, Key key, PreparedStatement target) {
+            super(target);
+            this.statements = statements;
+            this.key = key;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release();
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || target.isClosed();
+        }
+
+        @Override
+        public void setFetchSize(int rows) throws SQLException {
+            settingsChanged = true;
+            target.setFetchSize(rows);
+        }
+
+        @Override
+        public void setMaxRows(int max) throws SQLException {
+            settingsChanged = true;
+            target.setMaxRows(max);
+        }
+
+        @Override
+        public void setLargeMaxRows(long max) throws SQLException {
+            settingsChanged = true;
+            target.setLargeMaxRows(max);
+        }
+
+        @Override
+        public void setQueryTimeout(int seconds) throws SQLException {
+            settingsChanged = true;
+            target.setQueryTimeout(seconds);
+        }
+
+        private void release() {
+            try {
+                if (target.isClosed()) {
+                    return;
+                }
+                target.clearParameters();
+                // 批处理中途出错时可能留下未执行的批
+                target.clearBatch();
+                if (settingsChanged) {
+                    target.setFetchSize(0);
+                    target.setMaxRows(0);
+                    target.setQueryTimeout(0);
+                }
+            } catch (SQLException e) {
+                PreparedStatementCache.close(target);
+                return;
+            }
+            PreparedStatement replaced;
+            synchronized (statements) {
+                replaced = statements.put(key, target);
+            }
+            if (replaced != null && replaced != target) {
+                // 同一语句被并发取出过两次, 只保留一个
+                PreparedStatementCache.close(replaced);
+            }
+        }
+    }
+}
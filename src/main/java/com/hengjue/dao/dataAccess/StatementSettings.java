@@ -0,0 +1,142 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.dataAccess;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 执行语句时设置到 {@link Statement} 上的参数：fetchSize、maxRows、queryTimeout；0表示不设置(使用驱动的默认值)。
+ * <p>
+ * 
+ * DAO方法上的设置由 {@link com.hengjue.dao.annotation.FetchSize}、{@link com.hengjue.dao.annotation.MaxRows}、
+ * {@link com.hengjue.dao.annotation.QueryTimeout} 给出，未给出的取
+ * {@link com.hengjue.dao.statement.DAOConfig#getStatementSettings()} 的默认值。
+ * 
+ */
+public final class StatementSettings {
+
+    /**
+     * 全部使用驱动的默认值
+     */
+    public static final StatementSettings DEFAULT = new StatementSettings(0, 0, 0);
+
+    private final int fetchSize;
+
+    private final int maxRows;
+
+    private final int queryTimeout;
+
+    /**
+     * 
+     * @param fetchSize 每次从数据库读取的行数
+     * @param maxRows 最多返回的行数
+     * @param queryTimeout 查询超时的秒数
+     */
+    public StatementSettings(int fetchSize, int maxRows, int queryTimeout) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("maxRows must not be negative: " + maxRows);
+        }
+        if (queryTimeout < 0) {
+            throw new IllegalArgumentException("queryTimeout must not be negative: "
+                                               + queryTimeout);
+        }
+        this.fetchSize = fetchSize;
+        this.maxRows = maxRows;
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * 
+     * @return 每次从数据库读取的行数；0表示不设置，MySQL中Integer.MIN_VALUE表示流式读取
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * 
+     * @return 最多返回的行数，0表示不限
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * 
+     * @return 查询超时的秒数，0表示不限
+     */
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * 
+     * @param fetchSize
+     * @return fetchSize替换为给定值的设置
+     */
+    public StatementSettings withFetchSize(int fetchSize) {
+        return fetchSize == this.fetchSize ? this : new StatementSettings(fetchSize, maxRows,
+            queryTimeout);
+    }
+
+    /**
+     * 
+     * @return 是否全部使用驱动的默认值
+     */
+    public boolean isDefault() {
+        return fetchSize == 0 && maxRows == 0 && queryTimeout == 0;
+    }
+
+    /**
+     * 把非0的设置应用到语句上
+     * 
+     * @param statement
+     * @throws SQLException
+     */
+    public void applyTo(Statement statement) throws SQLException {
+        if (fetchSize != 0) {
+            statement.setFetchSize(fetchSize);
+        }
+        if (maxRows != 0) {
+            statement.setMaxRows(maxRows);
+        }
+        if (queryTimeout != 0) {
+            statement.setQueryTimeout(queryTimeout);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof StatementSettings)) {
+            return false;
+        }
+        StatementSettings other = (StatementSettings) obj;
+        return fetchSize == other.fetchSize && maxRows == other.maxRows
+               && queryTimeout == other.queryTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return (fetchSize * 31 + maxRows) * 31 + queryTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return "fetchSize=" + fetchSize + ", maxRows=" + maxRows + ", queryTimeout="
+               + queryTimeout;
+    }
+}
@@ -1,267 +1,693 @@
-/*
- * Copyright 2002-2008 the original author or authors.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.hengjue.dao.rowMapper;
-
-import java.beans.PropertyDescriptor;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.springframework.beans.BeanInstantiationException;
-import org.springframework.beans.BeanUtils;
-import org.springframework.beans.BeanWrapper;
-import org.springframework.beans.BeanWrapperImpl;
-import org.springframework.beans.NotWritablePropertyException;
-import org.springframework.dao.DataRetrievalFailureException;
-import org.springframework.dao.InvalidDataAccessApiUsageException;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.JdbcUtils;
-import org.springframework.util.Assert;
-
-/**
- * {@link RowMapper} implementation that converts a row into a new instance
- * of the specified mapped target class. The mapped target class must be a
- * top-level class and it must have a default or no-arg constructor.
- * 
- * <p>
- * Column values are mapped based on matching the column name as obtained
- * from result set metadata to public setters for the corresponding
- * properties. The names are matched either directly or by transforming a
- * name separating the parts with underscores to the same name using
- * "camel" case.
- * 
- * <p>
- * Mapping is provided for fields in the target class for many common
- * types, e.g.: String, boolean, Boolean, byte, Byte, short, Short, int,
- * Integer, long, Long, float, Float, double, Double, BigDecimal,
- * <code>java.util.Date</code>, etc.
- * 
- * <p>
- * To facilitate mapping between columns and fields that don't have
- * matching names, try using column aliases in the SQL statement like
- * "select fname as first_name from customer".
- * 
- * <p>
- * Please note that this class is designed to provide convenience rather
- * than high performance. For best performance consider using a custom
- * RowMapper.
- * 
- * @author Thomas Risberg
- * @author Juergen Hoeller
- * @author 王志亮 [qieqie.wang@gmail.com]
- * @since 2.5
- */
-public class BeanPropertyRowMapper implements RowMapper {
-
-    /** Logger available to subclasses */
-    protected final Log logger = LogFactory.getLog(getClass());
-
-    /** The class we are mapping to */
-    private final Class<?> mappedClass;
-
-    /** Map of the fields we provide mapping for */
-    private Map<String, PropertyDescriptor> mappedFields;
-
-    private final boolean checkColumns;
-
-    private final boolean checkProperties;
-
-    /** Set of bean properties we provide mapping for */
-    private Set<String> mappedProperties;
-
-    /**
-     * Create a new BeanPropertyRowMapper, accepting unpopulated properties
-     * in the target bean.
-     * 
-     * @param mappedClass the class that each row should be mapped to
-     */
-    public BeanPropertyRowMapper(Class<?> mappedClass, boolean checkColumns, boolean checkProperties) {
-        this.mappedClass = mappedClass;
-        Assert.state(this.mappedClass != null, "Mapped class was not specified");
-        this.checkProperties = checkProperties;
-        this.checkColumns = checkColumns;
-        initialize();
-    }
-
-    /**
-     * Initialize the mapping metadata for the given class.
-     * 
-     * @param mappedClass the mapped class.
-     */
-    protected void initialize() {
-        this.mappedFields = new HashMap<String, PropertyDescriptor>();
-        PropertyDescriptor[] pds = BeanUtils.getPropertyDescriptors(mappedClass);
-        if (checkProperties) {
-            mappedProperties = new HashSet<String>();
-        }
-        for (int i = 0; i < pds.length; i++) {
-            PropertyDescriptor pd = pds[i];
-            if (pd.getWriteMethod() != null) {
-                if (checkProperties) {
-                    this.mappedProperties.add(pd.getName());
-                }
-                this.mappedFields.put(pd.getName().toLowerCase(), pd);
-                for (String underscoredName : underscoreName(pd.getName())) {
-                    if (underscoredName != null
-                            && !pd.getName().toLowerCase().equals(underscoredName)) {
-                        this.mappedFields.put(underscoredName, pd);
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Convert a name in camelCase to an underscored name in lower case.
-     * Any upper case letters are converted to lower case with a preceding
-     * underscore.
-     * 
-     * @param camelCaseName the string containing original name
-     * @return the converted name
-     */
-    private String[] underscoreName(String camelCaseName) {
-        StringBuilder result = new StringBuilder();
-        if (camelCaseName != null && camelCaseName.length() > 0) {
-            result.append(camelCaseName.substring(0, 1).toLowerCase());
-            for (int i = 1; i < camelCaseName.length(); i++) {
-                char ch = camelCaseName.charAt(i);
-                if (Character.isUpperCase(ch)) {
-                    result.append("_");
-                    result.append(Character.toLowerCase(ch));
-                } else {
-                    result.append(ch);
-                }
-            }
-        }
-        String name = result.toString();
-        // 当name为user1_name2时，使name2为user_1_name_2
-        // 这使得列user_1_name_2的列能映射到user1Name2属性
-        String name2 = null;
-        boolean digitFound = false;
-        for (int i = name.length() - 1; i >= 0; i--) {
-            if (Character.isDigit(name.charAt(i))) {
-            	// 遇到数字就做一个标识并continue,直到不是时才不continue
-                digitFound = true;
-                continue;
-            }
-            // 只有上一个字符是数字才做下划线
-            if (digitFound && i < name.length() - 1 && i > 0) {
-                if (name2 == null) {
-                    name2 = name;
-                }
-                name2 = name2.substring(0, i + 1) + "_" + name2.substring(i + 1);
-            }
-            digitFound = false;
-        }
-        return new String[] { name, name2 };
-    }
-
-    /**
-     * Extract the values for all columns in the current row.
-     * <p>
-     * Utilizes public setters and result set metadata.
-     * 
-     * @see java.sql.ResultSetMetaData
-     */
-    public Object mapRow(ResultSet rs, int rowNumber) throws SQLException {
-        // spring's : Object mappedObject = BeanUtils.instantiateClass(this.mappedClass);
-        // jade's : private Object instantiateClass(this.mappedClass);
-        // why: 经过简单的笔记本测试，mappedClass.newInstrance性能比BeanUtils.instantiateClass(mappedClass)快1个数量级
-        Object mappedObject = instantiateClass(this.mappedClass);
-        BeanWrapper bw = new BeanWrapperImpl(mappedObject);
-
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int columnCount = rsmd.getColumnCount();
-
-        boolean warnEnabled = logger.isWarnEnabled();
-        boolean debugEnabled = logger.isDebugEnabled();
-        Set<String> populatedProperties = (checkProperties ? new HashSet<String>() : null);
-
-        for (int index = 1; index <= columnCount; index++) {
-            String column = JdbcUtils.lookupColumnName(rsmd, index).toLowerCase();
-            PropertyDescriptor pd = this.mappedFields.get(column);
-            if (pd != null) {
-                try {
-                    Object value = JdbcUtils.getResultSetValue(rs, index, pd.getPropertyType());
-                    if (debugEnabled && rowNumber == 0) {
-                        logger.debug("Mapping column '" + column + "' to property '" + pd.getName()
-                                + "' of type " + pd.getPropertyType());
-                    }
-                    bw.setPropertyValue(pd.getName(), value);
-                    if (populatedProperties != null) {
-                        populatedProperties.add(pd.getName());
-                    }
-                } catch (NotWritablePropertyException ex) {
-                    throw new DataRetrievalFailureException("Unable to map column " + column
-                            + " to property " + pd.getName(), ex);
-                }
-            } else {
-                if (checkColumns) {
-                    throw new InvalidDataAccessApiUsageException("Unable to map column '" + column
-                            + "' to any properties of bean " + this.mappedClass.getName());
-                }
-                if (warnEnabled && rowNumber == 0) {
-                    logger.warn("Unable to map column '" + column + "' to any properties of bean "
-                            + this.mappedClass.getName());
-                }
-            }
-        }
-
-        if (populatedProperties != null && !populatedProperties.equals(this.mappedProperties)) {
-            throw new InvalidDataAccessApiUsageException(
-                    "Given ResultSet does not contain all fields "
-                            + "necessary to populate object of class [" + this.mappedClass + "]: "
-                            + this.mappedProperties);
-        }
-
-        return mappedObject;
-    }
-
-    /**
-     * 
-     * @param clazz
-     * @return
-     * @throws BeanInstantiationException
-     * @see {@link BeanUtils#instantiateClass(Class)}
-     */
-    private static Object instantiateClass(Class<?> clazz) throws BeanInstantiationException {
-        /*- spring's BeanUtils.instantiateClass()
-         Assert.notNull(clazz, "Class must not be null");
-        if (clazz.isInterface()) {
-            throw new BeanInstantiationException(clazz, "Specified class is an interface");
-        }
-        try {
-            return instantiateClass(clazz.getDeclaredConstructor((Class[]) null), null);
-        }
-        catch (NoSuchMethodException ex) {
-            throw new BeanInstantiationException(clazz, "No default constructor found", ex);
-        }*/
-
-        try {
-            return clazz.newInstance();
-        } catch (Exception ex) {
-            throw new BeanInstantiationException(clazz, ex.getMessage(), ex);
-        }
-    }
-
-}
+/*
+ * Copyright 2002-2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hengjue.dao.rowMapper;
+
+import java.beans.ConstructorProperties;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeanInstantiationException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * {@link RowMapper} implementation that converts a row into a new instance
+ * of the specified mapped target class. The mapped target class must be a
+ * top-level class and it must have a default or no-arg constructor.
+ * <p>
+ * 没有public的无参构造函数时(如不可变的值对象)，使用标注了 {@link ConstructorProperties}
+ * 或者编译时带 -parameters 保留了参数名的构造函数(有多个时取参数最多的)，按参数名绑定列，
+ * 通过缓存的MethodHandle创建对象；其余的列仍然设置到属性。这类对象没有setter的非final、
+ * 非transient字段，按字段名直接注入(不计入checkProperties检查的属性)；有无参构造函数的类不注入字段。
+ * 
+ * <p>
+ * Column values are mapped based on matching the column name as obtained
+ * from result set metadata to public setters for the corresponding
+ * properties. The names are matched either directly or by transforming a
+ * name separating the parts with underscores to the same name using
+ * "camel" case.
+ * 
+ * <p>
+ * Mapping is provided for fields in the target class for many common
+ * types, e.g.: String, boolean, Boolean, byte, Byte, short, Short, int,
+ * Integer, long, Long, float, Float, double, Double, BigDecimal,
+ * <code>java.util.Date</code>, etc.
+ * 
+ * <p>
+ * To facilitate mapping between columns and fields that don't have
+ * matching names, try using column aliases in the SQL statement like
+ * "select fname as first_name from customer".
+ * 
+ * <p>
+ * 第一次遇到某种结果集形状(各列的列名)时，生成一个映射计划：每一列对应的setter(MethodHandle)
+ * 和按属性类型选定的读取方法(int、long、double、boolean属性直接用 getInt 等读取，不装箱)；
+ * 之后的行直接按计划映射，不再查找列名、属性。计划按形状缓存，同一个mapper可以被多个DAO方法、
+ * 多个线程共享。
+ * 
+ * @author Thomas Risberg
+ * @author Juergen Hoeller
+ * @author 王志亮 [qieqie.wang@gmail.com]
+ * @since 2.5
+ */
+public class BeanPropertyRowMapper implements RowMapper {
+
+    /** Logger available to subclasses */
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    /** The class we are mapping to */
+    private final Class<?> mappedClass;
+
+    /** Map of the fields we provide mapping for */
+    private Map<String, PropertyDescriptor> mappedFields;
+
+    private final boolean checkColumns;
+
+    private final boolean checkProperties;
+
+    /** Set of bean properties we provide mapping for */
+    private Set<String> mappedProperties;
+
+    /** 按构造函数映射时，没有setter的非final、非transient字段：列名 -&gt; 字段 */
+    private Map<String, Field> injectedFields;
+
+    /** 没有无参构造函数时按参数名绑定列的构造函数，接受一个参数数组；使用无参构造函数时为null */
+    private MethodHandle constructor;
+
+    /** 构造函数参数：列名 -&gt; 参数的位置 */
+    private Map<String, Integer> constructorParameters;
+
+    /** 构造函数参数的名称、类型 */
+    private String[] constructorParameterNames;
+
+    private Class<?>[] constructorParameterTypes;
+
+    /** 没有对应列的构造函数参数使用的值：null、0或false */
+    private Object[] defaultArguments;
+
+    /** 最多缓存的结果集形状个数，超出后新的形状每次重新生成计划 */
+    private static final int MAX_PLANS = 64;
+
+    /** 结果集形状(小写的列名) -> 映射计划 */
+    private final Map<String, Plan> plans = new ConcurrentHashMap<String, Plan>();
+
+    /** 每个线程正在映射的ResultSet及其计划，同一个ResultSet的后续行直接使用 */
+    private final ThreadLocal<Current> current = new ThreadLocal<Current>();
+
+    /**
+     * Create a new BeanPropertyRowMapper, accepting unpopulated properties
+     * in the target bean.
+     * 
+     * @param mappedClass the class that each row should be mapped to
+     */
+    public BeanPropertyRowMapper(Class<?> mappedClass, boolean checkColumns, boolean checkProperties) {
+        this.mappedClass = mappedClass;
+        Assert.state(this.mappedClass != null, "Mapped class was not specified");
+        this.checkProperties = checkProperties;
+        this.checkColumns = checkColumns;
+        initialize();
+    }
+
+    /**
+     * Initialize the mapping metadata for the given class.
+     * 
+     * @param mappedClass the mapped class.
+     */
+    protected void initialize() {
+        this.mappedFields = new HashMap<String, PropertyDescriptor>();
+        PropertyDescriptor[] pds = BeanUtils.getPropertyDescriptors(mappedClass);
+        if (checkProperties) {
+            mappedProperties = new HashSet<String>();
+        }
+        for (int i = 0; i < pds.length; i++) {
+            PropertyDescriptor pd = pds[i];
+            if (pd.getWriteMethod() != null) {
+                if (checkProperties) {
+                    this.mappedProperties.add(pd.getName());
+                }
+                putNames(this.mappedFields, pd.getName(), pd);
+            }
+        }
+
+        this.injectedFields = new HashMap<String, Field>();
+        if (!mappedClass.isInterface() && !Modifier.isAbstract(mappedClass.getModifiers())
+                && !ClassUtils.hasConstructor(mappedClass)) {
+            initializeConstructor();
+            if (this.constructor != null) {
+                initializeInjectedFields();
+            }
+        }
+    }
+
+    // 按构造函数映射的类，没有setter的非final、非transient字段直接注入，子类的字段优先
+    private void initializeInjectedFields() {
+        for (Class<?> type = mappedClass; type != null && type != Object.class; type = type
+                .getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)
+                        || Modifier.isTransient(modifiers) || field.isSynthetic()
+                        || this.injectedFields.containsKey(field.getName().toLowerCase())) {
+                    continue;
+                }
+                PropertyDescriptor pd = this.mappedFields.get(field.getName().toLowerCase());
+                if (pd != null && pd.getName().equals(field.getName())) {
+                    continue;
+                }
+                putNames(this.injectedFields, field.getName(), field);
+            }
+        }
+    }
+
+    // 找出按参数名绑定列的构造函数；找不到时仍按无参构造函数处理，映射时报告错误
+    private void initializeConstructor() {
+        Constructor<?> found = null;
+        boolean foundAnnotated = false;
+        for (Constructor<?> candidate : mappedClass.getDeclaredConstructors()) {
+            if (candidate.isSynthetic() || candidate.getParameterTypes().length == 0) {
+                continue;
+            }
+            boolean annotated = candidate.isAnnotationPresent(ConstructorProperties.class);
+            if (!annotated && getParameterNames(candidate) == null) {
+                continue;
+            }
+            if (found == null
+                    || (annotated && !foundAnnotated)
+                    || (annotated == foundAnnotated && candidate.getParameterTypes().length > found
+                            .getParameterTypes().length)) {
+                found = candidate;
+                foundAnnotated = annotated;
+            }
+        }
+        if (found == null) {
+            return;
+        }
+        String[] names = getParameterNames(found);
+        Class<?>[] types = found.getParameterTypes();
+        Assert.state(names.length == types.length, "@ConstructorProperties of " + found
+                + " does not match its parameters");
+        this.constructorParameters = new HashMap<String, Integer>();
+        this.defaultArguments = new Object[types.length];
+        for (int i = 0; i < names.length; i++) {
+            putNames(this.constructorParameters, names[i], i);
+            if (types[i].isPrimitive()) {
+                this.defaultArguments[i] = Array.get(Array.newInstance(types[i], 1), 0);
+            }
+            if (checkProperties) {
+                this.mappedProperties.add(names[i]);
+            }
+        }
+        this.constructorParameterNames = names;
+        this.constructorParameterTypes = types;
+        ReflectionUtils.makeAccessible(found);
+        try {
+            this.constructor = MethodHandles.lookup().unreflectConstructor(found)
+                .asSpreader(Object[].class, types.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException ex) {
+            throw new BeanInstantiationException(mappedClass, ex.getMessage(), ex);
+        }
+    }
+
+    // @ConstructorProperties 给出的参数名，或者编译时保留的参数名；都没有时返回null
+    private static String[] getParameterNames(Constructor<?> constructor) {
+        ConstructorProperties properties = constructor.getAnnotation(ConstructorProperties.class);
+        if (properties != null) {
+            return properties.value();
+        }
+        Parameter[] parameters = constructor.getParameters();
+        String[] names = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            if (!parameters[i].isNamePresent()) {
+                return null;
+            }
+            names[i] = parameters[i].getName();
+        }
+        return names;
+    }
+
+    // 按小写的名称以及下划线形式的名称放入
+    private <T> void putNames(Map<String, T> map, String name, T value) {
+        map.put(name.toLowerCase(), value);
+        for (String underscoredName : underscoreName(name)) {
+            if (underscoredName != null && !name.toLowerCase().equals(underscoredName)) {
+                map.put(underscoredName, value);
+            }
+        }
+    }
+
+    /**
+     * Convert a name in camelCase to an underscored name in lower case.
+     * Any upper case letters are converted to lower case with a preceding
+     * underscore.
+     * 
+     * @param camelCaseName the string containing original name
+     * @return the converted name
+     */
+    private String[] underscoreName(String camelCaseName) {
+        StringBuilder result = new StringBuilder();
+        if (camelCaseName != null && camelCaseName.length() > 0) {
+            result.append(camelCaseName.substring(0, 1).toLowerCase());
+            for (int i = 1; i < camelCaseName.length(); i++) {
+                char ch = camelCaseName.charAt(i);
+                if (Character.isUpperCase(ch)) {
+                    result.append("_");
+                    result.append(Character.toLowerCase(ch));
+                } else {
+                    result.append(ch);
+                }
+            }
+        }
+        String name = result.toString();
+        // 当name为user1_name2时，使name2为user_1_name_2
+        // 这使得列user_1_name_2的列能映射到user1Name2属性
+        String name2 = null;
+        boolean digitFound = false;
+        for (int i = name.length() - 1; i >= 0; i--) {
+            if (Character.isDigit(name.charAt(i))) {
+            	// 遇到数字就做一个标识并continue,直到不是时才不continue
+                digitFound = true;
+                continue;
+            }
+            // 只有上一个字符是数字才做下划线
+            if (digitFound && i < name.length() - 1 && i > 0) {
+                if (name2 == null) {
+                    name2 = name;
+                }
+                name2 = name2.substring(0, i + 1) + "_" + name2.substring(i + 1);
+            }
+            digitFound = false;
+        }
+        return new String[] { name, name2 };
+    }
+
+    /**
+     * Extract the values for all columns in the current row.
+     * <p>
+     * Utilizes public setters and result set metadata.
+     * 
+     * @see java.sql.ResultSetMetaData
+     */
+    public Object mapRow(ResultSet rs, int rowNumber) throws SQLException {
+        Current current = this.current.get();
+        if (current == null) {
+            current = new Current();
+            this.current.set(current);
+        }
+        Plan plan = current.plan;
+        if (plan == null || current.resultSet.get() != rs) {
+            plan = getPlan(rs);
+            current.resultSet = new WeakReference<ResultSet>(rs);
+            current.plan = plan;
+        }
+        if (!plan.complete) {
+            throw new InvalidDataAccessApiUsageException(
+                    "Given ResultSet does not contain all fields "
+                            + "necessary to populate object of class [" + this.mappedClass + "]: "
+                            + this.mappedProperties);
+        }
+
+        Object mappedObject;
+        if (this.constructor != null) {
+            mappedObject = instantiate(plan, rs);
+        } else {
+            // spring's : Object mappedObject = BeanUtils.instantiateClass(this.mappedClass);
+            // jade's : private Object instantiateClass(this.mappedClass);
+            // why: 经过简单的笔记本测试，mappedClass.newInstrance性能比BeanUtils.instantiateClass(mappedClass)快1个数量级
+            mappedObject = instantiateClass(this.mappedClass);
+        }
+        for (Column column : plan.columns) {
+            try {
+                column.map(mappedObject, rs);
+            } catch (SQLException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new DataRetrievalFailureException("Unable to map column " + column.index
+                        + " to property " + column.property, ex);
+            }
+        }
+        return mappedObject;
+    }
+
+    // 用当前行绑定到参数的列调用构造函数
+    private Object instantiate(Plan plan, ResultSet rs) throws SQLException {
+        Object[] arguments = this.defaultArguments.clone();
+        for (Argument argument : plan.arguments) {
+            arguments[argument.parameter] = getColumnValue(rs, argument.index, argument.type);
+        }
+        try {
+            return (Object) this.constructor.invokeExact(arguments);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new BeanInstantiationException(this.mappedClass, ex.getMessage(), ex);
+        }
+    }
+
+    // 按结果集的形状取得映射计划
+    private Plan getPlan(ResultSet rs) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int columnCount = rsmd.getColumnCount();
+        String[] columns = new String[columnCount];
+        StringBuilder shape = new StringBuilder(columnCount * 16);
+        for (int index = 1; index <= columnCount; index++) {
+            columns[index - 1] = JdbcUtils.lookupColumnName(rsmd, index).toLowerCase();
+            shape.append(columns[index - 1]).append(',');
+        }
+        Plan plan = plans.get(shape.toString());
+        if (plan == null) {
+            plan = createPlan(columns);
+            if (plans.size() < MAX_PLANS) {
+                plans.put(shape.toString(), plan);
+            }
+        }
+        return plan;
+    }
+
+    private Plan createPlan(String[] columns) {
+        boolean debugEnabled = logger.isDebugEnabled();
+        Set<String> populatedProperties = (checkProperties ? new HashSet<String>() : null);
+        List<Argument> arguments = new ArrayList<Argument>();
+        List<Column> mappedColumns = new ArrayList<Column>(columns.length);
+        for (int index = 1; index <= columns.length; index++) {
+            String column = columns[index - 1];
+            Integer parameter = (this.constructor == null) ? null : this.constructorParameters
+                .get(column);
+            PropertyDescriptor pd = this.mappedFields.get(column);
+            Field field = this.injectedFields.get(column);
+            if (parameter != null) {
+                Class<?> type = this.constructorParameterTypes[parameter];
+                if (debugEnabled) {
+                    logger.debug("Mapping column '" + column + "' to constructor parameter "
+                            + parameter + " of type " + type);
+                }
+                arguments.add(new Argument(index, parameter, type));
+                if (populatedProperties != null) {
+                    populatedProperties.add(this.constructorParameterNames[parameter]);
+                }
+            } else if (pd != null) {
+                if (debugEnabled) {
+                    logger.debug("Mapping column '" + column + "' to property '" + pd.getName()
+                            + "' of type " + pd.getPropertyType());
+                }
+                Method writeMethod = pd.getWriteMethod();
+                ReflectionUtils.makeAccessible(writeMethod);
+                try {
+                    mappedColumns.add(createColumn(index, pd.getName(), MethodHandles.lookup()
+                        .unreflect(writeMethod), pd.getPropertyType()));
+                } catch (IllegalAccessException ex) {
+                    throw new DataRetrievalFailureException("Unable to map column " + column
+                            + " to property " + pd.getName(), ex);
+                }
+                if (populatedProperties != null) {
+                    populatedProperties.add(pd.getName());
+                }
+            } else if (field != null) {
+                if (debugEnabled) {
+                    logger.debug("Mapping column '" + column + "' to field '" + field.getName()
+                            + "' of type " + field.getType());
+                }
+                ReflectionUtils.makeAccessible(field);
+                try {
+                    mappedColumns.add(createColumn(index, field.getName(), MethodHandles.lookup()
+                        .unreflectSetter(field), field.getType()));
+                } catch (IllegalAccessException ex) {
+                    throw new DataRetrievalFailureException("Unable to map column " + column
+                            + " to field " + field.getName(), ex);
+                }
+            } else {
+                if (checkColumns) {
+                    throw new InvalidDataAccessApiUsageException("Unable to map column '" + column
+                            + "' to any properties of bean " + this.mappedClass.getName());
+                }
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Unable to map column '" + column + "' to any properties of bean "
+                            + this.mappedClass.getName());
+                }
+            }
+        }
+        boolean complete = populatedProperties == null
+                || populatedProperties.equals(this.mappedProperties);
+        return new Plan(arguments.toArray(new Argument[arguments.size()]),
+            mappedColumns.toArray(new Column[mappedColumns.size()]), complete);
+    }
+
+    private static Column createColumn(int index, String property, MethodHandle setter,
+                                       Class<?> type) {
+        if (type == int.class) {
+            return new IntColumn(index, property, setter);
+        } else if (type == long.class) {
+            return new LongColumn(index, property, setter);
+        } else if (type == double.class) {
+            return new DoubleColumn(index, property, setter);
+        } else if (type == boolean.class) {
+            return new BooleanColumn(index, property, setter);
+        }
+        return new ObjectColumn(index, property, setter, type);
+    }
+
+    /**
+     * 按属性类型用 {@link JdbcUtils#getResultSetValue(ResultSet, int, Class)} 读取，
+     * 类型不符时(如字符串列对应枚举属性)再做类型转换
+     */
+    private static Object getColumnValue(ResultSet rs, int index, Class<?> type)
+            throws SQLException {
+        Object value = JdbcUtils.getResultSetValue(rs, index, type);
+        if (value == null) {
+            if (type.isPrimitive()) {
+                throw new TypeMismatchException((Object) null, type);
+            }
+        } else if (!ClassUtils.isAssignableValue(type, value)) {
+            value = new SimpleTypeConverter().convertIfNecessary(value, type);
+        }
+        return value;
+    }
+
+    /**
+     * 一种结果集形状的映射计划
+     */
+    private static final class Plan {
+
+        // 绑定到构造函数参数的列，使用无参构造函数时为空
+        final Argument[] arguments;
+
+        final Column[] columns;
+
+        // checkProperties时，结果集是否包含了所有的属性
+        final boolean complete;
+
+        Plan(Argument[] arguments, Column[] columns, boolean complete) {
+            this.arguments = arguments;
+            this.columns = columns;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * 绑定到构造函数一个参数的列
+     */
+    private static final class Argument {
+
+        final int index;
+
+        final int parameter;
+
+        final Class<?> type;
+
+        Argument(int index, int parameter, Class<?> type) {
+            this.index = index;
+            this.parameter = parameter;
+            this.type = type;
+        }
+    }
+
+    private static final class Current {
+
+        WeakReference<ResultSet> resultSet;
+
+        Plan plan;
+    }
+
+    /**
+     * 把结果集的一列设置到bean的一个属性
+     */
+    private abstract static class Column {
+
+        final int index;
+
+        final String property;
+
+        final MethodHandle setter;
+
+        Column(int index, String property, MethodHandle setter, Class<?> type) {
+            this.index = index;
+            this.property = property;
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, type));
+        }
+
+        abstract void map(Object bean, ResultSet rs) throws Throwable;
+
+        final TypeMismatchException nullValue(Class<?> type) {
+            return new TypeMismatchException((Object) null, type);
+        }
+    }
+
+    private static final class IntColumn extends Column {
+
+        IntColumn(int index, String property, MethodHandle setter) {
+            super(index, property, setter, int.class);
+        }
+
+        @Override
+        void map(Object bean, ResultSet rs) throws Throwable {
+            int value = rs.getInt(index);
+            if (value == 0 && rs.wasNull()) {
+                throw nullValue(int.class);
+            }
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class LongColumn extends Column {
+
+        LongColumn(int index, String property, MethodHandle setter) {
+            super(index, property, setter, long.class);
+        }
+
+        @Override
+        void map(Object bean, ResultSet rs) throws Throwable {
+            long value = rs.getLong(index);
+            if (value == 0 && rs.wasNull()) {
+                throw nullValue(long.class);
+            }
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+
+        DoubleColumn(int index, String property, MethodHandle setter) {
+            super(index, property, setter, double.class);
+        }
+
+        @Override
+        void map(Object bean, ResultSet rs) throws Throwable {
+            double value = rs.getDouble(index);
+            if (value == 0 && rs.wasNull()) {
+                throw nullValue(double.class);
+            }
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+
+        BooleanColumn(int index, String property, MethodHandle setter) {
+            super(index, property, setter, boolean.class);
+        }
+
+        @Override
+        void map(Object bean, ResultSet rs) throws Throwable {
+            boolean value = rs.getBoolean(index);
+            if (!value && rs.wasNull()) {
+                throw nullValue(boolean.class);
+            }
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    /**
+     * 其他类型：见 {@link BeanPropertyRowMapper#getColumnValue(ResultSet, int, Class)}
+     */
+    private static final class ObjectColumn extends Column {
+
+        private final Class<?> type;
+
+        ObjectColumn(int index, String property, MethodHandle setter, Class<?> type) {
+            super(index, property, setter, Object.class);
+            this.type = type;
+        }
+
+        @Override
+        void map(Object bean, ResultSet rs) throws Throwable {
+            Object value = getColumnValue(rs, index, type);
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    /**
+     * 
+     * @param clazz
+     * @return
+     * @throws BeanInstantiationException
+     * @see {@link BeanUtils#instantiateClass(Class)}
+     */
+    private static Object instantiateClass(Class<?> clazz) throws BeanInstantiationException {
+        /*- spring's BeanUtils.instantiateClass()
+         Assert.notNull(clazz, "Class must not be null");
+        if (clazz.isInterface()) {
+            throw new BeanInstantiationException(clazz, "Specified class is an interface");
+        }
+        try {
+            return instantiateClass(clazz.getDeclaredConstructor((Class[]) null), null);
+        }
+        catch (NoSuchMethodException ex) {
+            throw new BeanInstantiationException(clazz, "No default constructor found", ex);
+        }*/
+
+        try {
+            return clazz.newInstance();
+        } catch (Exception ex) {
+            throw new BeanInstantiationException(clazz, ex.getMessage(), ex);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.rowMapper;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * 把每一行映射为一个 {@link Row}：同一个结果集的各行共享一个 {@link Row.Schema}，每行只有一个值数组。
+ * <p>
+ * 
+ * 与 ColumnMapRowMapper 相比，不再为每一行创建一个 LinkedCaseInsensitiveMap(每列一个Entry、
+ * 一份小写的列名)。Schema 按列名的组合缓存，同样形状的结果集共用。
+ * 
+ */
+public class CompactRowMapper implements RowMapper<Row> {
+
+    // 缓存的Schema个数上限，超出时不再缓存(比如拼接出大量不同列组合的SQL)
+    private static final int MAX_SCHEMAS = 64;
+
+    private final ConcurrentHashMap<String, Row.Schema> schemas = new ConcurrentHashMap<String, Row.Schema>();
+
+    // 当前线程正在映射的结果集及其Schema，同一结果集的后续行不再读取ResultSetMetaData
+    private final ThreadLocal<Current> current = new ThreadLocal<Current>();
+
+    @Override
+    public Row mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Current current = this.current.get();
+        if (current == null) {
+            current = new Current();
+            this.current.set(current);
+        }
+        Row.Schema schema = current.schema;
+        if (schema == null || current.resultSet.get() != rs) {
+            schema = getSchema(rs, current);
+            current.resultSet = new WeakReference<ResultSet>(rs);
+            current.schema = schema;
+        }
+        int[] slots = current.slots;
+        Object[] values = new Object[schema.size()];
+        if (slots == null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = JdbcUtils.getResultSetValue(rs, i + 1);
+            }
+        } else {
+            // 有重复的列名时，后面的列覆盖前面的，与 ColumnMapRowMapper 一致
+            for (int i = 0; i < slots.length; i++) {
+                values[slots[i]] = JdbcUtils.getResultSetValue(rs, i + 1);
+            }
+        }
+        return schema.newRow(values);
+    }
+
+    private Row.Schema getSchema(ResultSet rs, Current current) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int columnCount = rsmd.getColumnCount();
+        String[] names = new String[columnCount];
+        StringBuilder key = new StringBuilder(columnCount * 16);
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = JdbcUtils.lookupColumnName(rsmd, i + 1);
+            key.append(names[i]).append(',');
+        }
+        Row.Schema schema = schemas.get(key.toString());
+        if (schema == null) {
+            schema = new Row.Schema(names);
+            if (schemas.size() < MAX_SCHEMAS) {
+                Row.Schema existing = schemas.putIfAbsent(key.toString(), schema);
+                if (existing != null) {
+                    schema = existing;
+                }
+            }
+        }
+        current.slots = null;
+        if (schema.size() != columnCount) {
+            int[] slots = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                slots[i] = schema.indexOf(names[i]);
+            }
+            current.slots = slots;
+        }
+        return schema;
+    }
+
+    private static final class Current {
+
+        WeakReference<ResultSet> resultSet;
+
+        Row.Schema schema;
+
+        // 列的位置 -> 值数组的位置，只在有重复列名时使用
+        int[] slots;
+    }
+}
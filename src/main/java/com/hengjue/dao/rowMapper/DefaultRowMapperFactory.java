@@ -17,13 +17,14 @@ package com.hengjue.dao.rowMapper;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang.ClassUtils;
 import org.apache.commons.logging.Log;
@@ -35,6 +36,8 @@ import org.springframework.jdbc.core.SingleColumnRowMapper;
 
 import com.hengjue.dao.annotation.RowHandler;
 import com.hengjue.dao.annotation.StatementAware;
+import com.hengjue.dao.dataAccess.CloseableIterator;
+import com.hengjue.dao.dataAccess.LongLongMap;
 import com.hengjue.dao.statement.StatementMetaData;
 
 /**
@@ -54,6 +57,10 @@ import com.hengjue.dao.statement.StatementMetaData;
  * <li>映射(Map&lt;String, Date&gt): 期望返回2列，多行</li>
  * <li>映射(Map&lt;String, User&gt): 期望返回多列，多行</li>
  * <li>映射(Map&lt;String, String[]&gt): 期望返回多列，多行</li>
+ * <li>LongLongMap：期望返回2列(整数)，多行</li>
+ * <li>Row及其集合(List&lt;Row&gt;等)：期望返回多列，每一行为共享列名的 {@link Row}；
+ * 设置系统属性 jade.compactMapRows=true 时，List&lt;Map&lt;String, Object&gt;&gt; 等也是</li>
+ * <li>带Consumer&lt;T&gt;参数的：每一行映射为T交给该参数</li>
  * <ul>
  * 
  * @author 王志亮 [qieqie.wang@gmail.com]
@@ -64,7 +71,11 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
 
     private static Log logger = LogFactory.getLog(RowMapperFactory.class);
 
-    private Map<String, RowMapper> rowMappers = new HashMap<String, RowMapper>();
+    // 每行的Map是否用 Row 代替 LinkedCaseInsensitiveMap
+    private static final boolean COMPACT_MAP_ROWS = Boolean.getBoolean("jade.compactMapRows");
+
+    // BeanPropertyRowMapper是线程安全的，同一个类的可以被各个DAO方法共享
+    private final Map<String, RowMapper> rowMappers = new ConcurrentHashMap<String, RowMapper>();
 
     @Override
     public RowMapper getRowMapper(StatementMetaData smd) {
@@ -96,7 +107,7 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
         if (rowMapper == null) {
             //
 
-            Class<?> returnClassType = smd.getMethod().getReturnType();
+            Class<?> returnClassType = smd.getReturnType();
             Class<?> rowType = getRowType(smd);
 
             // BUGFIX: SingleColumnRowMapper 处理  Primitive Type 抛异常
@@ -106,7 +117,9 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
 
             // 返回单列的查询的(或者返回只有2列的Map类型查询的)
             if (TypeUtils.isColumnType(rowType)) {
-                if (Map.class.isAssignableFrom(returnClassType)) {
+                if (LongLongMap.class == returnClassType) {
+                    rowMapper = new MapEntryColumnRowMapper(smd, Long.class, Long.class);
+                } else if (Map.class.isAssignableFrom(returnClassType)) {
                     rowMapper = new MapEntryColumnRowMapper(smd, rowType);
                 } else {
                     rowMapper = new SingleColumnRowMapper(rowType);
@@ -114,7 +127,9 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
             }
             // 返回多列的，用Bean对象、集合、映射、数组来表示每一行的
             else {
-                if (rowType == Map.class) {
+                if (rowType == Row.class || (rowType == Map.class && COMPACT_MAP_ROWS)) {
+                    rowMapper = new CompactRowMapper();
+                } else if (rowType == Map.class) {
                     rowMapper = new ColumnMapRowMapper();
                 } else if (rowType.isArray()) {
                     rowMapper = new ArrayRowMapper(rowType);
@@ -132,11 +147,14 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
                     if (rowMapper == null) {
                         rowMapper = new BeanPropertyRowMapper(rowType, checkColumns,
                             checkProperties); // jade's BeanPropertyRowMapper here
-                        rowMappers.put(key, rowMapper);
+                        RowMapper existing = rowMappers.putIfAbsent(key, rowMapper);
+                        if (existing != null) {
+                            rowMapper = existing;
+                        }
                     }
                 }
                 // 如果DAO方法最终返回的是Map，rowMapper要返回Map.Entry对象
-                if (Map.class.isAssignableFrom(returnClassType)) {
+                if (Map.class.isAssignableFrom(returnClassType) && Row.class != returnClassType) {
                     rowMapper = new MapEntryRowMapper(smd, rowMapper);
                 }
             }
@@ -157,16 +175,25 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
 
     // 获得返回的集合元素类型
     private static Class<?> getRowType(StatementMetaData statementMetaData) {
+        if (statementMetaData.getRowConsumerIndex() >= 0) {
+            // 逐行交给 Consumer<T> 参数的, 取  T 类型
+            return statementMetaData.getRowConsumerType();
+        }
         Class<?> returnClassType = statementMetaData.getReturnType();
         if (Collection.class.isAssignableFrom(returnClassType)//
             || Iterable.class == returnClassType // 
-            || Iterator.class == returnClassType) {
+            || Iterator.class == returnClassType //
+            || Stream.class == returnClassType || CloseableIterator.class == returnClassType) {
             return getRowTypeFromCollectionType(statementMetaData, returnClassType);
         } //
-        else if (Map.class.isAssignableFrom(returnClassType)) {
+        else if (Map.class.isAssignableFrom(returnClassType) && Row.class != returnClassType) {
             return getRowTypeFromMapType(statementMetaData, returnClassType);
         }
         //
+        else if (LongLongMap.class == returnClassType) {
+            return long.class;
+        }
+        //
         else if (returnClassType.isArray() && returnClassType != byte[].class) {
             // 数组类型, 支持多重数组
             return returnClassType.getComponentType();
@@ -193,14 +220,15 @@ public class DefaultRowMapperFactory implements RowMapperFactory {
     private static Class<?> getRowTypeFromCollectionType(StatementMetaData modifier,
                                                          Class<?> returnClassType) {
         Class<?> rowType;
-        // 仅支持  List/ArrayList/LinkedList, CollectionIterable/Iterator, Set/HashSet
+        // 仅支持  List/ArrayList/LinkedList, CollectionIterable/Iterator, Set/HashSet, Stream/CloseableIterator
         if ((returnClassType != List.class) && (returnClassType != ArrayList.class)
             && (returnClassType != LinkedList.class)//
             && (returnClassType != Collection.class) && (returnClassType != Iterable.class)
             && (returnClassType != Iterator.class) && (returnClassType != Set.class)
-            && (returnClassType != HashSet.class)) {
+            && (returnClassType != HashSet.class) && (returnClassType != Stream.class)
+            && (returnClassType != CloseableIterator.class)) {
             throw new IllegalArgumentException("error collection type " + returnClassType
-                .getName() + "; only support List/ArrayList/LinkedList, CollectionIterable/Iterator, Set/HashSet");
+                .getName() + "; only support List/ArrayList/LinkedList, CollectionIterable/Iterator, Set/HashSet, Stream/CloseableIterator");
         }
         // 获取集合元素类型
         Class<?>[] genericTypes = modifier.getGenericReturnTypes();
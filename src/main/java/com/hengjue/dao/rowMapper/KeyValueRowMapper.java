@@ -0,0 +1,52 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.rowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * 把结果集的一行映射为Map的一个key-value映射对的 {@link RowMapper}。
+ * <p>
+ * 
+ * 返回Map的DAO方法直接用 {@link #mapKey(ResultSet, int)}、{@link #mapValue(ResultSet, int)}
+ * 把每一行放入所返回的Map，而不需要 {@link #mapRow(ResultSet, int)} 先为每一行创建一个 Map.Entry。
+ * 
+ */
+public interface KeyValueRowMapper extends RowMapper<Object> {
+
+    /**
+     * 从当前行读取key；同一行先调用此方法，再调用 {@link #mapValue(ResultSet, int)}
+     * 
+     * @param rs
+     * @param rowNum 当前行的行号，从0开始
+     * @return
+     * @throws SQLException
+     */
+    Object mapKey(ResultSet rs, int rowNum) throws SQLException;
+
+    /**
+     * 从当前行读取value
+     * 
+     * @param rs
+     * @param rowNum 当前行的行号，从0开始
+     * @return
+     * @throws SQLException
+     */
+    Object mapValue(ResultSet rs, int rowNum) throws SQLException;
+}
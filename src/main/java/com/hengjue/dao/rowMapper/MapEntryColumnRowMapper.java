@@ -24,10 +24,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.dao.TypeMismatchDataAccessException;
 import org.springframework.jdbc.IncorrectResultSetColumnCountException;
-import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.JdbcUtils;
 
 import com.hengjue.dao.annotation.KeyColumnOfMap;
+import com.hengjue.dao.dataAccess.LongLongMap;
 import com.hengjue.dao.statement.StatementMetaData;
 
 /**
@@ -37,7 +37,7 @@ import com.hengjue.dao.statement.StatementMetaData;
  * @author 廖涵 [in355hz@gmail.com]
  * 
  */
-public class MapEntryColumnRowMapper implements RowMapper {
+public class MapEntryColumnRowMapper implements KeyValueRowMapper {
 
     private static Log logger = LogFactory.getLog(MapEntryColumnRowMapper.class);
 
@@ -52,47 +52,47 @@ public class MapEntryColumnRowMapper implements RowMapper {
     private StatementMetaData modifier;
 
     public MapEntryColumnRowMapper(StatementMetaData modifier, Class<?> requiredType) {
+        this(modifier, getGenericReturnTypes(modifier)[0], getGenericReturnTypes(modifier)[1]);
+    }
+
+    /**
+     * 
+     * @param modifier
+     * @param keyType key列的类型
+     * @param valueType value列的类型
+     */
+    public MapEntryColumnRowMapper(StatementMetaData modifier, Class<?> keyType,
+            Class<?> valueType) {
         this.modifier = modifier;
-        Class<?>[] genericTypes = modifier.getGenericReturnTypes();
-        if (genericTypes.length < 2) {
-            throw new IllegalArgumentException("please set map generic parameters in method: "
-                    + modifier.getMethod());
-        }
 
         // 获取 Key 类型与列
         KeyColumnOfMap mapKey = modifier.getAnnotation(KeyColumnOfMap.class);
         // 设置 Key 类型与列
         this.keyColumn = (mapKey != null) ? mapKey.value() : null;
-        this.keyType = genericTypes[0];
-        this.valueType = genericTypes[1];
+        this.keyType = keyType;
+        this.valueType = valueType;
     }
 
+    private static Class<?>[] getGenericReturnTypes(StatementMetaData modifier) {
+        Class<?>[] genericTypes = modifier.getGenericReturnTypes();
+        if (genericTypes.length < 2) {
+            throw new IllegalArgumentException("please set map generic parameters in method: "
+                    + modifier.getMethod());
+        }
+        return genericTypes;
+    }
+
+    @Override
     public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Object key = mapKey(rs, rowNum);
+        // key有可能为null，不过我们还是做进去
+        return new MapEntryImpl<Object, Object>(key, mapValue(rs, rowNum));
+    }
 
-        // 验证列的数目
+    @Override
+    public Object mapKey(ResultSet rs, int rowNum) throws SQLException {
         if (rowNum == 0) {
-            ResultSetMetaData rsmd = rs.getMetaData();
-            int nrOfColumns = rsmd.getColumnCount();
-            if (nrOfColumns != 2) {
-                throw new IncorrectResultSetColumnCountException(2, nrOfColumns);
-            }
-
-            if (StringUtils.isNotEmpty(keyColumn)) {
-                keyColumnIndex = rs.findColumn(keyColumn);
-                if (keyColumnIndex == 1) {
-                    valueColumnIndex = 2;
-                } else if (keyColumnIndex == 2) {
-                    valueColumnIndex = 1;
-                } else {
-                    throw new IllegalArgumentException(String.format(
-                            "wrong key name %s for method: %s ", keyColumn, modifier.getMethod()));
-                }
-                keyColumn = null;
-            }
-            if (logger.isDebugEnabled()) {
-                logger.debug(String.format("keyIndex=%s; valueIndex=%s; for method: %s ",
-                        keyColumnIndex, valueColumnIndex, modifier.getMethod()));
-            }
+            resolveColumns(rs);
         }
 
         // 从  JDBC ResultSet 获取  Key
@@ -104,6 +104,62 @@ public class MapEntryColumnRowMapper implements RowMapper {
                             + rsmd.getColumnTypeName(keyColumnIndex) + "' expected type is '"
                             + keyType + "'");
         }
+        return key;
+    }
+
+    /**
+     * 把当前行的两列直接用 getLong 读取后放入给定的映射，不创建 Long 对象
+     * 
+     * @param map
+     * @param rs
+     * @param rowNum
+     * @throws SQLException
+     */
+    public void putRow(LongLongMap map, ResultSet rs, int rowNum) throws SQLException {
+        if (rowNum == 0) {
+            resolveColumns(rs);
+        }
+        long key = rs.getLong(keyColumnIndex);
+        if (rs.wasNull()) {
+            throw new TypeMismatchDataAccessException("Null key affecting row number " + rowNum
+                    + " can not be put into " + LongLongMap.class.getName());
+        }
+        long value = rs.getLong(valueColumnIndex);
+        if (rs.wasNull()) {
+            throw new TypeMismatchDataAccessException("Null value affecting row number "
+                    + rowNum + " can not be put into " + LongLongMap.class.getName());
+        }
+        map.put(key, value);
+    }
+
+    // 验证列的数目，确定key、value所在的列
+    private void resolveColumns(ResultSet rs) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int nrOfColumns = rsmd.getColumnCount();
+        if (nrOfColumns != 2) {
+            throw new IncorrectResultSetColumnCountException(2, nrOfColumns);
+        }
+
+        if (StringUtils.isNotEmpty(keyColumn)) {
+            keyColumnIndex = rs.findColumn(keyColumn);
+            if (keyColumnIndex == 1) {
+                valueColumnIndex = 2;
+            } else if (keyColumnIndex == 2) {
+                valueColumnIndex = 1;
+            } else {
+                throw new IllegalArgumentException(String.format(
+                        "wrong key name %s for method: %s ", keyColumn, modifier.getMethod()));
+            }
+            keyColumn = null;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("keyIndex=%s; valueIndex=%s; for method: %s ",
+                    keyColumnIndex, valueColumnIndex, modifier.getMethod()));
+        }
+    }
+
+    @Override
+    public Object mapValue(ResultSet rs, int rowNum) throws SQLException {
 
         // 从  JDBC ResultSet 获取  Value
         Object value = JdbcUtils.getResultSetValue(rs, valueColumnIndex, valueType);
@@ -114,8 +170,6 @@ public class MapEntryColumnRowMapper implements RowMapper {
                             + rsmd.getColumnTypeName(valueColumnIndex) + "' expected type is '"
                             + valueType + "'");
         }
-
-        // key有可能为null，不过我们还是做进去
-        return new MapEntryImpl<Object, Object>(key, value);
+        return value;
     }
 }
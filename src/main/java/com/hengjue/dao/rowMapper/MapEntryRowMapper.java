@@ -37,7 +37,7 @@ import com.hengjue.dao.statement.StatementMetaData;
  * 
  */
 @SuppressWarnings("rawtypes")
-public class MapEntryRowMapper implements RowMapper {
+public class MapEntryRowMapper implements KeyValueRowMapper {
 
     private static Log logger = LogFactory.getLog(MapEntryRowMapper.class);
 
@@ -66,6 +66,12 @@ public class MapEntryRowMapper implements RowMapper {
 
     @Override
     public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Object key = mapKey(rs, rowNum);
+        return new MapEntryImpl<Object, Object>(key, mapValue(rs, rowNum));
+    }
+
+    @Override
+    public Object mapKey(ResultSet rs, int rowNum) throws SQLException {
         if (rowNum == 0) {
             if (StringUtils.isNotEmpty(keyColumn)) {
                 keyColumnIndex = rs.findColumn(keyColumn);
@@ -91,7 +97,11 @@ public class MapEntryRowMapper implements RowMapper {
                             + rsmd.getColumnTypeName(keyColumnIndex) + "' expected type is '"
                             + keyType + "'");
         }
+        return key;
+    }
 
-        return new MapEntryImpl<Object, Object>(key, mapper.mapRow(rs, rowNum));
+    @Override
+    public Object mapValue(ResultSet rs, int rowNum) throws SQLException {
+        return mapper.mapRow(rs, rowNum);
     }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.rowMapper;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+/**
+ * 结果集的一行：各列的值存放在一个数组中，列名及其位置由同一结果集的所有行共享的 {@link Schema} 给出。
+ * <p>
+ * 
+ * 实现了 Map&lt;String, Object&gt;，与 ColumnMapRowMapper 返回的 LinkedCaseInsensitiveMap
+ * 一样按列的顺序遍历、列名不区分大小写；修改已有列的值直接写入数组，放入新的key或者删除key时，
+ * 这一行才转为一个独立的 LinkedCaseInsensitiveMap。
+ * <p>
+ * 
+ * DAO方法声明返回 List&lt;Row&gt; 等时使用；设置系统属性 jade.compactMapRows=true 时，
+ * 返回 List&lt;Map&lt;String, Object&gt;&gt; 的方法也使用。
+ * 
+ * @see CompactRowMapper
+ */
+public final class Row extends AbstractMap<String, Object> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Schema schema;
+
+    private final Object[] values;
+
+    // 放入新的key或者删除key后的内容，此后values不再使用
+    private Map<String, Object> detached;
+
+    Row(Schema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * 
+     * @return 各列的名称，按结果集中的顺序
+     */
+    public List<String> getColumnNames() {
+        return schema.names;
+    }
+
+    /**
+     * 
+     * @param index 列的位置，从0开始，对应 {@link #getColumnNames()}
+     * @return
+     */
+    public Object getValue(int index) {
+        if (detached != null) {
+            return detached.get(schema.names.get(index));
+        }
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return detached != null ? detached.size() : values.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return detached != null ? detached.containsKey(key) : schema.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (detached != null) {
+            return detached.get(key);
+        }
+        int index = schema.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        if (detached == null) {
+            int index = schema.indexOf(key);
+            if (index >= 0) {
+                Object old = values[index];
+                values[index] = value;
+                return old;
+            }
+            detach();
+        }
+        return detached.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (detached == null) {
+            if (schema.indexOf(key) < 0) {
+                return null;
+            }
+            detach();
+        }
+        return detached.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        if (detached == null) {
+            detach();
+        }
+        detached.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (detached != null) {
+            return detached.entrySet();
+        }
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public int size() {
+                return Row.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                if (detached != null) {
+                    return detached.entrySet().iterator();
+                }
+                return new Iterator<Map.Entry<String, Object>>() {
+
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (next >= values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return new Entry(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private void detach() {
+        LinkedCaseInsensitiveMap<Object> map = new LinkedCaseInsensitiveMap<Object>(
+            values.length + 1);
+        for (int i = 0; i < values.length; i++) {
+            map.put(schema.names.get(i), values[i]);
+        }
+        detached = map;
+    }
+
+    private final class Entry implements Map.Entry<String, Object> {
+
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.names.get(index);
+        }
+
+        @Override
+        public Object getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            Object value = values[index];
+            return getKey().equals(other.getKey())
+                   && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = values[index];
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + values[index];
+        }
+    }
+
+    /**
+     * 一个结果集各行共享的列名及其位置，创建后不再改变
+     */
+    public static final class Schema implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> names;
+
+        // 列名及其小写形式 -> 位置
+        private final Map<String, Integer> indexes;
+
+        /**
+         * 
+         * @param names 各列的名称；不区分大小写重复的名称只保留第一个
+         */
+        public Schema(String... names) {
+            this.indexes = new HashMap<String, Integer>(names.length * 4);
+            String[] distinct = new String[names.length];
+            int count = 0;
+            for (String name : names) {
+                String lowerCase = name.toLowerCase();
+                if (!indexes.containsKey(lowerCase)) {
+                    indexes.put(lowerCase, count);
+                    indexes.put(name, count);
+                    distinct[count++] = name;
+                }
+            }
+            this.names = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(distinct, count)));
+        }
+
+        /**
+         * 
+         * @return 各列的名称
+         */
+        public List<String> getNames() {
+            return names;
+        }
+
+        public int size() {
+            return names.size();
+        }
+
+        /**
+         * 
+         * @param name 列名，不区分大小写
+         * @return 列的位置，没有这一列时返回-1
+         */
+        public int indexOf(Object name) {
+            if (!(name instanceof String)) {
+                return -1;
+            }
+            Integer index = indexes.get(name);
+            if (index == null) {
+                index = indexes.get(((String) name).toLowerCase());
+            }
+            return index == null ? -1 : index;
+        }
+
+        /**
+         * 
+         * @param values 各列的值，与 {@link #getNames()} 一一对应，不复制
+         * @return
+         */
+        public Row newRow(Object[] values) {
+            if (values.length != names.size()) {
+                throw new IllegalArgumentException("expected " + names.size() + " values: "
+                                                   + values.length);
+            }
+            return new Row(this, values);
+        }
+
+        @Override
+        public String toString() {
+            return names.toString();
+        }
+    }
+}
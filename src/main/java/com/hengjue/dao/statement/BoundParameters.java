@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一次DAO调用的参数表：以 {@link ParameterBinding} 解析名称、按位置取参数值的只读 {@link Map}。
+ * <p>
+ *
+ * 和原来的HashMap一样，可以通过get(":1")、get(name)取得参数，修改操作则会抛出
+ * {@link UnsupportedOperationException}。
+ * <p>
+ *
+ * 参数值的存储由子类决定：{@link ParameterBinding#bind(Object[])} 直接引用方法参数数组；
+ * {@link com.hengjue.dao.context.DAOClassGenerator} 为每个DAO方法生成的子类则把参数按声明的类型存放在字段中，
+ * 不创建数组，基本类型的参数在 {@link #getAt(int)} 取出时才装箱。
+ *
+ * @see ParameterBinding#bind(Object[])
+ */
+public abstract class BoundParameters extends AbstractMap<String, Object> {
+
+    private final ParameterBinding binding;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    protected BoundParameters(ParameterBinding binding) {
+        this.binding = binding;
+    }
+
+    public ParameterBinding getBinding() {
+        return binding;
+    }
+
+    /**
+     * 按位置(从0开始)返回参数值
+     *
+     * @param index
+     * @return
+     */
+    public abstract Object getAt(int index);
+
+    /**
+     * 返回一个新的参数表，它和本参数表只在给定的位置上的参数值不同；本参数表不会被修改。
+     *
+     * @param index 参数位置(从0开始)
+     * @param value 新的参数值
+     * @return
+     */
+    public BoundParameters replace(int index, Object value) {
+        Object[] copy = new Object[binding.getParameterCount()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = getAt(i);
+        }
+        copy[index] = value;
+        return new ArrayParameters(binding, copy);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int index = binding.indexOf((String) key);
+        return index < 0 ? null : getAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && binding.indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return binding.getIndexes().size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    final Iterator<Map.Entry<String, Integer>> indexes = binding.getIndexes()
+                        .entrySet().iterator();
+                    return new Iterator<Map.Entry<String, Object>>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return indexes.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            Map.Entry<String, Integer> index = indexes.next();
+                            return new SimpleImmutableEntry<String, Object>(index.getKey(),
+                                getAt(index.getValue()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return BoundParameters.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    // 以方法参数数组为存储
+    static final class ArrayParameters extends BoundParameters {
+
+        private final Object[] args;
+
+        ArrayParameters(ParameterBinding binding, Object[] args) {
+            super(binding);
+            this.args = args;
+        }
+
+        @Override
+        public Object getAt(int index) {
+            return args[index];
+        }
+
+        @Override
+        public BoundParameters replace(int index, Object value) {
+            Object[] copy = args.clone();
+            copy[index] = value;
+            return new ArrayParameters(getBinding(), copy);
+        }
+    }
+}
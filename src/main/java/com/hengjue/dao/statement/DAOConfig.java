@@ -16,8 +16,10 @@
 package com.hengjue.dao.statement;
 
 import com.hengjue.dao.dataAccess.DataAccessFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
 import com.hengjue.dao.rowMapper.RowMapperFactory;
 import com.hengjue.dao.statement.cached.CacheProvider;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
 
 /**
  * 支持DAO类的基础配置（数据源配置、SQL解析器配置、OR映射配置等等）
@@ -37,6 +39,12 @@ public class DAOConfig {
 
     private final StatementWrapperProvider statementWrapperProvider;
 
+    private MetricsRegistry metricsRegistry;
+
+    private SlowSQLLogger slowSQLLogger = SlowSQLLogger.getDefault();
+
+    private StatementSettings statementSettings = StatementSettings.DEFAULT;
+
     public DAOConfig(DataAccessFactory dataAccessFactory, //
                      RowMapperFactory rowMapperFactory, //
                      InterpreterFactory interpreterFactory, CacheProvider cacheProvider,
@@ -48,6 +56,34 @@ public class DAOConfig {
         this.statementWrapperProvider = statementWrapperProvider;
     }
 
+    /**
+     * 设置统计各DAO方法调用情况的registry，为null时不做统计
+     * 
+     * @param metricsRegistry
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * 设置慢SQL日志，为null时使用 {@link SlowSQLLogger#getDefault()}
+     * 
+     * @param slowSQLLogger
+     */
+    public void setSlowSQLLogger(SlowSQLLogger slowSQLLogger) {
+        this.slowSQLLogger = (slowSQLLogger == null) ? SlowSQLLogger.getDefault() : slowSQLLogger;
+    }
+
+    /**
+     * 设置各DAO方法默认的fetchSize、maxRows、queryTimeout，为null时使用 {@link StatementSettings#DEFAULT}
+     * 
+     * @param statementSettings
+     */
+    public void setStatementSettings(StatementSettings statementSettings) {
+        this.statementSettings = (statementSettings == null) ? StatementSettings.DEFAULT
+            : statementSettings;
+    }
+
     /**
      * 标准数据访问器配置
      * 
@@ -91,4 +127,28 @@ public class DAOConfig {
         return statementWrapperProvider;
     }
 
+    /**
+     * 
+     * @return 统计各DAO方法调用情况的registry，可以为null(不做统计)
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * 
+     * @return 慢SQL日志，非空
+     */
+    public SlowSQLLogger getSlowSQLLogger() {
+        return slowSQLLogger;
+    }
+
+    /**
+     * 
+     * @return 各DAO方法默认的fetchSize、maxRows、queryTimeout，非空；方法或DAO接口上的注解优先
+     */
+    public StatementSettings getStatementSettings() {
+        return statementSettings;
+    }
+
 }
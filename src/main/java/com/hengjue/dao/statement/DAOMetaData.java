@@ -47,6 +47,11 @@ public class DAOMetaData {
      */
     private final Map<String, Object> attributes;
 
+    /**
+     * {@link #attributes} 的只读视图
+     */
+    private final Map<String, Object> attributesView;
+
     /**
      * 
      * @param daoClass
@@ -57,6 +62,7 @@ public class DAOMetaData {
         this.constants = Collections
             .unmodifiableMap(GenericUtils.getConstantFrom(daoClass, true, true));
         this.attributes = new ConcurrentHashMap<String, Object>(4);
+        this.attributesView = Collections.unmodifiableMap(attributes);
     }
 
     /**
@@ -112,6 +118,14 @@ public class DAOMetaData {
         return (T) attributes.get(name);
     }
 
+    /**
+     * 
+     * @return 由 {@link #setAttribute(String, Object)} 设置的所有属性(只读)
+     */
+    public Map<String, Object> getAttributes() {
+        return attributesView;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof DAOMetaData) {
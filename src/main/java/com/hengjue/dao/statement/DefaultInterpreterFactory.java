@@ -54,9 +54,20 @@ public class DefaultInterpreterFactory implements InterpreterFactory {
         }
     }
 
+    /**
+     * 返回该DAO方法的解析流程：从头开始跳过对该方法没有作用的解析器(见
+     * {@link Interpreter#isApplicable(StatementMetaData)})，例如不含任何替换和表达式的SQL不需要
+     * {@link SystemInterpreter}；一旦加入了一个解析器，之后的解析器都保留，因为SQL可能已被改写。
+     */
     @Override
     public Interpreter[] getInterpreters(StatementMetaData metaData) {
-        return interpreters;
+        Interpreter[] interpreters = this.interpreters;
+        int skip = 0;
+        while (skip < interpreters.length && !interpreters[skip].isApplicable(metaData)) {
+            skip++;
+        }
+        return skip == 0 ? interpreters : Arrays.copyOfRange(interpreters, skip,
+            interpreters.length);
     }
 
 }
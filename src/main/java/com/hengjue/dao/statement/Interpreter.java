@@ -38,4 +38,16 @@ public interface Interpreter {
      */
     void interpret(StatementRuntime runtime);
 
+    /**
+     * 创建DAO方法的解析流程时调用，判断本解析器对这个DAO方法是否有作用；返回false时不加入该方法的解析流程。
+     * <p>
+     * 只在之前没有其他解析器(可能改写SQL)时调用，所以可以只根据 {@link StatementMetaData#getSQL()} 判断。
+     * 
+     * @param metaData
+     * @return 默认返回true
+     */
+    default boolean isApplicable(StatementMetaData metaData) {
+        return true;
+    }
+
 }
@@ -16,23 +16,27 @@
 package com.hengjue.dao.statement;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang.ClassUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.hengjue.dao.annotation.AfterInvocation;
 import com.hengjue.dao.annotation.ReturnGeneratedKeys;
 import com.hengjue.dao.annotation.SQLType;
+import com.hengjue.dao.annotation.SlowSQL;
+import com.hengjue.dao.dataAccess.CloseableIterator;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
+import com.hengjue.dao.statement.metrics.StatementMetrics;
 
 /**
  * 
@@ -41,8 +45,6 @@ import com.hengjue.dao.annotation.SQLType;
  */
 public class JdbcStatement implements Statement {
 
-    private static final Log sqlLogger = LogFactory.getLog("jade_sql.log");
-
     private final StatementMetaData metaData;
 
     private final Interpreter[] interpreters;
@@ -55,7 +57,16 @@ public class JdbcStatement implements Statement {
 
     private final SQLType sqlType;
 
-    private final String logPrefix;
+    // 返回 Stream 或 CloseableIterator：结果背后是打开的ResultSet，在关闭时才记录执行时间
+    private final boolean streaming;
+
+    // 可以为null
+    private final StatementMetrics metrics;
+
+    private final SlowSQLLogger slowSQLLogger;
+
+    // DAO方法或DAO接口上的慢SQL阈值，没有时为null(每次调用时读取全局阈值)
+    private final SlowSQL slowSQL;
 
     private static final AfterInvocationCallback nullAfterInvocationCallback = new AfterInvocationCallback() {
 
@@ -90,6 +101,8 @@ public class JdbcStatement implements Statement {
             Class<?> returnType = statementMetaData.getReturnType();
             if (returnType.isPrimitive()) {
                 returnType = ClassUtils.primitiveToWrapper(returnType);
+            } else if (returnType == Void.class && statementMetaData.isAsync()) {
+                returnType = void.class;
             }
             if (types.length > 0 && List.class.isAssignableFrom(types[0])) {
                 this.batchUpdate = true;
@@ -118,7 +131,14 @@ public class JdbcStatement implements Statement {
         } else {
             this.batchUpdate = false;
         }
-        this.logPrefix = "\n @method:" + this.metaData;
+        DAOConfig config = metaData.getDAOMetaData().getConfig();
+        MetricsRegistry metricsRegistry = config.getMetricsRegistry();
+        this.metrics = (metricsRegistry == null) ? null : metricsRegistry.getMetrics(metaData);
+        this.slowSQLLogger = config.getSlowSQLLogger();
+        this.slowSQL = SlowSQLLogger.getSlowSQL(metaData);
+        Class<?> returnType = metaData.getReturnType();
+        this.streaming = sqlType == SQLType.READ
+                && (Stream.class == returnType || CloseableIterator.class == returnType);
     }
 
     @Override
@@ -128,6 +148,126 @@ public class JdbcStatement implements Statement {
 
     @Override
     public Object execute(Map<String, Object> parameters) {
+        if (metaData.isAsync() && TransactionSynchronizationManager.isActualTransactionActive()) {
+            // 异步DAO方法在线程池中使用另外的连接执行，不会参与调用者的事务
+            throw new InvalidDataAccessApiUsageException(
+                "asynchronous DAO method cannot be called in a transaction: "
+                        + metaData.getMethod());
+        }
+        final StatementTrace trace = slowSQLLogger
+            .begin(slowSQLLogger.getThresholdNanos(slowSQL));
+        if (metrics == null && trace == null) {
+            return doExecute(parameters, null);
+        }
+        final long begin = System.nanoTime();
+        Object result;
+        try {
+            result = doExecute(parameters, trace);
+        } catch (RuntimeException e) {
+            completed(begin, trace, e);
+            throw e;
+        } catch (Error e) {
+            completed(begin, trace, e);
+            throw e;
+        }
+        if (metaData.isAsync()) {
+            // 异步DAO方法：在执行完成时记录
+            ((CompletableFuture<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+
+                @Override
+                public void accept(Object value, Throwable error) {
+                    completed(begin, trace, error);
+                }
+            });
+        } else if (streaming && result != null) {
+            // 逐行读取的DAO方法：执行时间包括调用者读取结果的时间，在关闭时记录
+            if (result instanceof Stream) {
+                result = ((Stream<?>) result).onClose(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        completed(begin, trace, null);
+                    }
+                });
+            } else {
+                result = new CompletingIterator<Object>((CloseableIterator<?>) result, begin, trace);
+            }
+        } else {
+            completed(begin, trace, null);
+        }
+        return result;
+    }
+
+    private void completed(long begin, StatementTrace trace, Throwable error) {
+        if (metrics != null) {
+            metrics.record(System.nanoTime() - begin, error != null);
+        }
+        if (trace != null) {
+            trace.markCompleted();
+            slowSQLLogger.log(trace, slowSQLLogger.getThresholdNanos(slowSQL), error);
+        }
+    }
+
+    /**
+     * 在关闭(包括读完最后一行以及迭代出错)时记录执行时间的 CloseableIterator
+     */
+    private class CompletingIterator<T> implements CloseableIterator<T> {
+
+        private final CloseableIterator<? extends T> iterator;
+
+        private final long begin;
+
+        private final StatementTrace trace;
+
+        private boolean completed;
+
+        CompletingIterator(CloseableIterator<? extends T> iterator, long begin,
+                StatementTrace trace) {
+            this.iterator = iterator;
+            this.begin = begin;
+            this.trace = trace;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext;
+            try {
+                hasNext = iterator.hasNext();
+            } catch (RuntimeException e) {
+                close(e);
+                throw e;
+            }
+            if (!hasNext) {
+                close(null);
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            try {
+                return iterator.next();
+            } catch (RuntimeException e) {
+                close(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            close(null);
+        }
+
+        private void close(Throwable error) {
+            iterator.close();
+            if (!completed) {
+                completed = true;
+                completed(begin, trace, error);
+            }
+        }
+    }
+
+    private Object doExecute(Map<String, Object> parameters, StatementTrace trace) {
         Object result;
         if (batchUpdate) {
             //
@@ -137,54 +277,70 @@ public class JdbcStatement implements Statement {
             int index = 0;
             while (iterator.hasNext()) {
                 Object arg = iterator.next();
-                HashMap<String, Object> clone = new HashMap<String, Object>(parameters);
-                // 更新执行参数
-                clone.put(":1", arg);
-                if (metaData.getSQLParamAt(0) != null) {
-                    clone.put(metaData.getSQLParamAt(0).value(), arg);
+                Map<String, Object> clone;
+                if (parameters instanceof BoundParameters) {
+                    // 更新执行参数(第1个参数替换为当前元素)
+                    clone = ((BoundParameters) parameters).replace(0, arg);
+                } else {
+                    HashMap<String, Object> map = new HashMap<String, Object>(parameters);
+                    // 更新执行参数
+                    map.put(":1", arg);
+                    if (metaData.getSQLParamAt(0) != null) {
+                        map.put(metaData.getSQLParamAt(0).value(), arg);
+                    }
+                    clone = map;
                 }
-                StatementRuntime runtime = new StatementRuntimeImpl(metaData, clone);
+                StatementRuntimeImpl runtime = new StatementRuntimeImpl(metaData, clone);
+                runtime.setTrace(trace);
                 for (Interpreter interpreter : interpreters) {
                     interpreter.interpret(runtime);
                 }
-                if (index == 0) {
-                    log(parameters, runtime);
+                if (metrics != null) {
+                    metrics.addStatement(runtime.getSQL());
                 }
                 runtimes.add(runtime);
                 index++;
             }
+            if (trace != null) {
+                trace.markInterpreted(runtimes.isEmpty() ? null : runtimes.get(0), index);
+            }
             result = querier.execute(sqlType, runtimes.toArray(new StatementRuntime[0]));
-            result = afterInvocationCallback.execute(runtimes.get(0), result);
+            result = afterInvocation(runtimes.get(0), result);
         } else {
-            StatementRuntime runtime = new StatementRuntimeImpl(metaData, parameters);
+            StatementRuntimeImpl runtime = new StatementRuntimeImpl(metaData, parameters);
+            runtime.setTrace(trace);
             for (Interpreter interpreter : interpreters) {
                 interpreter.interpret(runtime);
             }
-            log(parameters, runtime);
+            if (metrics != null) {
+                metrics.addStatement(runtime.getSQL());
+            }
+            if (trace != null) {
+                trace.markInterpreted(runtime, 1);
+            }
             result = querier.execute(sqlType, runtime);
-            result = afterInvocationCallback.execute(runtime, result);
+            result = afterInvocation(runtime, result);
         }
         return result;
 
     }
 
-    private void log(Map<String, Object> parameters, StatementRuntime runtime) {
-        if (sqlLogger.isInfoEnabled()) {
-            String sql = runtime.getSQL();
-            String argsAsString = Arrays.toString(runtime.getArgs());
-            StringBuilder sb = new StringBuilder(1024);
-            sb.append(logPrefix);
-            sb.append("\n @sql:\t").append(sql);//
-            sb.append("\n @args:\t");
-            ArrayList<String> keys = new ArrayList<String>(parameters.keySet());
-            Collections.sort(keys);
-            for (String key : keys) {
-                sb.append(key).append("='").append(parameters.get(key)).append("'  ");
-            }
-            sb.append("\n sql:\t").append(runtime.getSQL());//
-            sb.append("\n args:\t").append(argsAsString);
-            sqlLogger.info(sb.toString());
+    @SuppressWarnings("unchecked")
+    private Object afterInvocation(final StatementRuntime runtime, Object result) {
+        if (afterInvocationCallback == nullAfterInvocationCallback) {
+            return result;
+        }
+        if (metaData.isAsync()) {
+            // 异步DAO方法：在结果完成后再回调
+            return ((CompletableFuture<Object>) result).thenApply(new Function<Object, Object>() {
+
+                @Override
+                public Object apply(Object returnValue) {
+                    return afterInvocationCallback.execute(runtime, returnValue);
+                }
+            });
         }
+        return afterInvocationCallback.execute(runtime, result);
     }
 
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hengjue.dao.annotation.SQLParam;
+
+/**
+ * {@link ParameterBinding} 是一个DAO方法的参数绑定计划：在构造 {@link StatementMetaData}
+ * 时把":1"、":2"以及 {@link SQLParam} 指定的名称一次性解析为参数的位置(slot)。
+ * <p>
+ *
+ * 每次DAO调用时只需要通过 {@link #bind(Object[])} 将方法参数数组包装为只读的
+ * {@link BoundParameters}，不再为每次调用创建 HashMap。
+ *
+ */
+public class ParameterBinding {
+
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    /**
+     * 参数名称 -&gt; 参数位置(从0开始)；按":1"、名称、":2"、名称...的顺序放入，重名时后者覆盖前者
+     */
+    private final Map<String, Integer> indexes;
+
+    private final int parameterCount;
+
+    public ParameterBinding(SQLParam[] sqlParams) {
+        this.parameterCount = sqlParams.length;
+        Map<String, Integer> indexes = new LinkedHashMap<String, Integer>(sqlParams.length * 4 + 1);
+        for (int i = 0; i < sqlParams.length; i++) {
+            Integer index = Integer.valueOf(i);
+            indexes.put(":" + (i + 1), index);
+            if (sqlParams[i] != null) {
+                indexes.put(sqlParams[i].value(), index);
+            }
+        }
+        this.indexes = Collections.unmodifiableMap(indexes);
+    }
+
+    /**
+     *
+     * @return DAO方法的参数个数
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * 返回给定参数名称在方法参数中的位置(从0开始)，名称可以是":1"的形式，也可以是 {@link SQLParam} 指定的名称
+     *
+     * @param name
+     * @return 不存在该参数时返回-1
+     */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     *
+     * @return 所有可用的参数名称及其位置
+     */
+    public Map<String, Integer> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * 将一次DAO调用的方法参数绑定为只读的参数表；所给的数组将被直接引用而不做复制。
+     *
+     * @param args 方法参数，可以为null
+     * @return
+     */
+    public BoundParameters bind(Object[] args) {
+        if (args == null) {
+            args = EMPTY_ARGS;
+        }
+        if (args.length != parameterCount) {
+            throw new IllegalArgumentException("expects " + parameterCount + " arguments, but "
+                                               + args.length);
+        }
+        return new BoundParameters.ArrayParameters(this, args);
+    }
+
+}
@@ -16,6 +16,8 @@
 package com.hengjue.dao.statement;
 
 import java.lang.reflect.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,14 +28,33 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.TypeMismatchDataAccessException;
+import org.springframework.jdbc.IncorrectResultSetColumnCountException;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 
 import com.hengjue.dao.annotation.SQLType;
+import com.hengjue.dao.dataAccess.CloseableIterator;
 import com.hengjue.dao.dataAccess.DataAccess;
 import com.hengjue.dao.dataAccess.DataAccessFactory;
+import com.hengjue.dao.dataAccess.LongLongMap;
+import com.hengjue.dao.dataAccess.StatementSettings;
+import com.hengjue.dao.rowMapper.KeyValueRowMapper;
+import com.hengjue.dao.rowMapper.MapEntryColumnRowMapper;
+import com.hengjue.dao.rowMapper.Row;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
+import com.hengjue.dao.statement.metrics.StatementMetrics;
 
 /**
  * 实现 SELECT 查询。
@@ -44,20 +65,61 @@ import com.hengjue.dao.dataAccess.DataAccessFactory;
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class SelectQuerier implements Querier {
 
+    /**
+     * 返回 Stream、CloseableIterator 以及带 Consumer 参数的方法没有设置fetchSize时(见 {@link StatementMetaData#getStatementSettings()})，
+     * 每次从数据库读取的行数，默认1000，可通过系统属性 jade.stream.fetchSize 设置
+     */
+    private static final int STREAM_FETCH_SIZE = Integer.getInteger("jade.stream.fetchSize", 1000);
+
     private final RowMapper rowMapper;
 
     private final Class<?> returnType;
 
     private final DataAccessFactory dataAccessFactory;
     
-    private final ResultConverter converter;
+    // 逐行读取结果集，生成DAO方法要求的返回结果
+    private final ResultExtractor extractor;
+
+    private final boolean async;
+
+    // 返回 Stream 或 CloseableIterator 时不读入全部结果，而是逐行映射
+    private final boolean streaming;
+
+    // 接收查询结果的 Consumer 参数的位置，负数代表无
+    private final int rowConsumerIndex;
+
+    // 设置到语句上的fetchSize、maxRows、queryTimeout
+    private final StatementSettings settings;
+
+    // 逐行读取时的设置：没有设置fetchSize时使用 STREAM_FETCH_SIZE
+    private final StatementSettings streamSettings;
+
+    // 可以为null
+    private final StatementMetrics metrics;
 
     public SelectQuerier(DataAccessFactory dataAccessFactory, StatementMetaData metaData,
             RowMapper rowMapper) {
         this.dataAccessFactory = dataAccessFactory;
         this.returnType = metaData.getReturnType();
         this.rowMapper = rowMapper;
-        this.converter = makeResultConveter();
+        this.extractor = makeResultExtractor();
+        this.async = metaData.isAsync();
+        this.streaming = Stream.class == returnType || CloseableIterator.class == returnType;
+        this.rowConsumerIndex = metaData.getRowConsumerIndex();
+        this.settings = metaData.getStatementSettings();
+        this.streamSettings = (settings.getFetchSize() != 0) ? settings
+            : settings.withFetchSize(STREAM_FETCH_SIZE);
+        if (rowConsumerIndex >= 0 && returnType != void.class && returnType != Void.class
+            && returnType != int.class && returnType != Integer.class
+            && returnType != long.class && returnType != Long.class) {
+            throw new IllegalArgumentException(
+                "error return type, only support type of {void,int,long} for methods with a "
+                                               + Consumer.class.getName() + " parameter: "
+                                               + metaData.getMethod());
+        }
+        MetricsRegistry metricsRegistry = metaData.getDAOMetaData().getConfig()
+            .getMetricsRegistry();
+        this.metrics = (metricsRegistry == null) ? null : metricsRegistry.getMetrics(metaData);
     }
 
     @Override
@@ -65,208 +127,449 @@ public class SelectQuerier implements Querier {
         return execute(sqlType, (StatementRuntime) runtimes[0]);
     }
 
-    public Object execute(SQLType sqlType, StatementRuntime runtime) {
-        DataAccess dataAccess = dataAccessFactory.getDataAccess(//
+    public Object execute(SQLType sqlType, final StatementRuntime runtime) {
+        final DataAccess dataAccess = dataAccessFactory.getDataAccess(//
                 runtime.getMetaData(), runtime.getAttributes());
-        // 执行查询
-        List<?> listResult = dataAccess.select(runtime.getSQL(), runtime.getArgs(), rowMapper);
-        return converter.convert(runtime, listResult);
+        if (async) {
+            // 异步：在DataSource对应的线程池中查询并转换结果
+            return CompletableFuture.supplyAsync(new Supplier<Object>() {
+
+                @Override
+                public Object get() {
+                    return select(dataAccess, runtime);
+                }
+            }, dataAccess.getExecutor());
+        }
+        return select(dataAccess, runtime);
     }
-    
-    
-    protected ResultConverter makeResultConveter() {
-        ResultConverter converter;
-        if (List.class == returnType || Collection.class == returnType || Iterable.class == returnType) {
-            converter = new ResultConverter() {
+
+    private Object select(DataAccess dataAccess, final StatementRuntime runtime) {
+        if (rowConsumerIndex >= 0 || streaming) {
+            RowMapper rowMapper = this.rowMapper;
+            final StatementTrace trace = runtime.getTrace();
+            if (trace != null) {
+                // 记录读到第一行的时间，以区分执行SQL和映射结果的耗时
+                final RowMapper delegate = rowMapper;
+                rowMapper = new RowMapper() {
+
+                    @Override
+                    public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        if (rowNum == 0) {
+                            trace.markExecuted();
+                        }
+                        return delegate.mapRow(rs, rowNum);
+                    }
+                };
+            }
+            if (rowConsumerIndex >= 0) {
+                return consume(dataAccess, runtime, rowMapper);
+            }
+            return iterate(dataAccess, runtime, rowMapper);
+        }
+        // 执行查询，逐行直接放入DAO方法要求的返回结果
+        return dataAccess.select(runtime.getSQL(), runtime.getArgs(),
+            new ResultSetExtractor<Object>() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    return listResult;
+                public Object extractData(ResultSet rs) throws SQLException {
+                    return extractor.extract(runtime, rs);
                 }
-                
-            };
+            }, settings);
+    }
+
+    // 返回背后为打开的ResultSet的 CloseableIterator 或 Stream，由调用者关闭
+    private Object iterate(DataAccess dataAccess, StatementRuntime runtime, RowMapper rowMapper) {
+        final CloseableIterator iterator = open(dataAccess, runtime, rowMapper);
+        if (CloseableIterator.class == returnType) {
+            return iterator;
         }
-        else if (ArrayList.class == returnType) {
-            converter = new ResultConverter() {
+        return StreamSupport
+            .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(new Runnable() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    return new ArrayList(listResult);
+                public void run() {
+                    iterator.close();
                 }
-                
-            };
+            });
+    }
+
+    // 把每一行交给 Consumer 参数，不保留结果，返回行数
+    private Object consume(DataAccess dataAccess, StatementRuntime runtime, RowMapper rowMapper) {
+        Consumer consumer = (Consumer) runtime.getParameters().get(":" + (rowConsumerIndex + 1));
+        if (consumer == null) {
+            throw new NullPointerException("the " + Consumer.class.getName()
+                                           + " parameter is null: " + runtime.getMetaData());
+        }
+        long count = 0;
+        CloseableIterator iterator = open(dataAccess, runtime, rowMapper);
+        try {
+            while (iterator.hasNext()) {
+                consumer.accept(iterator.next());
+                count++;
+            }
+        } finally {
+            iterator.close();
         }
-        else if (LinkedList.class == returnType) {
-            converter = new ResultConverter() {
+        if (long.class == returnType || Long.class == returnType) {
+            return count;
+        } else if (int.class == returnType || Integer.class == returnType) {
+            return (int) count;
+        }
+        return null;
+    }
+
+    private CloseableIterator open(DataAccess dataAccess, StatementRuntime runtime,
+                                   RowMapper rowMapper) {
+        if (metrics != null) {
+            final RowMapper delegate = rowMapper;
+            rowMapper = new RowMapper() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    return new LinkedList(listResult);
+                public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    metrics.addRowsReturned(1);
+                    return delegate.mapRow(rs, rowNum);
                 }
-                
             };
         }
-        else if (Set.class == returnType || HashSet.class == returnType) {
-            converter = new ResultConverter() {
+        return dataAccess.iterate(runtime.getSQL(), runtime.getArgs(), rowMapper,
+            streamSettings);
+    }
+
+    protected ResultExtractor makeResultExtractor() {
+        if (List.class == returnType || Collection.class == returnType
+            || Iterable.class == returnType || ArrayList.class == returnType) {
+            return new CollectionExtractor() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    return new HashSet(listResult);
+                protected Object create(int rowCount) {
+                    return rowCount < 0 ? new ArrayList() : new ArrayList(rowCount);
                 }
-                
             };
-        }
-        else if (Collection.class.isAssignableFrom(returnType)) {
-            converter = new ResultConverter() {
+        } else if (LinkedList.class == returnType) {
+            return new CollectionExtractor() {
+
+                @Override
+                protected Object create(int rowCount) {
+                    return new LinkedList();
+                }
+            };
+        } else if (Set.class == returnType || HashSet.class == returnType) {
+            return new CollectionExtractor() {
+
+                @Override
+                protected Object create(int rowCount) {
+                    return rowCount < 0 ? new HashSet() : new HashSet(capacity(rowCount));
+                }
+            };
+        } else if (Collection.class.isAssignableFrom(returnType)) {
+            return new CollectionExtractor() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    Collection listToReturn;
+                protected Object create(int rowCount) {
                     try {
-                        listToReturn = (Collection) returnType.newInstance();
+                        return returnType.newInstance();
                     } catch (Exception e) {
                         throw new Error("error to create instance of " + returnType.getName());
                     }
-                    listToReturn.addAll(listResult);
-                    return listToReturn;     
                 }
-                
             };
-        }
-        else if (Iterator.class == returnType) {
-            converter = new ResultConverter() {
+        } else if (Iterator.class == returnType) {
+            return new CollectionExtractor() {
 
                 @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    return listResult.iterator();
+                protected Object create(int rowCount) {
+                    return rowCount < 0 ? new ArrayList() : new ArrayList(rowCount);
                 }
-                
-            };
-        }
-        else if (returnType.isArray() && byte[].class != returnType) {
-            if (returnType.getComponentType().isPrimitive()) {
-                converter = new ResultConverter() {
-
-                    @Override
-                    public Object convert(StatementRuntime runtime, List<?> listResult) {
-                        Object array = Array.newInstance(returnType.getComponentType(), listResult.size());
-                        int len = listResult.size();
-                        for (int i = 0; i < len; i++) {
-                            Array.set(array, i, listResult.get(i));
-                        }
-                        return array;
-                    }
-                    
-                };
-            }
-            else {
-                converter = new ResultConverter() {
 
-                    @Override
-                    public Object convert(StatementRuntime runtime, List<?> listResult) {
-                        Object array = Array.newInstance(returnType.getComponentType(), listResult.size());
-                        return listResult.toArray((Object[]) array);
-                    }
-                    
-                };
-            }
+                @Override
+                protected Object finish(StatementRuntime runtime, Object result, int rowCount) {
+                    return ((List) result).iterator();
+                }
+            };
+        } else if ((int[].class == returnType || long[].class == returnType || double[].class == returnType)
+                   && rowMapper.getClass() == SingleColumnRowMapper.class) {
+            return new PrimitiveArrayExtractor();
+        } else if (returnType.isArray() && byte[].class != returnType) {
+            return new ArrayExtractor();
+        } else if (LongLongMap.class == returnType) {
+            return new LongLongMapExtractor();
+        } else if (Map.class == returnType || HashMap.class == returnType) {
+            return new MapExtractor() {
 
-        } 
-        else if (Map.class == returnType || HashMap.class == returnType) {
-            converter = new MapConverter() {
                 @Override
-                protected Map creatMap(StatementRuntime runtime) {
-                    return new HashMap();
+                protected Object create(int rowCount) {
+                    return rowCount < 0 ? new HashMap() : new HashMap(capacity(rowCount));
                 }
             };
-        } 
-        else if (Hashtable.class == returnType) {
-            converter = new MapConverter() {
+        } else if (Hashtable.class == returnType) {
+            return new MapExtractor() {
+
                 @Override
-                protected Map creatMap(StatementRuntime runtime) {
-                    return new Hashtable();
+                protected Object create(int rowCount) {
+                    return rowCount < 0 ? new Hashtable() : new Hashtable(capacity(rowCount));
                 }
             };
-        }
-        else if (Map.class.isAssignableFrom(returnType)) {
-            converter = new MapConverter() {
+        } else if (Map.class.isAssignableFrom(returnType) && Row.class != returnType) {
+            return new MapExtractor() {
+
                 @Override
-                protected Map creatMap(StatementRuntime runtime) {
+                protected Object create(int rowCount) {
                     try {
-                        return (Map) returnType.newInstance();
+                        return returnType.newInstance();
                     } catch (Exception e) {
                         throw new Error("error to create instance of " + returnType.getName());
                     }
                 }
             };
         }
-        // 
-        else {
-            converter = new ResultConverter() {
+        return new SingleResultExtractor();
+    }
 
-                @Override
-                public Object convert(StatementRuntime runtime, List<?> listResult) {
-                    final int sizeResult = listResult.size();
-                    if (sizeResult == 1) {
-                        // 返回单个  Bean、Boolean等类型对象
-                        return listResult.get(0);
-        
-                    } else if (sizeResult == 0) {
-        
-                        // 基础类型的抛异常，其他的返回null
-                        if (returnType.isPrimitive()) {
-                            String msg = "Incorrect result size: expected 1, actual " + sizeResult + ": "
-                                    + runtime.getMetaData();
-                            throw new EmptyResultDataAccessException(msg, 1);
-                        } else {
-                            return null;
-                        }
-        
-                    } else {
-                        // IncorrectResultSizeDataAccessException
-                        String msg = "Incorrect result size: expected 0 or 1, actual " + sizeResult + ": "
-                                + runtime.getMetaData();
-                        throw new IncorrectResultSizeDataAccessException(msg, 1, sizeResult);
-                    }
-                }
-            };
+    // 可滚动的结果集可以预先得到行数，用来预设容器的大小；不能得到时返回-1
+    private static int getRowCount(ResultSet rs) throws SQLException {
+        if (rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+            return -1;
         }
-        return converter;
+        int rowCount = rs.last() ? rs.getRow() : 0;
+        rs.beforeFirst();
+        return rowCount;
+    }
+
+    // 放入rowCount个元素而不需要扩容的HashMap、HashSet初始容量
+    private static int capacity(int rowCount) {
+        return rowCount < 3 ? rowCount + 1 : (int) (rowCount / 0.75f + 1.0f);
     }
 
     /**
-     * {@link ResultConverter} 负责将SELECT出来的List转化为DAO方法要求的返回结果
+     * {@link ResultExtractor} 负责逐行读取SELECT的结果集，直接放入DAO方法要求的返回结果，不经过中间的List
      * <p>
      * 
      */
-    static interface ResultConverter {
+    abstract class ResultExtractor {
 
-        Object convert(StatementRuntime runtime, List<?> listResult);
+        abstract Object extract(StatementRuntime runtime, ResultSet rs) throws SQLException;
     }
-    
-    static abstract class MapConverter implements ResultConverter {
+
+    /**
+     * 返回集合、映射或数组的：创建容器后把每一行映射后放入
+     */
+    abstract class ContainerExtractor extends ResultExtractor {
 
         @Override
-        public Object convert(StatementRuntime runtime, List<?> listResult) {
-            Map map = creatMap(runtime);
-            for (Object obj : listResult) {
-                if (obj == null) {
-                    continue;
+        Object extract(StatementRuntime runtime, ResultSet rs) throws SQLException {
+            StatementTrace trace = runtime.getTrace();
+            Object result = create(getRowCount(rs));
+            int rowNum = 0;
+            while (rs.next()) {
+                if (rowNum == 0 && trace != null) {
+                    // 记录读到第一行的时间，以区分执行SQL和映射结果的耗时
+                    trace.markExecuted();
                 }
+                result = add(result, rs, rowNum++);
+            }
+            if (metrics != null) {
+                metrics.addRowsReturned(rowNum);
+            }
+            return finish(runtime, result, rowNum);
+        }
+
+        /**
+         * 创建所返回的集合、映射或数组
+         * 
+         * @param rowCount 结果集的行数，-1表示未知
+         * @return
+         */
+        protected abstract Object create(int rowCount);
+
+        /**
+         * 把当前行放入结果
+         * 
+         * @return 放入后的结果(数组长度不够时为新的数组)
+         */
+        protected abstract Object add(Object result, ResultSet rs, int rowNum)
+                throws SQLException;
+
+        protected Object finish(StatementRuntime runtime, Object result, int rowCount) {
+            return result;
+        }
+    }
+
+    abstract class CollectionExtractor extends ContainerExtractor {
+
+        @Override
+        protected Object add(Object result, ResultSet rs, int rowNum) throws SQLException {
+            ((Collection) result).add(rowMapper.mapRow(rs, rowNum));
+            return result;
+        }
+    }
+
+    class ArrayExtractor extends ContainerExtractor {
 
-                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+        private final Class<?> componentType = returnType.getComponentType();
+
+        @Override
+        protected Object create(int rowCount) {
+            return Array.newInstance(componentType, rowCount < 0 ? 16 : rowCount);
+        }
+
+        @Override
+        protected Object add(Object result, ResultSet rs, int rowNum) throws SQLException {
+            int length = Array.getLength(result);
+            if (rowNum == length) {
+                Object larger = Array.newInstance(componentType, length + (length >> 1) + 1);
+                System.arraycopy(result, 0, larger, 0, length);
+                result = larger;
+            }
+            set(result, rs, rowNum);
+            return result;
+        }
+
+        // 把当前行放入数组的rowNum位置，数组的长度已经足够
+        protected void set(Object array, ResultSet rs, int rowNum) throws SQLException {
+            Object value = rowMapper.mapRow(rs, rowNum);
+            if (array instanceof Object[]) {
+                ((Object[]) array)[rowNum] = value;
+            } else {
+                Array.set(array, rowNum, value);
+            }
+        }
+
+        @Override
+        protected Object finish(StatementRuntime runtime, Object result, int rowCount) {
+            if (Array.getLength(result) == rowCount) {
+                return result;
+            }
+            Object array = Array.newInstance(componentType, rowCount);
+            System.arraycopy(result, 0, array, 0, rowCount);
+            return array;
+        }
+    }
+
+    /**
+     * 返回 int[]、long[]、double[] 的单列查询：直接用 getInt、getLong、getDouble 读入数组，不创建包装对象
+     */
+    class PrimitiveArrayExtractor extends ArrayExtractor {
 
-                if (map.getClass() == Hashtable.class && entry.getKey() == null) {
-                    continue;
+        @Override
+        protected void set(Object array, ResultSet rs, int rowNum) throws SQLException {
+            if (rowNum == 0) {
+                int nrOfColumns = rs.getMetaData().getColumnCount();
+                if (nrOfColumns != 1) {
+                    throw new IncorrectResultSetColumnCountException(1, nrOfColumns);
                 }
+            }
+            if (array instanceof long[]) {
+                ((long[]) array)[rowNum] = rs.getLong(1);
+            } else if (array instanceof int[]) {
+                ((int[]) array)[rowNum] = rs.getInt(1);
+            } else {
+                ((double[]) array)[rowNum] = rs.getDouble(1);
+            }
+            if (rs.wasNull()) {
+                throw new TypeMismatchDataAccessException("Null value affecting row number "
+                                                          + rowNum + " can not be returned as "
+                                                          + returnType.getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * 返回 {@link LongLongMap} 的：默认的 {@link MapEntryColumnRowMapper} 直接用 getLong 读取key、value
+     */
+    class LongLongMapExtractor extends ContainerExtractor {
 
-                map.put(entry.getKey(), entry.getValue());
+        private final MapEntryColumnRowMapper columnMapper = (rowMapper instanceof MapEntryColumnRowMapper) ? (MapEntryColumnRowMapper) rowMapper
+                : null;
+
+        @Override
+        protected Object create(int rowCount) {
+            return rowCount < 0 ? new LongLongMap() : new LongLongMap(rowCount);
+        }
+
+        @Override
+        protected Object add(Object result, ResultSet rs, int rowNum) throws SQLException {
+            LongLongMap map = (LongLongMap) result;
+            if (columnMapper != null) {
+                columnMapper.putRow(map, rs, rowNum);
+            } else if (rowMapper instanceof KeyValueRowMapper) {
+                KeyValueRowMapper keyValueMapper = (KeyValueRowMapper) rowMapper;
+                Number key = (Number) keyValueMapper.mapKey(rs, rowNum);
+                map.put(key.longValue(), ((Number) keyValueMapper.mapValue(rs, rowNum)).longValue());
+            } else {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) rowMapper.mapRow(rs, rowNum);
+                if (entry != null) {
+                    map.put(((Number) entry.getKey()).longValue(),
+                        ((Number) entry.getValue()).longValue());
+                }
             }
             return map;
         }
+    }
+
+    abstract class MapExtractor extends ContainerExtractor {
+
+        // 可以分别读取key、value的不必为每一行创建 Map.Entry；否则rowMapper返回的是 Map.Entry
+        private final KeyValueRowMapper keyValueMapper = (rowMapper instanceof KeyValueRowMapper) ? (KeyValueRowMapper) rowMapper
+                : null;
+
+        @Override
+        protected Object add(Object result, ResultSet rs, int rowNum) throws SQLException {
+            Object key;
+            Object value;
+            if (keyValueMapper != null) {
+                key = keyValueMapper.mapKey(rs, rowNum);
+                value = keyValueMapper.mapValue(rs, rowNum);
+            } else {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) rowMapper.mapRow(rs, rowNum);
+                if (entry == null) {
+                    return result;
+                }
+                key = entry.getKey();
+                value = entry.getValue();
+            }
+            if (key == null && result.getClass() == Hashtable.class) {
+                return result;
+            }
+            ((Map) result).put(key, value);
+            return result;
+        }
+    }
+
+    /**
+     * 返回单个 Bean、Boolean等类型对象：期望0行或1行，primitive类型期望1行
+     */
+    class SingleResultExtractor extends ResultExtractor {
 
-        protected abstract Map creatMap(StatementRuntime runtime) ;
-        
+        @Override
+        Object extract(StatementRuntime runtime, ResultSet rs) throws SQLException {
+            Object result = null;
+            int rowCount = 0;
+            if (rs.next()) {
+                if (runtime.getTrace() != null) {
+                    runtime.getTrace().markExecuted();
+                }
+                result = rowMapper.mapRow(rs, 0);
+                rowCount = 1;
+                // 多出的行只计数，不再映射
+                while (rs.next()) {
+                    rowCount++;
+                }
+            }
+            if (metrics != null) {
+                metrics.addRowsReturned(rowCount);
+            }
+            if (rowCount == 0 && returnType.isPrimitive()) {
+                // 基础类型的抛异常，其他的返回null
+                String msg = "Incorrect result size: expected 1, actual " + rowCount + ": "
+                             + runtime.getMetaData();
+                throw new EmptyResultDataAccessException(msg, 1);
+            } else if (rowCount > 1) {
+                String msg = "Incorrect result size: expected 0 or 1, actual " + rowCount + ": "
+                             + runtime.getMetaData();
+                throw new IncorrectResultSizeDataAccessException(msg, 1, rowCount);
+            }
+            return result;
+        }
     }
 }
-
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hengjue.dao.annotation.SlowSQL;
+
+/**
+ * {@link SlowSQLLogger} 只记录耗时超过阈值的、或被采样到的DAO调用，输出到 jade_sql.log 日志。
+ * <p>
+ *
+ * 调用线程只把SQL、参数的引用以及各阶段耗时放入一个有界的环形缓冲区，日志内容的拼装和输出都在后台线程中进行；
+ * 缓冲区满时新的记录将被丢弃(并计数)，不会阻塞调用线程。后台线程在缓冲区为空时休眠，由新的记录唤醒。
+ * <p>
+ *
+ * 阈值可以由 {@link #setThreshold(long)} 全局设置，也可以由DAO方法或DAO接口上的 {@link SlowSQL} 单独设置；
+ * 默认值取自系统属性 jade.slowSQL.threshold(毫秒，默认1000)和 jade.slowSQL.sampleRate(默认0)。
+ *
+ */
+public class SlowSQLLogger {
+
+    private static final Log sqlLogger = LogFactory.getLog("jade_sql.log");
+
+    private static final SlowSQLLogger defaultLogger = new SlowSQLLogger();
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // 生产者已占位但超过这个时间仍未写入时(比如写入前线程异常终止)，跳过该位置
+    private static final long UNPUBLISHED_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long thresholdMillis = Long.getLong("jade.slowSQL.threshold", 1000L);
+
+    private volatile double sampleRate = Double
+        .parseDouble(System.getProperty("jade.slowSQL.sampleRate", "0"));
+
+    private final int capacity;
+
+    private final AtomicReferenceArray<Entry> ring;
+
+    // 下一个写入位置
+    private final AtomicLong tail = new AtomicLong();
+
+    // 下一个读取位置(只由后台线程修改)
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile Thread worker;
+
+    // 后台线程是否因缓冲区为空而等待唤醒
+    private volatile boolean waiting;
+
+    /**
+     *
+     * @return 未配置 {@link SlowSQLLogger} 时使用的全局实例
+     */
+    public static SlowSQLLogger getDefault() {
+        return defaultLogger;
+    }
+
+    public SlowSQLLogger() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param capacity 环形缓冲区大小，将被向上取为2的幂
+     */
+    public SlowSQLLogger(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.ring = new AtomicReferenceArray<Entry>(size);
+    }
+
+    public long getThreshold() {
+        return thresholdMillis;
+    }
+
+    /**
+     * 设置全局阈值(毫秒)，负数表示不按耗时记录
+     *
+     * @param thresholdMillis
+     */
+    public void setThreshold(long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 设置采样率，0到1之间，比如0.001表示每1000次调用随机记录1次(不论快慢)
+     *
+     * @param sampleRate
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     *
+     * @return 因缓冲区满而被丢弃的记录数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 返回给定DAO方法的阈值(纳秒)：方法上的 {@link SlowSQL} 优先，其次是DAO接口上的，最后是全局阈值
+     *
+     * @param metaData
+     * @return 负数表示不按耗时记录
+     */
+    public long getThresholdNanos(StatementMetaData metaData) {
+        return getThresholdNanos(getSlowSQL(metaData));
+    }
+
+    /**
+     * 返回阈值(纳秒)：给定了 {@link SlowSQL} 时使用它的值，否则使用当前的全局阈值
+     *
+     * @param slowSQL {@link #getSlowSQL(StatementMetaData)} 的返回值，可以为null
+     * @return 负数表示不按耗时记录
+     */
+    public long getThresholdNanos(SlowSQL slowSQL) {
+        long millis = (slowSQL == null) ? thresholdMillis : slowSQL.value();
+        return millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * 
+     * @param metaData
+     * @return DAO方法上的 {@link SlowSQL}，其次是DAO接口上的，都没有时返回null
+     */
+    public static SlowSQL getSlowSQL(StatementMetaData metaData) {
+        SlowSQL slowSQL = metaData.getMethod().getAnnotation(SlowSQL.class);
+        if (slowSQL == null) {
+            slowSQL = metaData.getDAOMetaData().getDAOClass().getAnnotation(SlowSQL.class);
+        }
+        return slowSQL;
+    }
+
+    /**
+     * 在一次调用开始时调用
+     *
+     * @param thresholdNanos 该DAO方法的阈值，见 {@link #getThresholdNanos(StatementMetaData)}
+     * @return 本次调用不可能被记录(日志未开启、没有阈值且未被采样)时返回null
+     */
+    public StatementTrace begin(long thresholdNanos) {
+        if (!sqlLogger.isInfoEnabled()) {
+            return null;
+        }
+        double sampleRate = this.sampleRate;
+        boolean sampled = sampleRate > 0
+                          && ThreadLocalRandom.current().nextDouble() < sampleRate;
+        if (thresholdNanos < 0 && !sampled) {
+            return null;
+        }
+        return new StatementTrace(sampled);
+    }
+
+    /**
+     * 在一次调用完成时调用：超过阈值或被采样时放入缓冲区，日志在后台线程中输出
+     *
+     * @param trace 已经 {@link StatementTrace#markCompleted()} 的调用记录
+     * @param thresholdNanos 该DAO方法的阈值，见 {@link #getThresholdNanos(StatementMetaData)}
+     * @param error 调用失败时的异常，可以为null
+     */
+    public void log(StatementTrace trace, long thresholdNanos, Throwable error) {
+        if (trace.getRuntime() == null) {
+            // SQL解析失败，异常会抛给调用者
+            return;
+        }
+        boolean slow = thresholdNanos >= 0 && trace.getTotalNanos() >= thresholdNanos;
+        if (!slow && !trace.isSampled()) {
+            return;
+        }
+        Entry entry = new Entry(trace, slow, error);
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= capacity) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        entry.sequence = t;
+        ring.set((int) t & (capacity - 1), entry);
+        Thread worker = this.worker;
+        if (worker == null) {
+            startWorker();
+        } else if (waiting) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private synchronized void startWorker() {
+        if (worker == null) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "jade-slow-sql");
+            thread.setDaemon(true);
+            thread.start();
+            worker = thread;
+        }
+    }
+
+    private void drain() {
+        // 开始等待当前位置被写入的时间
+        long unpublishedSince = 0;
+        boolean unpublished = false;
+        while (true) {
+            long h = head;
+            int index = (int) h & (capacity - 1);
+            Entry entry = ring.get(index);
+            if (entry == null || entry.sequence != h) {
+                if (entry != null && entry.sequence < h) {
+                    // 已被跳过的位置又被迟到的生产者写入
+                    ring.compareAndSet(index, entry, null);
+                }
+                if (h == tail.get()) {
+                    // 缓冲区为空，等待生产者唤醒；置位后再检查一次，避免错过唤醒
+                    waiting = true;
+                    if (h == tail.get()) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                // 生产者已占位但尚未写入，稍后再看，超时则跳过
+                long now = System.nanoTime();
+                if (!unpublished) {
+                    unpublished = true;
+                    unpublishedSince = now;
+                }
+                if (now - unpublishedSince < UNPUBLISHED_TIMEOUT_NANOS) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+                unpublished = false;
+                head = h + 1;
+                dropped.increment();
+                continue;
+            }
+            unpublished = false;
+            ring.set(index, null);
+            head = h + 1;
+            try {
+                sqlLogger.info(entry.format());
+            } catch (RuntimeException e) {
+                sqlLogger.error("failed to format slow sql log", e);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final StatementTrace trace;
+
+        final boolean slow;
+
+        final Throwable error;
+
+        // 在缓冲区中的序号，写入缓冲区前设置
+        long sequence;
+
+        Entry(StatementTrace trace, boolean slow, Throwable error) {
+            this.trace = trace;
+            this.slow = slow;
+            this.error = error;
+        }
+
+        String format() {
+            StatementRuntime runtime = trace.getRuntime();
+            StringBuilder sb = new StringBuilder(512);
+            sb.append(slow ? "[slow] " : "[sampled] ");
+            sb.append(runtime.getMetaData());
+            sb.append(" cost ").append(millis(trace.getTotalNanos())).append("ms");
+            sb.append(" (interpret ").append(millis(trace.getInterpretNanos()));
+            sb.append("ms, execute ").append(millis(trace.getExecuteNanos()));
+            sb.append("ms, map ").append(millis(trace.getMapNanos())).append("ms)");
+            if (trace.getBatchSize() != 1) {
+                sb.append(" batch=").append(trace.getBatchSize());
+            }
+            if (error != null) {
+                sb.append(" error=").append(error);
+            }
+            sb.append("\n @sql:\t").append(runtime.getMetaData().getSQL());
+            sb.append("\n @args:\t");
+            Map<String, Object> parameters = runtime.getParameters();
+            List<String> keys = new ArrayList<String>(parameters.keySet());
+            Collections.sort(keys);
+            for (String key : keys) {
+                sb.append(key).append("='").append(parameters.get(key)).append("'  ");
+            }
+            sb.append("\n sql:\t").append(runtime.getSQL());
+            sb.append("\n args:\t").append(Arrays.toString(runtime.getArgs()));
+            return sb.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.valueOf(nanos / 100000 / 10.0);
+        }
+    }
+}
@@ -17,15 +17,27 @@ package com.hengjue.dao.statement;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
+import com.hengjue.dao.annotation.FetchSize;
+import com.hengjue.dao.annotation.InListBuckets;
+import com.hengjue.dao.annotation.MaxRows;
+import com.hengjue.dao.annotation.QueryTimeout;
 import com.hengjue.dao.annotation.ReturnGeneratedKeys;
 import com.hengjue.dao.annotation.SQL;
 import com.hengjue.dao.annotation.SQLParam;
 import com.hengjue.dao.annotation.SQLType;
 import com.hengjue.dao.annotation.ShardBy;
+import com.hengjue.dao.dataAccess.StatementSettings;
+import com.hengjue.dao.statement.expression.ExqlPattern;
+import com.hengjue.dao.statement.expression.impl.ExqlCompiler;
+import com.hengjue.dao.statement.expression.impl.ExqlPatternImpl;
 
 
 /**
@@ -53,6 +65,11 @@ public class StatementMetaData {
      */
     private final String sql;
 
+    /**
+     * 由 {@link #sql} 编译出的执行计划，第一次使用时编译
+     */
+    private volatile ExqlPattern sqlPattern;
+
     /**
      * SQL类型（查询类型或者更新类型）：默认由方法名和SQL语句判断，除非强制指定。
      * @see SQLType
@@ -90,9 +107,16 @@ public class StatementMetaData {
      * </pre>
      * 
      * 此时，UserDAO#getById方法的returnType是User，而非Object;
+     * <P>
+     * 对于返回 CompletableFuture&lt;T&gt; 的异步DAO方法，returnType是T
      */
     private final Class returnType;
 
+    /**
+     * DAO方法是否声明返回 {@link CompletableFuture}，是则在DataSource对应的线程池中异步执行
+     */
+    private final boolean async;
+
     /**
      * 方法返回参数的范型类型（不支持多级）－从method中获取并缓存
      * 
@@ -117,8 +141,33 @@ public class StatementMetaData {
 
     private final ShardBy shardBy;
 
+    /**
+     * {@link Consumer}参数在哪个位置？(从0开始，负数代表无)：有此参数时查询结果逐行交给它而不返回，DAO方法返回行数
+     */
+    private final int rowConsumerIndex;
+
+    /**
+     * {@link Consumer}参数接收的行类型，即Consumer&lt;T&gt;中的T
+     */
+    private final Class<?> rowConsumerType;
+
     private final int parameterCount;
 
+    /**
+     * 参数绑定计划：参数名称(":1"、{@link SQLParam}名称)到参数位置的映射－从method中获取并缓存
+     */
+    private final ParameterBinding parameterBinding;
+
+    /**
+     * IN (...) 参数个数是否补齐到2的幂：方法上的 {@link InListBuckets} 优先，其次是DAO接口上的，最后是全局设置
+     */
+    private final boolean inListBuckets;
+
+    /**
+     * 执行时的fetchSize、maxRows、queryTimeout：各项由方法上的注解优先，其次是DAO接口上的，最后是 {@link DAOConfig} 的默认值
+     */
+    private final StatementSettings statementSettings;
+
     /**
      * 框架或插件设置的属性
      */
@@ -177,10 +226,19 @@ public class StatementMetaData {
             this.returnGeneratedKeys = nullDynamicReturnGeneratedKeys;
         }
 
+        Type genericReturnType = method.getGenericReturnType();
+        this.async = GenericUtils.resolveTypeVariable(daoMetaData.getDAOClass(),
+            genericReturnType) == CompletableFuture.class;
+        if (async) {
+            // CompletableFuture<T>：以T作为返回类型
+            genericReturnType = (genericReturnType instanceof ParameterizedType)
+                ? ((ParameterizedType) genericReturnType).getActualTypeArguments()[0]
+                : Object.class;
+        }
         this.returnType = GenericUtils.resolveTypeVariable(daoMetaData.getDAOClass(),
-            method.getGenericReturnType());
+            genericReturnType);
         this.parameterTypesOfReturnType = GenericUtils
-            .resolveTypeParameters(daoMetaData.getDAOClass(), method.getGenericReturnType());
+            .resolveTypeParameters(daoMetaData.getDAOClass(), genericReturnType);
 
         Annotation[][] annotations = method.getParameterAnnotations();
         this.parameterCount = annotations.length;
@@ -206,6 +264,58 @@ public class StatementMetaData {
         }
         this.shardByIndex = shardByIndex;
         this.shardBy = shardBy;
+
+        int rowConsumerIndex = -1;
+        Class<?> rowConsumerType = null;
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int index = 0; index < parameterTypes.length; index++) {
+            if (parameterTypes[index] == Consumer.class) {
+                if (rowConsumerIndex >= 0) {
+                    throw new IllegalArgumentException(
+                        "duplicated " + Consumer.class.getName() + " parameter: " + method);
+                }
+                Class[] types = GenericUtils.resolveTypeParameters(daoMetaData.getDAOClass(),
+                    method.getGenericParameterTypes()[index]);
+                if (types.length != 1) {
+                    throw new IllegalArgumentException("the parameter type '"
+                                                       + Consumer.class.getName()
+                                                       + "' should has a actual type parameter: "
+                                                       + method);
+                }
+                rowConsumerIndex = index;
+                rowConsumerType = types[0];
+            }
+        }
+        this.rowConsumerIndex = rowConsumerIndex;
+        this.rowConsumerType = rowConsumerType;
+        this.parameterBinding = new ParameterBinding(sqlParams);
+
+        InListBuckets inListBuckets = method.getAnnotation(InListBuckets.class);
+        if (inListBuckets == null) {
+            inListBuckets = daoMetaData.getDAOClass().getAnnotation(InListBuckets.class);
+        }
+        this.inListBuckets = (inListBuckets == null) ? Boolean.getBoolean("jade.exql.inListBuckets")
+                : inListBuckets.value();
+
+        StatementSettings defaults = daoMetaData.getConfig().getStatementSettings();
+        FetchSize fetchSize = getMethodOrClassAnnotation(FetchSize.class);
+        MaxRows maxRows = getMethodOrClassAnnotation(MaxRows.class);
+        QueryTimeout queryTimeout = getMethodOrClassAnnotation(QueryTimeout.class);
+        if (fetchSize == null && maxRows == null && queryTimeout == null) {
+            this.statementSettings = defaults;
+        } else {
+            this.statementSettings = new StatementSettings(//
+                fetchSize == null ? defaults.getFetchSize() : fetchSize.value(),
+                maxRows == null ? defaults.getMaxRows() : maxRows.value(),
+                queryTimeout == null ? defaults.getQueryTimeout() : queryTimeout.value());
+        }
+    }
+
+    // 方法上的注解优先，其次是DAO接口上的
+    private <T extends Annotation> T getMethodOrClassAnnotation(Class<T> annotationClass) {
+        T annotation = method.getAnnotation(annotationClass);
+        return annotation != null ? annotation
+            : daoMetaData.getDAOClass().getAnnotation(annotationClass);
     }
 
     public DAOMetaData getDAOMetaData() {
@@ -236,10 +346,59 @@ public class StatementMetaData {
         return returnType;
     }
 
+    /**
+     * 
+     * 异步DAO方法在DataSource专属的线程池中执行，不参与调用者的Spring事务，在事务中调用时抛出
+     * InvalidDataAccessApiUsageException
+     * 
+     * @return DAO方法是否声明返回 {@link CompletableFuture}
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
     public String getSQL() {
         return sql;
     }
 
+    /**
+     * 
+     * @return DAO方法上的原始SQL语句编译出的执行计划(文本、替换、表达式、#if、#for等单元)，只编译一次；
+     *         编译时用DAO的常量化简，{CONST}替换为常量值，只依赖常量的#if只保留成立的分支
+     */
+    public ExqlPattern getSQLPattern() {
+        ExqlPattern pattern = sqlPattern;
+        if (pattern == null) {
+            pattern = new ExqlCompiler(sql).compile();
+            if (pattern instanceof ExqlPatternImpl) {
+                pattern = ((ExqlPatternImpl) pattern).fold(daoMetaData.getConstants(),
+                    parameterBinding.getIndexes().keySet());
+            }
+            sqlPattern = pattern;
+        }
+        return pattern;
+    }
+
+    /**
+     * 
+     * @return 集合参数展开的问号个数是否补齐到2的幂
+     * @see InListBuckets
+     */
+    public boolean isInListBuckets() {
+        return inListBuckets;
+    }
+
+    /**
+     * 
+     * @return 执行时设置到语句上的fetchSize、maxRows、queryTimeout，非空
+     * @see FetchSize
+     * @see MaxRows
+     * @see QueryTimeout
+     */
+    public StatementSettings getStatementSettings() {
+        return statementSettings;
+    }
+
     public int getParameterCount() {
         return parameterCount;
     }
@@ -248,6 +407,10 @@ public class StatementMetaData {
         return sqlParams[argIndex];
     }
 
+    public ParameterBinding getParameterBinding() {
+        return parameterBinding;
+    }
+
     public int getShardByIndex() {
         return shardByIndex;
     }
@@ -256,6 +419,22 @@ public class StatementMetaData {
         return shardBy;
     }
 
+    /**
+     * 
+     * @return 接收查询结果的{@link Consumer}参数的位置(从0开始)，没有时返回-1
+     */
+    public int getRowConsumerIndex() {
+        return rowConsumerIndex;
+    }
+
+    /**
+     * 
+     * @return {@link Consumer}参数接收的行类型，没有该参数时返回null
+     */
+    public Class<?> getRowConsumerType() {
+        return rowConsumerType;
+    }
+
     public Class<?>[] getGenericReturnTypes() {
         return parameterTypesOfReturnType;
     }
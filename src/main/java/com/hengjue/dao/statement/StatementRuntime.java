@@ -35,7 +35,7 @@ public interface StatementRuntime {
     StatementMetaData getMetaData();
 
     /**
-     * @return 返回调用DAO方法传入的参数，key为":1"、":2"，以及 {@link SQLParam} 注解指定的名称(不含冒号)
+     * @return 返回调用DAO方法传入的参数(只读)，key为":1"、":2"，以及 {@link SQLParam} 注解指定的名称(不含冒号)
      */
     Map<String, Object> getParameters();
 
@@ -85,6 +85,14 @@ public interface StatementRuntime {
      */
     <T> T getAttribute(String name);
 
+    /**
+     * 
+     * @return 本次调用各阶段的时间，只在需要记录慢SQL日志时才非空
+     */
+    default StatementTrace getTrace() {
+        return null;
+    }
+
     //----------@deprecated below----------------
 
     /**
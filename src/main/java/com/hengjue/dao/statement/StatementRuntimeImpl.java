@@ -32,10 +32,15 @@ public class StatementRuntimeImpl implements StatementRuntime {
 
     private String sql;
 
-    private Object[] args;
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    // 没有解析器改写时(SQL不含任何表达式)没有参数
+    private Object[] args = EMPTY_ARGS;
 
     private Map<String, Object> attributes;
 
+    private StatementTrace trace;
+
     public StatementRuntimeImpl(StatementMetaData metaData, Map<String, Object> parameters) {
         this.metaData = metaData;
         this.parameters = parameters;
@@ -94,6 +99,15 @@ public class StatementRuntimeImpl implements StatementRuntime {
         return (T) (attributes == null ? null : attributes.get(name));
     }
 
+    @Override
+    public StatementTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(StatementTrace trace) {
+        this.trace = trace;
+    }
+
     // 不要删除，以便兼容1.x
     @Override
     public Map<String, Object> getProperties() {
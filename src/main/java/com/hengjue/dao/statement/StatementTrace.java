@@ -0,0 +1,116 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement;
+
+/**
+ * 一次DAO调用各阶段的时间点(System.nanoTime)：解析SQL、执行SQL(到读到第一行为止)、映射/转换结果。
+ * <p>
+ *
+ * 由 {@link JdbcStatement} 创建并通过 {@link StatementRuntime#getTrace()} 交给 {@link Querier}，供
+ * {@link SlowSQLLogger} 使用；只有一个线程在写，完成后才被读取。
+ *
+ */
+public class StatementTrace {
+
+    private final long begin;
+
+    private final boolean sampled;
+
+    private StatementRuntime runtime;
+
+    private int batchSize;
+
+    private long interpreted;
+
+    private long executed;
+
+    private long completed;
+
+    /**
+     * 
+     * @param sampled true表示本次调用被采样，不论快慢都要记录
+     */
+    public StatementTrace(boolean sampled) {
+        this.begin = System.nanoTime();
+        this.sampled = sampled;
+    }
+
+    /**
+     * SQL解析完成
+     * 
+     * @param runtime 解析后的运行时(批量更新时为第一个)
+     * @param batchSize 批量更新的条数，非批量时为1
+     */
+    public void markInterpreted(StatementRuntime runtime, int batchSize) {
+        this.interpreted = System.nanoTime();
+        this.runtime = runtime;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * SQL执行完成(查询则为读到第一行时)；只有第一次调用有效
+     */
+    public void markExecuted() {
+        if (executed == 0) {
+            executed = System.nanoTime();
+        }
+    }
+
+    /**
+     * 整个调用完成
+     */
+    public void markCompleted() {
+        completed = System.nanoTime();
+        if (interpreted == 0) {
+            interpreted = completed;
+        }
+        if (executed == 0) {
+            executed = completed;
+        }
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * 
+     * @return SQL解析失败时为null
+     */
+    public StatementRuntime getRuntime() {
+        return runtime;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getTotalNanos() {
+        return completed - begin;
+    }
+
+    public long getInterpretNanos() {
+        return interpreted - begin;
+    }
+
+    public long getExecuteNanos() {
+        return executed - interpreted;
+    }
+
+    public long getMapNanos() {
+        return completed - executed;
+    }
+}
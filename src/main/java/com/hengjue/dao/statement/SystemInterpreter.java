@@ -18,8 +18,6 @@ package com.hengjue.dao.statement;
 import java.sql.SQLSyntaxErrorException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.springframework.jdbc.BadSqlGrammarException;
 
@@ -28,195 +26,79 @@ import com.hengjue.dao.statement.expression.impl.ExqlContextImpl;
 import com.hengjue.dao.statement.expression.impl.ExqlPatternImpl;
 
 /**
+ * 按SQL的执行计划生成最终的SQL和参数：
+ * <p>
+ * 
+ * 使用方法参数、常量替换{xxxx}、{:xxxx}、##(:xxx)、##(xxx)等位置，并将:xxx、#if、#for等表达式转为带问号的SQL和参数；
+ * DAO方法上的@SQL只编译一次(见 {@link StatementMetaData#getSQLPattern()})，之后每次调用只是按执行计划输出。
  * 
  * @author 廖涵 [in355hz@gmail.com]
  */
 public class SystemInterpreter implements Interpreter {
-    
-    private ReplacementInterpreter     replacementInterpreter     = new ReplacementInterpreter();
-    private PreparestatmentInterpreter preparestatmentInterpreter = new PreparestatmentInterpreter();
 
     @Override
     public void interpret(StatementRuntime runtime) {
-        replacementInterpreter.interpret(runtime);
-        preparestatmentInterpreter.interpret(runtime);
-    }
-
-    /**
-     * 使用方法参数、常量替换{xxxx}、{:xxxx}、##(:xxx)、##(xxx)等位置；
-     * <p>
-     * 
-     * select form ##(:table) {name} where {id}='{1}'
-     * @author zlw
-     *
-     */
-    static class ReplacementInterpreter implements Interpreter {
-
-        final Pattern PATTERN = Pattern.compile("\\{([a-zA-Z0-9_\\.\\:]+)\\}|##\\((.+)\\)");
-
-
-        final ThreadLocal<StringBuilder> stringBuilderPool = new ThreadLocal<StringBuilder>(){
-            @Override
-            public StringBuilder initialValue() {
-                return new StringBuilder();
-            };
-            
-        };
-
-        @Override
-        public void interpret(StatementRuntime runtime) {// ##(:xxx)
-            StringBuilder sqlResult = stringBuilderPool.get();
-            sqlResult.setLength(0);
-            String sql = runtime.getSQL();
-            Matcher matcher = PATTERN.matcher(sql);
-            int start = 0;
-            while (matcher.find(start)) {
-                sqlResult.append(sql.substring(start, matcher.start()));
-                String group = matcher.group(); 
-                String key = null;
-                if (group.startsWith("{")) {
-                    key = matcher.group(1);
-                } else if (group.startsWith("##(")) {
-                    key = matcher.group(2);
+        // 转换语句中的替换和表达式
+        StatementMetaData metaData = runtime.getMetaData();
+        String sql = runtime.getSQL();
+        try {
+            // 之前的Interpreter没有改写过@SQL时，使用预先编译好的执行计划
+            ExqlPattern pattern = (sql == metaData.getSQL()) ? metaData.getSQLPattern()
+                    : ExqlPatternImpl.compile(sql);
+            DAOMetaData daoMetaData = metaData.getDAOMetaData();
+            if (pattern instanceof ExqlPatternImpl) {
+                // 语句不变时只需求出参数，直接作为执行参数
+                ExqlPatternImpl patternImpl = (ExqlPatternImpl) pattern;
+                Object[] args = patternImpl.executeStatic(runtime.getParameters(),
+                    daoMetaData.getConstants(), daoMetaData.getAttributes());
+                if (args != null) {
+                    runtime.setArgs(args);
+                    runtime.setSQL(patternImpl.getStaticSQL());
+                    return;
                 }
-                // get value from parameters
-                Object value = runtime.getParameters().get(key); // 针对{paramName}、{:1}两种情况
-                if (value == null) {
-                    if (key.startsWith(":") || key.startsWith("$")) {
-                        value = runtime.getParameters().get(key.substring(1)); // 针对{:paramName}的情况
-                    } else {
-                        char ch = key.charAt(0);// 由正则表达式知道key长度必定大于0
-                        if (ch >= '0' && ch <= '9') {
-                            value = runtime.getParameters().get(":" + key); // 针对{1}两种情况
-                        }
-                    }
-                }
-                // get value from constants
-                if (value == null) {
-                    value = runtime.getMetaData().getDAOMetaData().getConstants().get(key); // 针对常量的情况
-                }
-                // get value from attributes
-                if (value == null) {
-                    String attributeKey = group;
-                    if (!attributeKey.startsWith("{")) {
-                        attributeKey = "{" + key + "}";
-                    }
-                    value = runtime.getMetaData().getDAOMetaData().getAttribute(attributeKey); // 针对插件设置进来的属性的情况
-                }
-                // replace it
-                if (value != null) {
-                    sqlResult.append(value);
-                } else {
-                    sqlResult.append(group);
-                }
-                start = matcher.end();
             }
-            sqlResult.append(sql.substring(start));
-
-            runtime.setSQL(sqlResult.toString());
-
+            // 每次调用使用新的输出上下文，不放入ThreadLocal
+            ExqlContextImpl context = new ExqlContextImpl();
+            context.setInListBuckets(metaData.isInListBuckets());
+            pattern.execute(context, runtime.getParameters(), daoMetaData.getConstants(),
+                daoMetaData.getAttributes());
+            runtime.setArgs(context.getArgs());
+            runtime.setSQL(context.flushOut());
+        } catch (Exception e) {
+            String daoInfo = metaData.toString();
+            throw new BadSqlGrammarException(daoInfo, sql,
+                new SQLSyntaxErrorException(daoInfo + " @SQL('" + sql + "')", e));
         }
     }
 
-    // 动态参数
-    static class PreparestatmentInterpreter implements Interpreter {
-
-
-        static final ThreadLocal<ExqlContextImpl> exqlContextPool = new ThreadLocal<ExqlContextImpl>(){
-            @Override
-            public ExqlContextImpl initialValue() {
-                return new ExqlContextImpl();
-            };
-            
-        };
-        
-        @Override
-        public void interpret(StatementRuntime runtime) {
-            // 转换语句中的表达式
-            ExqlContextImpl context = exqlContextPool.get();
-            context.clear();
-
-            try {
-                ExqlPattern pattern = ExqlPatternImpl.compile(runtime.getSQL());
-                Map<String, Object> constants = runtime.getMetaData().getDAOMetaData()
-                    .getConstants();
-                pattern.execute(context, runtime.getParameters(), constants);
-                runtime.setArgs(context.getArgs());
-                runtime.setSQL(context.flushOut());
-            } catch (Exception e) {
-                String daoInfo = runtime.getMetaData().toString();
-                throw new BadSqlGrammarException(daoInfo, runtime.getSQL(),
-                    new SQLSyntaxErrorException(daoInfo + " @SQL('" + runtime.getSQL() + "')", e));
-            }
+    /**
+     * 不含任何替换和表达式的SQL(比如DDL或常量查询)原样执行，不需要解析
+     */
+    @Override
+    public boolean isApplicable(StatementMetaData metaData) {
+        ExqlPattern pattern;
+        try {
+            pattern = metaData.getSQLPattern();
+        } catch (RuntimeException e) {
+            // 留到调用时报告错误
+            return true;
         }
-
+        return !(pattern instanceof ExqlPatternImpl) || !((ExqlPatternImpl) pattern).isPlainText();
     }
 
-    // ReplacementInterpreter
+    // 进行简单测试
     public static void main(String[] args) throws Exception {
-        Map<String, Object> parameters = new HashMap<String, Object>();
-        parameters.put("table", "my_table_name");
-        parameters.put("id", "my_id");
-        parameters.put(":1", "first_param");
-
-        final Pattern PATTERN = Pattern.compile("\\{([a-zA-Z0-9_\\.\\:]+)\\}|##\\((.+)\\)");
-
-        String sql = "select form ##(:table) {name} where {id}='{1}'";
-
-        StringBuilder sb = new StringBuilder(sql.length() + 200);
-        Matcher matcher = PATTERN.matcher(sql);
-        int start = 0;
-        while (matcher.find(start)) {
-            sb.append(sql.substring(start, matcher.start()));
-            String group = matcher.group();
-            String key = null;
-            if (group.startsWith("{")) {
-                key = matcher.group(1);
-            } else if (group.startsWith("##(")) {
-                key = matcher.group(2);
-            }
-            System.out.println(key);
-            if (key == null || key.length() == 0) {
-                continue;
-            }
-            Object value = parameters.get(key); // 针对{paramName}、{:1}两种情况
-            if (value == null) {
-                if (key.startsWith(":") || key.startsWith("$")) {
-                    value = parameters.get(key.substring(1)); // 针对{:paramName}的情况
-                } else {
-                    char ch = key.charAt(0);
-                    if (ch >= '0' && ch <= '9') {
-                        value = parameters.get(":" + key); // 针对{1}两种情况
-                    }
-                }
-            }
-            if (value == null) {
-                value = parameters.get(key); // 针对常量的情况
-            }
-            if (value != null) {
-                sb.append(value);
-            } else {
-                sb.append(group);
-            }
-            start = matcher.end();
-        }
-        sb.append(sql.substring(start));
-        System.out.println(sb);
-
-    }
-
-    // ExqlInterpreter
-    public static void main0(String[] args) throws Exception {
         // 转换语句中的表达式
         String sql = "insert ignore into table_name "
                      + "(`id`,`uid`,`favable_id`,`addtime`,`ranking`) "//
-                     + "values (:1,:2,now(),0)";
+                     + "values (:1,:2,now(),0) {table}";
         ExqlPattern pattern = ExqlPatternImpl.compile(sql);
         ExqlContextImpl context = new ExqlContextImpl();
 
         Map<String, Object> parametersAsMap = new HashMap<String, Object>();
         parametersAsMap.put(":1", "p1");
         parametersAsMap.put(":2", "p2");
+        parametersAsMap.put("table", "my_table_name");
 
         pattern.execute(context, parametersAsMap);
         String result = context.flushOut();
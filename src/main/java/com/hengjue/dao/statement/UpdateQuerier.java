@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang.ClassUtils;
 import org.springframework.dao.DataRetrievalFailureException;
@@ -29,6 +31,9 @@ import org.springframework.jdbc.support.KeyHolder;
 import com.hengjue.dao.annotation.SQLType;
 import com.hengjue.dao.dataAccess.DataAccess;
 import com.hengjue.dao.dataAccess.DataAccessFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
+import com.hengjue.dao.statement.metrics.StatementMetrics;
 
 /**
  * 
@@ -43,19 +48,52 @@ public class UpdateQuerier implements Querier {
 
     private DynamicReturnGeneratedKeys returnGeneratedKeys;
 
+    private final boolean async;
+
+    // 设置到语句上的queryTimeout等
+    private final StatementSettings settings;
+
+    // 可以为null
+    private final StatementMetrics metrics;
+
     public UpdateQuerier(DataAccessFactory dataAccessFactory, StatementMetaData metaData) {
         this.dataAccessFactory = dataAccessFactory;
         // 转换基本类型
         Class<?> returnType = metaData.getReturnType();
         if (returnType.isPrimitive()) {
             returnType = ClassUtils.primitiveToWrapper(returnType);
+        } else if (returnType == Void.class) {
+            // CompletableFuture<Void>
+            returnType = void.class;
         }
         this.returnType = returnType;
         this.returnGeneratedKeys = metaData.getReturnGeneratedKeys();
+        this.async = metaData.isAsync();
+        this.settings = metaData.getStatementSettings();
+        MetricsRegistry metricsRegistry = metaData.getDAOMetaData().getConfig()
+            .getMetricsRegistry();
+        this.metrics = (metricsRegistry == null) ? null : metricsRegistry.getMetrics(metaData);
     }
 
     @Override
-    public Object execute(SQLType sqlType, StatementRuntime... runtimes) {
+    public Object execute(final SQLType sqlType, final StatementRuntime... runtimes) {
+        if (async && runtimes.length > 0) {
+            // 异步：在(第一个)DataSource对应的线程池中执行更新
+            DataAccess dataAccess = dataAccessFactory.getDataAccess(//
+                runtimes[0].getMetaData(), runtimes[0].getAttributes());
+            return CompletableFuture.supplyAsync(new Supplier<Object>() {
+
+                @Override
+                public Object get() {
+                    return executeSync(runtimes);
+                }
+            }, dataAccess.getExecutor());
+        }
+        Object result = executeSync(runtimes);
+        return async ? CompletableFuture.completedFuture(result) : result;
+    }
+
+    private Object executeSync(StatementRuntime... runtimes) {
         switch (runtimes.length) {
             case 1:
                 return executeSingle(runtimes[0]);
@@ -73,14 +111,22 @@ public class UpdateQuerier implements Querier {
         if (returnGeneratedKeys.shouldReturnGerneratedKeys(runtime)) {
             ArrayList<Map<String, Object>> keys = new ArrayList<Map<String, Object>>(1);
             KeyHolder generatedKeyHolder = new GeneratedKeyHolder(keys);
-            dataAccess.update(runtime.getSQL(), runtime.getArgs(), generatedKeyHolder);
+            int updated = dataAccess.update(runtime.getSQL(), runtime.getArgs(),
+                generatedKeyHolder, settings);
+            if (metrics != null) {
+                metrics.addRowsAffected(updated);
+            }
             if (keys.size() > 0) {
                 result = generatedKeyHolder.getKey();
             } else {
                 result = null;
             }
         } else {
-            result = new Integer(dataAccess.update(runtime.getSQL(), runtime.getArgs(), null));
+            int updated = dataAccess.update(runtime.getSQL(), runtime.getArgs(), null, settings);
+            if (metrics != null) {
+                metrics.addRowsAffected(updated);
+            }
+            result = new Integer(updated);
         }
         //
         if (result == null || returnType == void.class) {
@@ -135,7 +181,15 @@ public class UpdateQuerier implements Querier {
             for (StatementRuntime batchRuntime : batchRuntimes) {
                 argsList.add(batchRuntime.getArgs());
             }
-            int[] batchResult = dataAccess.batchUpdate(sql, argsList);
+            int[] batchResult = dataAccess.batchUpdate(sql, argsList, settings);
+            if (metrics != null) {
+                for (int updated : batchResult) {
+                    // 忽略 Statement.SUCCESS_NO_INFO 等负值
+                    if (updated > 0) {
+                        metrics.addRowsAffected(updated);
+                    }
+                }
+            }
             if (batchs.size() == 1) {
                 updatedArray = batchResult;
             } else {
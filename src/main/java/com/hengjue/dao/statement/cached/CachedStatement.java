@@ -15,7 +15,11 @@
  */
 package com.hengjue.dao.statement.cached;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,6 +30,8 @@ import org.springframework.beans.BeanWrapperImpl;
 import com.hengjue.dao.annotation.Cache;
 import com.hengjue.dao.annotation.CacheDelete;
 import com.hengjue.dao.annotation.SQLType;
+import com.hengjue.dao.statement.BoundParameters;
+import com.hengjue.dao.statement.ParameterBinding;
 import com.hengjue.dao.statement.Statement;
 import com.hengjue.dao.statement.StatementMetaData;
 
@@ -84,6 +90,17 @@ public class CachedStatement implements Statement {
                         + sqlType + " SQL:" + metaData.getSQL());
             }
         }
+        this.cacheKeyTemplate = (this.cacheAnnotation == null) ? null
+            : compileKey(this.cacheAnnotation.key(), metaData);
+        if (cacheDeleteAnnotation == null) {
+            this.cacheDeleteKeyTemplates = null;
+        } else {
+            String[] keys = cacheDeleteAnnotation.key();
+            this.cacheDeleteKeyTemplates = new KeyTemplate[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                this.cacheDeleteKeyTemplates[i] = compileKey(keys[i], metaData);
+            }
+        }
     }
 
     @Override
@@ -93,88 +110,201 @@ public class CachedStatement implements Statement {
 
     @Override
     public Object execute(Map<String, Object> parameters) {
+        if (getMetaData().isAsync()) {
+            return executeAsync(parameters);
+        }
         Object value = null;
         if (cacheAnnotation == null) {
             value = realStatement.execute(parameters);
         } else {
             CacheInterface cache = cacheProvider.getCacheByPool(//
                     getMetaData(), cacheAnnotation.pool());
-            String cacheKey = buildKey(cacheAnnotation.key(), parameters);
+            String cacheKey = buildKey(cacheAnnotation.key(), cacheKeyTemplate, parameters);
             value = cache.get(cacheKey);
             if (value == null) {
                 value = realStatement.execute(parameters);
                 cache.set(cacheKey, value, cacheAnnotation.expiry());
             }
         }
+        deleteCache(parameters);
+        return value;
+    }
+
+    /**
+     * 异步DAO方法：缓存的是CompletableFuture完成后的结果，而非CompletableFuture本身；缓存删除也在执行完成后进行
+     */
+    @SuppressWarnings("unchecked")
+    private Object executeAsync(final Map<String, Object> parameters) {
+        if (cacheAnnotation != null) {
+            final CacheInterface cache = cacheProvider.getCacheByPool(//
+                    getMetaData(), cacheAnnotation.pool());
+            final String cacheKey = buildKey(cacheAnnotation.key(), cacheKeyTemplate, parameters);
+            Object value = cache.get(cacheKey);
+            if (value != null) {
+                deleteCache(parameters);
+                return CompletableFuture.completedFuture(value);
+            }
+            CompletableFuture<Object> future = (CompletableFuture<Object>) realStatement
+                .execute(parameters);
+            return future.thenApply(new Function<Object, Object>() {
+
+                @Override
+                public Object apply(Object value) {
+                    cache.set(cacheKey, value, cacheAnnotation.expiry());
+                    deleteCache(parameters);
+                    return value;
+                }
+            });
+        }
+        CompletableFuture<Object> future = (CompletableFuture<Object>) realStatement
+            .execute(parameters);
+        if (cacheDeleteAnnotation == null) {
+            return future;
+        }
+        return future.thenApply(new Function<Object, Object>() {
+
+            @Override
+            public Object apply(Object value) {
+                deleteCache(parameters);
+                return value;
+            }
+        });
+    }
+
+    private void deleteCache(Map<String, Object> parameters) {
         if (cacheDeleteAnnotation != null) {
             CacheInterface cache = cacheProvider.getCacheByPool(//
                     getMetaData(), cacheDeleteAnnotation.pool());
-            for (String key : cacheDeleteAnnotation.key()) {
-                String cacheKey = buildKey(key, parameters);
+            String[] keys = cacheDeleteAnnotation.key();
+            for (int i = 0; i < keys.length; i++) {
+                String cacheKey = buildKey(keys[i], cacheDeleteKeyTemplates[i], parameters);
                 cache.delete(cacheKey);
             }
         }
-        return value;
     }
 
     // 参数的模板
     private static final Pattern PATTERN = Pattern.compile("\\:([a-zA-Z0-9_\\.]*)");
 
+    /**
+     * 编译后的 {@link Cache#key()}，不含参数时为null
+     */
+    private final KeyTemplate cacheKeyTemplate;
+
+    /**
+     * 编译后的 {@link CacheDelete#key()}，数组元素为null表示该key不含参数
+     */
+    private final KeyTemplate[] cacheDeleteKeyTemplates;
+
     /**
      * 查找模板 KEY 中所有的 :name, :name.property 参数替换成实际值。
      * 
      * @param key - 作为模板的 KEY
+     * @param template - 编译后的模板，为null表示key不含参数
      * @param parameters - 传入的参数
      * 
      * @return 最终的缓存 KEY
      * @author 廖涵 in355hz@gmail.com
      */
-    private static String buildKey(String key, Map<String, Object> parameters) {
+    private static String buildKey(String key, KeyTemplate template, Map<String, Object> parameters) {
+        if (template == null) {
+            return key;
+        }
+        return template.build(parameters);
+    }
+
+    /**
+     * 在语句构造时编译缓存 KEY 模板：文本片段与参数片段交替，参数名称预先解析为参数位置
+     */
+    private static KeyTemplate compileKey(String key, StatementMetaData metaData) {
         // 匹配符合  :name 格式的参数
         Matcher matcher = PATTERN.matcher(key);
-        if (matcher.find()) {
+        if (!matcher.find()) {
+            return null;
+        }
+        ParameterBinding binding = metaData.getParameterBinding();
+        List<String> texts = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<String> properties = new ArrayList<String>();
+        int index = 0;
+        do {
+            // 提取参数名称
+            String name = matcher.group(1).trim();
+            String property = null;
 
-            StringBuilder builder = new StringBuilder();
+            // 解析  a.b.c 类型的名称 
+            int find = name.indexOf('.');
+            if (find >= 0) {
+                property = name.substring(find + 1);
+                name = name.substring(0, find);
+            }
+            texts.add(key.substring(index, matcher.start()));
+            names.add(name);
+            properties.add(property);
+            index = matcher.end();
+        } while (matcher.find());
 
-            int index = 0;
+        // 最后一段
+        texts.add(key.substring(index));
 
-            do {
-                // 提取参数名称
-                final String name = matcher.group(1).trim();
+        int[] slots = new int[names.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = binding.indexOf(names.get(i));
+        }
+        return new KeyTemplate(binding, texts.toArray(new String[texts.size()]),
+            names.toArray(new String[names.size()]), slots,
+            properties.toArray(new String[properties.size()]));
+    }
 
-                Object value = null;
+    private static final class KeyTemplate {
 
-                // 解析  a.b.c 类型的名称 
-                int find = name.indexOf('.');
-                if (find >= 0) {
+        private final ParameterBinding binding;
 
-                    // 用  BeanWrapper 获取属性值
-                    Object bean = parameters.get(name.substring(0, find));
-                    if (bean != null) {
-                        value = new BeanWrapperImpl(bean)
-                                .getPropertyValue(name.substring(find + 1));
-                    }
+        private final String[] texts;
 
-                } else {
+        private final String[] names;
 
-                    // 获取参数值
-                    value = parameters.get(name);
-                }
+        // 参数位置，-1表示不是方法参数
+        private final int[] slots;
 
-                // 拼装参数值
-                builder.append(key.substring(index, matcher.start()));
-                builder.append(value);
+        // 参数的属性路径，null表示直接使用参数值
+        private final String[] properties;
 
-                index = matcher.end();
-
-            } while (matcher.find());
+        KeyTemplate(ParameterBinding binding, String[] texts, String[] names, int[] slots,
+                    String[] properties) {
+            this.binding = binding;
+            this.texts = texts;
+            this.names = names;
+            this.slots = slots;
+            this.properties = properties;
+        }
 
+        String build(Map<String, Object> parameters) {
+            // 由JadeInvocationHandler传入的参数表可直接按位置取值，其他Map(如插件包装后的)仍按名称取值
+            BoundParameters bound = null;
+            if (parameters instanceof BoundParameters
+                && ((BoundParameters) parameters).getBinding() == binding) {
+                bound = (BoundParameters) parameters;
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                Object value;
+                if (bound != null) {
+                    value = slots[i] < 0 ? null : bound.getAt(slots[i]);
+                } else {
+                    value = parameters.get(names[i]);
+                }
+                if (properties[i] != null && value != null) {
+                    // 用  BeanWrapper 获取属性值
+                    value = new BeanWrapperImpl(value).getPropertyValue(properties[i]);
+                }
+                // 拼装参数值
+                builder.append(texts[i]);
+                builder.append(value);
+            }
             // 拼装最后一段
-            builder.append(key.substring(index));
-
+            builder.append(texts[names.length]);
             return builder.toString();
         }
-
-        return key;
     }
 }
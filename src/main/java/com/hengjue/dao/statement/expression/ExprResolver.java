@@ -25,6 +25,24 @@ public interface ExprResolver {
      */
     void setVar(String variant, Object value);
 
+    /**
+     * 返回常量的内容。
+     * 
+     * @param name - 常量的名称
+     * 
+     * @return 常量的内容
+     */
+    Object getConstant(String name);
+
+    /**
+     * 返回属性的内容, 例如插件设置在DAO上的属性。
+     * 
+     * @param name - 属性的名称
+     * 
+     * @return 属性的内容
+     */
+    Object getAttribute(String name);
+
     /**
      * 返回在语句输出的内容。
      * 
@@ -32,4 +32,18 @@ public interface ExqlPattern {
      */
     void execute(ExqlContext context, Map<String, ?> mapVars, // NL
             Map<String, ?> mapConsts) throws Exception;
+
+    /**
+     * 输出全部的语句内容。
+     * 
+     * @param context - 输出上下文
+     * 
+     * @param mapVars - 参数表
+     * @param mapConsts - 常量表
+     * @param mapAttributes - 属性表, 用于 {xxx} 形式的替换
+     * 
+     * @throws Exception
+     */
+    void execute(ExqlContext context, Map<String, ?> mapVars, // NL
+            Map<String, ?> mapConsts, Map<String, ?> mapAttributes) throws Exception;
 }
@@ -0,0 +1,159 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有容量上限的并发缓存。
+ * <p>
+ *
+ * 读取不加锁，只在访问标记未设置时设置之(经常访问的条目不再反复写入)；
+ * 超过容量时按“二次机会”(clock)的方式淘汰：时钟指针在各次淘汰之间保持位置，
+ * 扫描时清除遇到的访问标记，淘汰第一个自上次经过以来未被访问过的条目。
+ * 新放入的条目带有访问标记，至少经过一轮扫描才会被淘汰。
+ * <p>
+ *
+ * 统计命中、未命中和淘汰的次数，用于观察缓存的容量是否合适。
+ *
+ */
+public class BoundedCache<K, V> {
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<K, Node<V>> map;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    // 时钟指针: 到达末尾时从头开始, 由 evict 的锁保护
+    private Iterator<Map.Entry<K, Node<V>>> hand;
+
+    /**
+     *
+     * @param maxSize - 最多缓存的条目数
+     */
+    public BoundedCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<K, Node<V>>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     *
+     * @param key
+     * @return 缓存的值, 没有时返回 <code>null</code>
+     */
+    public V get(Object key) {
+        Node<V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * 放入缓存, 已经存在时保留原来的值。
+     *
+     * @return 缓存中的值(原来的或者新放入的)
+     */
+    public V put(K key, V value) {
+        Node<V> node = new Node<V>(value);
+        Node<V> old = map.putIfAbsent(key, node);
+        if (old != null) {
+            if (!old.referenced) {
+                old.referenced = true;
+            }
+            return old.value;
+        }
+        if (size.incrementAndGet() > maxSize) {
+            evict(node);
+        }
+        return value;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maxSize + ", hits=" + getHitCount() + ", misses="
+               + getMissCount() + ", evictions=" + getEvictionCount();
+    }
+
+    public void clear() {
+        Iterator<K> it = map.keySet().iterator();
+        while (it.hasNext()) {
+            if (map.remove(it.next()) != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    // 从时钟指针处淘汰一个条目, 但不淘汰刚放入的
+    private synchronized void evict(Node<V> added) {
+        // 最多转两圈: 第一圈清除访问标记, 第二圈必然能找到可淘汰的(除非并发访问又设置了标记)
+        int limit = 2 * (size.get() + 1);
+        for (int step = 0; step < limit; step++) {
+            if (hand == null || !hand.hasNext()) {
+                hand = map.entrySet().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<K, Node<V>> entry = hand.next();
+            Node<V> node = entry.getValue();
+            if (node == added) {
+                continue;
+            } else if (node.referenced) {
+                node.referenced = false;
+            } else if (map.remove(entry.getKey(), node)) {
+                size.decrementAndGet();
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    private static final class Node<V> {
+
+        final V value;
+
+        volatile boolean referenced = true;
+
+        Node(V value) {
+            this.value = value;
+        }
+    }
+}
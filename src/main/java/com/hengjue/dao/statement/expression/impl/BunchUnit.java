@@ -47,4 +47,9 @@ public class BunchUnit implements ExqlUnit {
             unit.fill(exqlContext, exprResolver);
         }
     }
+
+    // 子单元列表
+    List<ExqlUnit> getUnits() {
+        return units;
+    }
 }
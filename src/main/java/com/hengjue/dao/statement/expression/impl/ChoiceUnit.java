@@ -79,4 +79,19 @@ public class ChoiceUnit implements ExqlUnit {
             unitIfFalse.fill(exqlContext, exprResolver);
         }
     }
+
+    // 条件表达式
+    String getExpr() {
+        return expr;
+    }
+
+    // 条件为 true 的输出
+    ExqlUnit getUnitIfTrue() {
+        return unitIfTrue;
+    }
+
+    // 条件为 false 的输出, 可以为null
+    ExqlUnit getUnitIfFalse() {
+        return unitIfFalse;
+    }
 }
@@ -0,0 +1,245 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.hengjue.dao.statement.expression.ExqlUnit;
+import com.hengjue.dao.statement.expression.ExqlUtils;
+
+/**
+ * 在语句编译后, 用DAO的常量化简单元树:
+ * <p>
+ *
+ * <ul>
+ * <li>{CONST}、##(CONST) 替换为常量值的文本, 但替换名同时是方法参数名或 #for 循环变量名时不替换(运行时参数优先);
+ * 常量值中有 :expr 等语法时替换为编译后的单元</li>
+ * <li>$CONST、#!($CONST) 替换为常量值的文本($ 只引用常量, 不受参数影响)</li>
+ * <li>条件只依赖常量(不含  :name 引用)的 #if 只保留成立的分支</li>
+ * <li>只剩文本的 {...}? 可选子句直接输出; 相邻的文本合并为一个单元</li>
+ * </ul>
+ * 只使用不可变类型(字符串、数字、布尔、字符、枚举)的常量, 求值出错的条件保持原样, 留到运行时报告。
+ *
+ */
+class ConstantFolder {
+
+    private static final Pattern CONST_PATTERN = Pattern.compile("\\$([a-zA-Z0-9_]+)");
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+        String.class, Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class,
+        Boolean.class, Character.class, BigDecimal.class, BigInteger.class));
+
+    private final Map<String, ?> constants;
+
+    // 运行时可能有值的参数名和循环变量名
+    private final Set<String> names;
+
+    // 单元树是否被化简过
+    private boolean folded;
+
+    ConstantFolder(Map<String, ?> constants, Collection<String> parameterNames) {
+        this.constants = constants;
+        this.names = new HashSet<String>(parameterNames);
+    }
+
+    /**
+     * 化简单元树。
+     *
+     * @param unit - 编译出的单元树
+     * @return 化简后的单元树, 没有可化简的内容时返回 <code>null</code>
+     */
+    ExqlUnit fold(ExqlUnit unit) {
+        collectVariants(unit);
+        ExqlUnit result = foldUnit(unit);
+        return folded ? result : null;
+    }
+
+    private void collectVariants(ExqlUnit unit) {
+        if (unit instanceof ForEachUnit) {
+            ForEachUnit forEach = (ForEachUnit) unit;
+            names.add(forEach.getVariant() != null ? forEach.getVariant() : "_loop");
+            collectVariants(forEach.getUnit());
+        } else if (unit instanceof BunchUnit) {
+            for (ExqlUnit child : ((BunchUnit) unit).getUnits()) {
+                collectVariants(child);
+            }
+        } else if (unit instanceof ChoiceUnit) {
+            ChoiceUnit choice = (ChoiceUnit) unit;
+            collectVariants(choice.getUnitIfTrue());
+            if (choice.getUnitIfFalse() != null) {
+                collectVariants(choice.getUnitIfFalse());
+            }
+        } else if (unit instanceof OptionUnit) {
+            collectVariants(((OptionUnit) unit).getUnit());
+        }
+    }
+
+    private ExqlUnit foldUnit(ExqlUnit unit) {
+        if (unit instanceof ReplacementUnit) {
+            return foldReplacement((ReplacementUnit) unit);
+        } else if (unit instanceof JoinExprUnit) {
+            return foldJoinExpr((JoinExprUnit) unit);
+        } else if (unit instanceof BunchUnit) {
+            return foldBunch((BunchUnit) unit);
+        } else if (unit instanceof ChoiceUnit) {
+            return foldChoice((ChoiceUnit) unit);
+        } else if (unit instanceof OptionUnit) {
+            ExqlUnit child = ((OptionUnit) unit).getUnit();
+            ExqlUnit foldedChild = foldUnit(child);
+            if (isText(foldedChild)) {
+                // 只有文本的子单元始终有效
+                folded = true;
+                return foldedChild;
+            }
+            return foldedChild == child ? unit : new OptionUnit(foldedChild);
+        } else if (unit instanceof ForEachUnit) {
+            ForEachUnit forEach = (ForEachUnit) unit;
+            ExqlUnit child = foldUnit(forEach.getUnit());
+            return child == forEach.getUnit() ? unit : new ForEachUnit(forEach.getExpr(),
+                forEach.getVariant(), child);
+        }
+        return unit;
+    }
+
+    private ExqlUnit foldReplacement(ReplacementUnit unit) {
+        for (String name : unit.getNames()) {
+            if (names.contains(name)) {
+                return unit;
+            }
+        }
+        Object value = constants.get(unit.getConstant());
+        if (!isImmutable(value)) {
+            // 常量不存在时运行时还要查找DAO属性, 而DAO属性是可以改变的
+            return unit;
+        }
+        folded = true;
+        String text = String.valueOf(value);
+        if (ReplacementUnit.hasSyntax(text)) {
+            return foldUnit(ReplacementUnit.compileValue(text));
+        }
+        return new TextUnit(text);
+    }
+
+    private ExqlUnit foldJoinExpr(JoinExprUnit unit) {
+        Matcher matcher = CONST_PATTERN.matcher(unit.getExpr().trim());
+        if (!matcher.matches()) {
+            return unit;
+        }
+        Object value = constants.get(matcher.group(1));
+        if (!isImmutable(value)) {
+            return unit;
+        }
+        folded = true;
+        return new TextUnit(String.valueOf(value));
+    }
+
+    private ExqlUnit foldBunch(BunchUnit unit) {
+        List<ExqlUnit> units = new ArrayList<ExqlUnit>(unit.getUnits().size());
+        boolean changed = false;
+        for (ExqlUnit child : unit.getUnits()) {
+            ExqlUnit foldedChild = foldUnit(child);
+            changed |= foldedChild != child;
+            if (foldedChild instanceof BunchUnit && foldedChild != child) {
+                units.addAll(((BunchUnit) foldedChild).getUnits());
+            } else {
+                units.add(foldedChild);
+            }
+        }
+        if (!changed) {
+            return unit;
+        }
+
+        // 合并相邻的文本, 去掉空单元
+        List<ExqlUnit> merged = new ArrayList<ExqlUnit>(units.size());
+        StringBuilder text = null;
+        for (ExqlUnit child : units) {
+            if (child instanceof TextUnit) {
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(((TextUnit) child).getText());
+            } else if (!(child instanceof EmptyUnit)) {
+                if (text != null) {
+                    merged.add(new TextUnit(text.toString()));
+                    text = null;
+                }
+                merged.add(child);
+            }
+        }
+        if (text != null) {
+            merged.add(new TextUnit(text.toString()));
+        }
+        if (merged.isEmpty()) {
+            return new EmptyUnit();
+        }
+        return merged.size() == 1 ? merged.get(0) : new BunchUnit(merged);
+    }
+
+    private ExqlUnit foldChoice(ChoiceUnit unit) {
+        Boolean condition = evaluate(unit.getExpr());
+        if (condition == null) {
+            ExqlUnit unitIfTrue = foldUnit(unit.getUnitIfTrue());
+            ExqlUnit unitIfFalse = unit.getUnitIfFalse() == null ? null : foldUnit(unit
+                .getUnitIfFalse());
+            if (unitIfTrue == unit.getUnitIfTrue() && unitIfFalse == unit.getUnitIfFalse()) {
+                return unit;
+            }
+            return unitIfFalse == null ? new ChoiceUnit(unit.getExpr(), unitIfTrue)
+                    : new ChoiceUnit(unit.getExpr(), unitIfTrue, unitIfFalse);
+        }
+        folded = true;
+        if (condition.booleanValue()) {
+            return foldUnit(unit.getUnitIfTrue());
+        } else if (unit.getUnitIfFalse() != null) {
+            return foldUnit(unit.getUnitIfFalse());
+        }
+        return new EmptyUnit();
+    }
+
+    // 只依赖常量的条件返回其结果, 否则返回null
+    private Boolean evaluate(String expr) {
+        if (expr.indexOf(':') >= 0) {
+            return null;
+        }
+        Matcher matcher = CONST_PATTERN.matcher(expr);
+        while (matcher.find()) {
+            if (!isImmutable(constants.get(matcher.group(1)))) {
+                return null;
+            }
+        }
+        try {
+            Object value = new ExprResolverImpl(Collections.<String, Object> emptyMap(),
+                constants).executeExpr(expr);
+            return Boolean.valueOf(ExqlUtils.asBoolean(value));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static boolean isText(ExqlUnit unit) {
+        if (unit instanceof TextUnit || unit instanceof EmptyUnit) {
+            return true;
+        } else if (unit instanceof BunchUnit) {
+            for (ExqlUnit child : ((BunchUnit) unit).getUnits()) {
+                if (!isText(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value != null && (IMMUTABLE_TYPES.contains(value.getClass()) || value instanceof Enum);
+    }
+}
@@ -1,9 +1,9 @@
 package com.hengjue.dao.statement.expression.impl;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,13 +17,27 @@ import com.hengjue.dao.statement.expression.ExprResolver;
 
 /**
  * 默认使用: Apache Common Jexl 引擎实现表达式处理。
+ * <p>
+ * 
+ * 构造时给出的参数表和常量表不复制, 只在第一次写入(例如 #for 的循环变量)时复制, 原表不会被修改。
+ * <p>
+ * 
+ * 一个处理器只用于一次解析, 同一个表达式的结果被记住, 条件判断、
+ * 可选子句的检查和输出不再重复求值; 写入变量后已记住的结果全部作废。
  * 
  * @author han.liao
  */
 public class ExprResolverImpl implements ExprResolver {
 
     // 表达式的缓存
-    protected static final ConcurrentHashMap<String, Expression> cache = new ConcurrentHashMap<String, Expression>();
+    protected static final BoundedCache<String, Expression> cache = new BoundedCache<String, Expression>(
+        Integer.getInteger("jade.exql.expressionCacheSize", 4096));
+
+    // 编译后的属性路径表达式的缓存, 不支持的表达式缓存为 NOT_COMPILED
+    protected static final BoundedCache<String, Object> compiledCache = new BoundedCache<String, Object>(
+        Integer.getInteger("jade.exql.expressionCacheSize", 4096));
+
+    private static final Object NOT_COMPILED = new Object();
 
     // 正则表达式
     //private static final Pattern PREFIX_PATTERN = Pattern.compile( // NL
@@ -41,22 +55,37 @@ public class ExprResolverImpl implements ExprResolver {
     private static final String VAR_PREFIX = "_mapVars";
 
     // 参数表
-    protected final Map<String, Object> mapVars = new HashMap<String, Object>();
+    protected Map<String, Object> mapVars;
 
     // 常量表
-    protected final Map<String, Object> mapConsts = new HashMap<String, Object>();
+    protected Map<String, Object> mapConsts;
+
+    // 参数表、常量表是否已经复制(可以写入)
+    private boolean varsCopied;
+
+    private boolean constsCopied;
+
+    // 最多记住的表达式结果个数
+    private static final int MAX_MEMO = 32;
+
+    // 记住的表达式及其结果, 交替存放, 前 memoCount 对有效
+    private Object[] memo;
+
+    private int memoCount;
 
-    // Common Jexl 上下文
-    protected final JexlContext context = JexlHelper.createContext();
+    // 属性表(不复制)
+    protected Map<String, ?> mapAttributes;
+
+    // Common Jexl 上下文, 只在需要 Jexl 求值时创建
+    protected JexlContext context;
 
     /**
      * 构造表达式处理器。
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public ExprResolverImpl() {
-        Map map = context.getVars();
-        map.put(VAR_PREFIX, mapVars);
-        map.put(CONST_PREFIX, mapConsts);
+        this(new HashMap<String, Object>(), new HashMap<String, Object>());
+        this.varsCopied = true;
+        this.constsCopied = true;
     }
 
     /**
@@ -65,8 +94,8 @@ public class ExprResolverImpl implements ExprResolver {
      * @param mapVars - 初始的参数表
      */
     public ExprResolverImpl(Map<String, ?> mapVars) {
-        this();
-        this.mapVars.putAll(mapVars);
+        this(mapVars, new HashMap<String, Object>());
+        this.constsCopied = true;
     }
 
     /**
@@ -75,10 +104,31 @@ public class ExprResolverImpl implements ExprResolver {
      * @param mapVars - 初始的参数表
      * @param mapConsts - 初始的常量表
      */
+    @SuppressWarnings("unchecked")
     public ExprResolverImpl(Map<String, ?> mapVars, Map<String, ?> mapConsts) {
-        this();
-        this.mapVars.putAll(mapVars);
-        this.mapConsts.putAll(mapConsts);
+        this.mapVars = (Map<String, Object>) mapVars;
+        this.mapConsts = (Map<String, Object>) mapConsts;
+    }
+
+    /**
+     * 构造表达式处理器。
+     * 
+     * @param mapVars - 初始的参数表
+     * @param mapConsts - 初始的常量表
+     * @param mapAttributes - 属性表
+     */
+    public ExprResolverImpl(Map<String, ?> mapVars, Map<String, ?> mapConsts,
+            Map<String, ?> mapAttributes) {
+        this(mapVars, mapConsts);
+        this.mapAttributes = mapAttributes;
+    }
+
+    /**
+     * 
+     * @return 表达式的缓存, 可以查看其命中、淘汰次数
+     */
+    public static BoundedCache<String, Expression> getCache() {
+        return cache;
     }
 
     /**
@@ -96,7 +146,8 @@ public class ExprResolverImpl implements ExprResolver {
      * @param map - 处理器的参数表
      */
     public void setVars(Map<String, ?> map) {
-        mapVars.putAll(map);
+        writableVars().putAll(map);
+        memoCount = 0;
     }
 
     /**
@@ -114,12 +165,94 @@ public class ExprResolverImpl implements ExprResolver {
      * @param map - 处理器的常量表
      */
     public void setConstants(Map<String, ?> map) {
+        if (!constsCopied) {
+            mapConsts = new HashMap<String, Object>(mapConsts);
+            constsCopied = true;
+            if (context != null) {
+                updateContext();
+            }
+        }
         mapConsts.putAll(map);
     }
 
+    // 第一次写入参数表时复制
+    private Map<String, Object> writableVars() {
+        if (!varsCopied) {
+            mapVars = new HashMap<String, Object>(mapVars);
+            varsCopied = true;
+            if (context != null) {
+                updateContext();
+            }
+        }
+        return mapVars;
+    }
+
+    /**
+     * 
+     * @return 编译后的属性路径表达式的缓存
+     */
+    public static BoundedCache<String, Object> getCompiledCache() {
+        return compiledCache;
+    }
+
+    /**
+     * 返回 Jexl 求值使用的上下文, 第一次使用时创建。
+     * 
+     * @return Common Jexl 上下文
+     */
+    protected JexlContext getContext() {
+        if (context == null) {
+            context = JexlHelper.createContext();
+            updateContext();
+        }
+        return context;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void updateContext() {
+        Map map = context.getVars();
+        map.put(VAR_PREFIX, mapVars);
+        map.put(CONST_PREFIX, mapConsts);
+    }
+
     @Override
     public Object executeExpr(final String expression) throws Exception {
 
+        // 本次解析中已经求过值的表达式
+        for (int i = 0; i < memoCount; i++) {
+            if (expression.equals(memo[i << 1])) {
+                return memo[(i << 1) + 1];
+            }
+        }
+        Object value = evaluate(expression);
+        if (memoCount < MAX_MEMO) {
+            if (memo == null) {
+                memo = new Object[8];
+            } else if (memoCount << 1 == memo.length) {
+                memo = Arrays.copyOf(memo, memo.length * 2);
+            }
+            memo[memoCount << 1] = expression;
+            memo[(memoCount++ << 1) + 1] = value;
+        }
+        return value;
+    }
+
+    // 对表达式求值
+    private Object evaluate(final String expression) throws Exception {
+
+        // 简单的属性路径表达式直接求值, 不经过 Jexl
+        Object compiled = compiledCache.get(expression);
+        if (compiled == null) {
+            compiled = PropertyExpression.compile(expression);
+            compiled = compiledCache.put(expression, compiled != null ? compiled : NOT_COMPILED);
+        }
+        if (compiled != NOT_COMPILED) {
+            Object value = ((PropertyExpression) compiled).evaluate(mapVars, mapConsts);
+            if (value != PropertyExpression.FALLBACK) {
+                return value;
+            }
+        }
+
         // 从缓存中获取解析的表达式
         Expression expr = cache.get(expression);
 
@@ -201,11 +334,11 @@ public class ExprResolverImpl implements ExprResolver {
 
             // 编译表达式
             expr = ExpressionFactory.createExpression(builder.toString());
-            cache.putIfAbsent(expression2, expr);
+            expr = cache.put(expression, expr);
         }
 
         // 进行表达式求值
-        return expr.evaluate(context);
+        return expr.evaluate(getContext());
     }
 
     @Override
@@ -215,7 +348,18 @@ public class ExprResolverImpl implements ExprResolver {
 
     @Override
     public void setVar(String variant, Object value) {
-        mapVars.put(variant, value);
+        writableVars().put(variant, value);
+        memoCount = 0;
+    }
+
+    @Override
+    public Object getConstant(String name) {
+        return mapConsts.get(name);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return mapAttributes == null ? null : mapAttributes.get(name);
     }
 
     // 进行简单测试
@@ -42,4 +42,9 @@ public class ExprUnit implements ExqlUnit {
         // 输出转义的对象内容
         exqlContext.fillValue(value);
     }
+
+    // 输出的表达式
+    String getExpr() {
+        return expr;
+    }
 }
@@ -0,0 +1,457 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import com.hengjue.dao.statement.expression.ExprResolver;
+import com.hengjue.dao.statement.expression.ExqlContext;
+import com.hengjue.dao.statement.expression.ExqlUnit;
+import com.hengjue.dao.statement.expression.ExqlUtils;
+
+/**
+ * 把整个语句的单元树编译成一个生成的 {@link ExqlUnit} 类, 代替逐个单元的虚调用。
+ * <p>
+ *
+ * 文本单元编译为常量字符串的  fillText, 表达式、#if、#for、{...}? 编译为直接的求值和跳转,
+ * 输出与原单元树完全相同; 其他单元(例如替换单元)仍调用原单元。生成的类按单元树的结构缓存,
+ * 结构相同(文本、表达式、各单元的类型和位置都相同)的单元树共用一个类; 同一语句用不同常量化简后
+ * 结构不同, 不会共用。
+ * <p>
+ *
+ * 由系统属性 jade.exql.bytecode=true 开启, 参见 {@link ExqlPatternImpl}。
+ *
+ */
+public class ExqlClassGenerator {
+
+    private static final Log logger = LogFactory.getLog(ExqlClassGenerator.class);
+
+    private static final String CLASS_NAME_PREFIX = ExqlClassGenerator.class.getPackage()
+        .getName() + ".GeneratedExqlUnit$";
+
+    private static final String UNIT = Type.getInternalName(ExqlUnit.class);
+
+    private static final String UNITS_DESC = "[" + Type.getDescriptor(ExqlUnit.class);
+
+    private static final String CONTEXT = Type.getInternalName(ExqlContext.class);
+
+    private static final String RESOLVER = Type.getInternalName(ExprResolver.class);
+
+    private static final String UTILS = Type.getInternalName(ExqlUtils.class);
+
+    private static final String FILL_DESC = "(" + Type.getDescriptor(ExqlContext.class)
+                                            + Type.getDescriptor(ExprResolver.class) + ")V";
+
+    private static final String IS_VALID_DESC = "(" + Type.getDescriptor(ExprResolver.class)
+                                                + ")Z";
+
+    private static final String EXEC_EXPR_DESC = "(" + Type.getDescriptor(ExprResolver.class)
+                                                 + "Ljava/lang/String;)Ljava/lang/Object;";
+
+    // 方法参数: this、exqlContext、exprResolver, 之后是 #for 使用的局部变量
+    private static final int CONTEXT_SLOT = 1;
+
+    private static final int RESOLVER_SLOT = 2;
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // 按单元树的结构缓存的生成类的构造函数
+    private static final BoundedCache<String, Constructor<?>> classes = new BoundedCache<String, Constructor<?>>(
+        Integer.getInteger("jade.exql.bytecodeCacheSize", 1024));
+
+    /**
+     * 编译语句的单元树。
+     *
+     * @param pattern - 语句, 用于输出日志
+     * @param unit - 语句编译出的单元树
+     * @return 生成的单元, 失败时(例如语句过长)返回 <code>null</code>
+     */
+    public static ExqlUnit generate(String pattern, ExqlUnit unit) {
+        try {
+            StringBuilder key = new StringBuilder(pattern.length() + 32);
+            fingerprint(unit, key, new IdentityHashMap<ExqlUnit, Integer>());
+            Constructor<?> constructor = classes.get(key.toString());
+            Generator generator;
+            if (constructor == null) {
+                generator = new Generator(unit, true);
+                constructor = classes.put(key.toString(), generator.define());
+            } else {
+                // 只收集需要调用的原单元, 顺序与生成时相同
+                generator = new Generator(unit, false);
+            }
+            return (ExqlUnit) constructor.newInstance((Object) generator.getDelegates());
+        } catch (Throwable e) {
+            logger.warn("failed to generate class for EXQL pattern, fall back to units: "
+                        + pattern, e);
+            return null;
+        }
+    }
+
+    // 单元树的结构: 生成的类只取决于这些内容, 相同时调用原单元的位置也相同
+    private static void fingerprint(ExqlUnit unit, StringBuilder key,
+                                    Map<ExqlUnit, Integer> delegates) {
+        Class<?> type = unit.getClass();
+        if (type == TextUnit.class) {
+            appendString(key.append('T'), ((TextUnit) unit).getText());
+        } else if (type == EmptyUnit.class) {
+            key.append('0');
+        } else if (type == ExprUnit.class) {
+            appendString(key.append('E'), ((ExprUnit) unit).getExpr());
+        } else if (type == JoinExprUnit.class) {
+            appendString(key.append('J'), ((JoinExprUnit) unit).getExpr());
+        } else if (type == BunchUnit.class) {
+            List<ExqlUnit> units = ((BunchUnit) unit).getUnits();
+            key.append('B').append(units.size()).append('(');
+            for (ExqlUnit child : units) {
+                fingerprint(child, key, delegates);
+            }
+            key.append(')');
+        } else if (type == ChoiceUnit.class) {
+            ChoiceUnit choice = (ChoiceUnit) unit;
+            appendString(key.append('C'), choice.getExpr());
+            fingerprint(choice.getUnitIfTrue(), key, delegates);
+            if (choice.getUnitIfFalse() != null) {
+                fingerprint(choice.getUnitIfFalse(), key, delegates);
+            } else {
+                key.append('-');
+            }
+        } else if (type == OptionUnit.class) {
+            fingerprint(((OptionUnit) unit).getUnit(), key.append('O'), delegates);
+        } else if (type == ForEachUnit.class) {
+            ForEachUnit forEach = (ForEachUnit) unit;
+            appendString(key.append('F'), forEach.getExpr());
+            appendString(key, forEach.getVariant() == null ? "" : forEach.getVariant());
+            fingerprint(forEach.getUnit(), key, delegates);
+        } else {
+            // 调用原单元: 类型影响生成的 isValid, 同一个单元出现多次时使用同一位置
+            Integer index = delegates.get(unit);
+            if (index == null) {
+                index = delegates.size();
+                delegates.put(unit, index);
+            }
+            appendString(key.append('D'), type.getName());
+            key.append(index).append(';');
+        }
+    }
+
+    private static void appendString(StringBuilder key, String value) {
+        key.append(value.length()).append(':').append(value);
+    }
+
+    /**
+     *
+     * @return 生成类的缓存, 可以查看其命中、淘汰次数
+     */
+    public static BoundedCache<String, Constructor<?>> getCache() {
+        return classes;
+    }
+
+    private static class Generator {
+
+        private final ExqlUnit root;
+
+        private final ClassWriter cw;
+
+        private final String internalName;
+
+        // 仍需调用的原单元及其在 units 数组中的位置
+        private final Map<ExqlUnit, Integer> delegateIndexes = new IdentityHashMap<ExqlUnit, Integer>();
+
+        private final List<ExqlUnit> delegates = new ArrayList<ExqlUnit>();
+
+        private MethodVisitor mv;
+
+        private int nextLocal;
+
+        Generator(ExqlUnit root, boolean emit) {
+            this.root = root;
+            if (emit) {
+                this.cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+                this.internalName = (CLASS_NAME_PREFIX + counter.incrementAndGet()).replace('.',
+                    '/');
+                generate();
+            } else {
+                this.cw = null;
+                this.internalName = null;
+                this.mv = new MethodVisitor(Opcodes.ASM5) {
+                };
+                nextLocal = RESOLVER_SLOT + 1;
+                emitFill(root);
+                Label invalid = new Label();
+                emitValid(root, invalid);
+            }
+        }
+
+        ExqlUnit[] getDelegates() {
+            return delegates.toArray(new ExqlUnit[delegates.size()]);
+        }
+
+        Constructor<?> define() throws NoSuchMethodException {
+            String className = internalName.replace('/', '.');
+            ClassLoader parent = ExqlClassGenerator.class.getClassLoader();
+            Class<?> clazz = new GeneratedClassLoader(parent).define(className, cw.toByteArray());
+            return clazz.getConstructor(ExqlUnit[].class);
+        }
+
+        private void generate() {
+            cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                internalName, null, "java/lang/Object", new String[] { UNIT });
+            cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "units", UNITS_DESC, null,
+                null).visitEnd();
+
+            // public GeneratedExqlUnit$N(ExqlUnit[] units)
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + UNITS_DESC + ")V", null,
+                null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, "units", UNITS_DESC);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            // public void fill(ExqlContext exqlContext, ExprResolver exprResolver)
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "fill", FILL_DESC, null,
+                new String[] { "java/lang/Exception" });
+            mv.visitCode();
+            nextLocal = RESOLVER_SLOT + 1;
+            emitFill(root);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            // public boolean isValid(ExprResolver exprResolver), 参数先复制到与 fill 相同的位置
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "isValid", IS_VALID_DESC,
+                null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ASTORE, RESOLVER_SLOT);
+            Label invalid = new Label();
+            emitValid(root, invalid);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitLabel(invalid);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            cw.visitEnd();
+        }
+
+        // 与各单元的 fill 方法相同
+        private void emitFill(ExqlUnit unit) {
+            Class<?> type = unit.getClass();
+            if (type == TextUnit.class) {
+                // exqlContext.fillText(text);
+                mv.visitVarInsn(Opcodes.ALOAD, CONTEXT_SLOT);
+                mv.visitLdcInsn(((TextUnit) unit).getText());
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, CONTEXT, "fillText",
+                    "(Ljava/lang/String;)V", true);
+            } else if (type == EmptyUnit.class) {
+                // 没有输出
+            } else if (type == ExprUnit.class) {
+                // exqlContext.fillValue(exprResolver.executeExpr(expr));
+                mv.visitVarInsn(Opcodes.ALOAD, CONTEXT_SLOT);
+                executeExpr(((ExprUnit) unit).getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, CONTEXT, "fillValue",
+                    "(Ljava/lang/Object;)V", true);
+            } else if (type == JoinExprUnit.class) {
+                // exqlContext.fillText(String.valueOf(exprResolver.executeExpr(expr)));
+                mv.visitVarInsn(Opcodes.ALOAD, CONTEXT_SLOT);
+                executeExpr(((JoinExprUnit) unit).getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf",
+                    "(Ljava/lang/Object;)Ljava/lang/String;", false);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, CONTEXT, "fillText",
+                    "(Ljava/lang/String;)V", true);
+            } else if (type == BunchUnit.class) {
+                for (ExqlUnit child : ((BunchUnit) unit).getUnits()) {
+                    emitFill(child);
+                }
+            } else if (type == ChoiceUnit.class) {
+                // if (ExqlUtils.asBoolean(exprResolver.executeExpr(expr))) {...} else {...}
+                ChoiceUnit choice = (ChoiceUnit) unit;
+                Label otherwise = new Label();
+                Label end = new Label();
+                executeExpr(choice.getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "asBoolean",
+                    "(Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, otherwise);
+                emitFill(choice.getUnitIfTrue());
+                mv.visitJumpInsn(Opcodes.GOTO, end);
+                mv.visitLabel(otherwise);
+                if (choice.getUnitIfFalse() != null) {
+                    emitFill(choice.getUnitIfFalse());
+                }
+                mv.visitLabel(end);
+            } else if (type == OptionUnit.class) {
+                // if (unit.isValid(exprResolver)) { unit.fill(...) }
+                ExqlUnit child = ((OptionUnit) unit).getUnit();
+                Label skip = new Label();
+                emitValid(child, skip);
+                emitFill(child);
+                mv.visitLabel(skip);
+            } else if (type == ForEachUnit.class) {
+                emitForEach((ForEachUnit) unit);
+            } else {
+                // units[i].fill(exqlContext, exprResolver);
+                loadDelegate(unit);
+                mv.visitVarInsn(Opcodes.ALOAD, CONTEXT_SLOT);
+                mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, UNIT, "fill", FILL_DESC, true);
+            }
+        }
+
+        // 与  ForEachUnit.fill 相同
+        private void emitForEach(ForEachUnit forEach) {
+            String variant = forEach.getVariant();
+            int backupSlot = nextLocal++;
+            int iteratorSlot = nextLocal++;
+            Label loop = new Label();
+            Label done = new Label();
+
+            // Object obj = exprResolver.executeExpr(expr);
+            executeExpr(forEach.getExpr());
+            if (variant != null) {
+                // Object backup = exprResolver.getVar(variant);
+                mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+                mv.visitLdcInsn(variant);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESOLVER, "getVar",
+                    "(Ljava/lang/String;)Ljava/lang/Object;", true);
+                mv.visitVarInsn(Opcodes.ASTORE, backupSlot);
+            }
+            // Iterator it = ExqlUtils.asCollection(obj).iterator();
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "asCollection",
+                "(Ljava/lang/Object;)Ljava/util/Collection;", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Collection", "iterator",
+                "()Ljava/util/Iterator;", true);
+            mv.visitVarInsn(Opcodes.ASTORE, iteratorSlot);
+            // while (it.hasNext()) { exprResolver.setVar(variant, it.next()); ... }
+            mv.visitLabel(loop);
+            mv.visitVarInsn(Opcodes.ALOAD, iteratorSlot);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z",
+                true);
+            mv.visitJumpInsn(Opcodes.IFEQ, done);
+            mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+            mv.visitLdcInsn(variant == null ? "_loop" : variant);
+            mv.visitVarInsn(Opcodes.ALOAD, iteratorSlot);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "next",
+                "()Ljava/lang/Object;", true);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESOLVER, "setVar",
+                "(Ljava/lang/String;Ljava/lang/Object;)V", true);
+            emitFill(forEach.getUnit());
+            mv.visitJumpInsn(Opcodes.GOTO, loop);
+            mv.visitLabel(done);
+            if (variant != null) {
+                // exprResolver.setVar(variant, backup);
+                mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+                mv.visitLdcInsn(variant);
+                mv.visitVarInsn(Opcodes.ALOAD, backupSlot);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESOLVER, "setVar",
+                    "(Ljava/lang/String;Ljava/lang/Object;)V", true);
+            }
+        }
+
+        // 与各单元的 isValid 方法相同, 无效时跳转到 invalid
+        private void emitValid(ExqlUnit unit, Label invalid) {
+            Class<?> type = unit.getClass();
+            if (type == TextUnit.class || type == EmptyUnit.class || type == OptionUnit.class
+                || type == ReplacementUnit.class) {
+                // 始终有效
+            } else if (type == ExprUnit.class || type == JoinExprUnit.class) {
+                // ExqlUtils.isValid(ExqlUtils.execExpr(exprResolver, expr))
+                execExprQuietly(type == ExprUnit.class ? ((ExprUnit) unit).getExpr()
+                    : ((JoinExprUnit) unit).getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "isValid",
+                    "(Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, invalid);
+            } else if (type == BunchUnit.class) {
+                for (ExqlUnit child : ((BunchUnit) unit).getUnits()) {
+                    emitValid(child, invalid);
+                }
+            } else if (type == ChoiceUnit.class) {
+                ChoiceUnit choice = (ChoiceUnit) unit;
+                Label otherwise = new Label();
+                Label end = new Label();
+                execExprQuietly(choice.getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "asBoolean",
+                    "(Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, otherwise);
+                emitValid(choice.getUnitIfTrue(), invalid);
+                mv.visitJumpInsn(Opcodes.GOTO, end);
+                mv.visitLabel(otherwise);
+                if (choice.getUnitIfFalse() != null) {
+                    emitValid(choice.getUnitIfFalse(), invalid);
+                }
+                mv.visitLabel(end);
+            } else if (type == ForEachUnit.class) {
+                ForEachUnit forEach = (ForEachUnit) unit;
+                execExprQuietly(forEach.getExpr());
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "isValid",
+                    "(Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, invalid);
+                emitValid(forEach.getUnit(), invalid);
+            } else {
+                // units[i].isValid(exprResolver)
+                loadDelegate(unit);
+                mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, UNIT, "isValid", IS_VALID_DESC,
+                    true);
+                mv.visitJumpInsn(Opcodes.IFEQ, invalid);
+            }
+        }
+
+        // exprResolver.executeExpr(expr), 出错时抛出异常
+        private void executeExpr(String expr) {
+            mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+            mv.visitLdcInsn(expr);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, RESOLVER, "executeExpr",
+                "(Ljava/lang/String;)Ljava/lang/Object;", true);
+        }
+
+        // ExqlUtils.execExpr(exprResolver, expr), 出错时返回null
+        private void execExprQuietly(String expr) {
+            mv.visitVarInsn(Opcodes.ALOAD, RESOLVER_SLOT);
+            mv.visitLdcInsn(expr);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, UTILS, "execExpr", EXEC_EXPR_DESC, false);
+        }
+
+        // this.units[i]
+        private void loadDelegate(ExqlUnit unit) {
+            Integer index = delegateIndexes.get(unit);
+            if (index == null) {
+                index = delegates.size();
+                delegates.add(unit);
+                delegateIndexes.put(unit, index);
+            }
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "units", UNITS_DESC);
+            mv.visitLdcInsn(index);
+            mv.visitInsn(Opcodes.AALOAD);
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -3,15 +3,13 @@ package com.hengjue.dao.statement.expression.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.hengjue.dao.statement.expression.ExqlContext;
 import com.hengjue.dao.statement.expression.ExqlPattern;
 import com.hengjue.dao.statement.expression.ExqlUnit;
 
 /**
- * 实现语句编译器。
+ * 实现语句编译器: 逐个字符扫描一遍语句, 编译为由文本、替换、表达式、条件、循环等单元组成的执行计划。
  * 
  * @author han.liao
  */
@@ -26,32 +24,34 @@ public class ExqlCompiler {
 
     private static final char BLOCK_RIGHT = '}';
 
-    private static final String SHARP = "#";
+    private static final char COLON = ':';
 
-    private static final String JOIN = "!";
+    private static final char DOLLAR = '$';
 
-    private static final String KEYWORD_IF = "if";
+    private static final char SHARP = '#';
 
-    private static final String KEYWORD_FOR = "for";
+    private static final char QUESTION = '?';
 
-    private static final String SHARP_ELSE = "#else";
+    private static final String SHARP_REPLACEMENT = "##(";
+
+    private static final String SHARP_JOIN = "#!";
+
+    private static final String SHARP_IF = "#if";
 
-    // 正则表达式
-//    private static final Pattern PATTERN_KEYWORD = Pattern.compile( // NL
-//            "\\:\\:|([\\:\\$]{1}[a-zA-Z0-9_\\-\\.]+)|\\{([^\\{\\}]+)\\}\\?|#(#|!|if|for)?");
-    
-    // 正则表达式（##(:xxx)已经由ReplacementInterpreter实现，不在Exql中处理)
-    private static final Pattern PATTERN_KEYWORD = Pattern.compile( // NL
-            "\\:\\:|([\\:\\$]{1}[a-zA-Z0-9_\\-\\.]+)|\\{([^\\{\\}]+)\\}\\?|#(!|if|for)?");
+    private static final String SHARP_FOR = "#for";
+
+    private static final String SHARP_ELSE = "#else";
 
-    private static final Pattern PATTERN_IN = Pattern.compile(// NL
-            "([a-zA-Z0-9_]*)\\s+in\\s+(.+)");
+    private static final String KEYWORD_IN = "in";
 
     // 待编译的语句
     private final String pattern;
 
     private final int length;
 
+    // 是否识别  {xxx}、##(xxx) 形式的替换
+    private final boolean replacement;
+
     // 编译位置
     private int position = 0;
 
@@ -61,8 +61,19 @@ public class ExqlCompiler {
      * @param pattern - 待编译的语句
      */
     public ExqlCompiler(String pattern) {
+        this(pattern, true);
+    }
+
+    /**
+     * 创建语句编译器。
+     * 
+     * @param pattern - 待编译的语句
+     * @param replacement - 是否识别  {xxx}、##(xxx) 形式的替换, 编译替换值时为 false
+     */
+    ExqlCompiler(String pattern, boolean replacement) {
         this.pattern = pattern;
         this.length = pattern.length();
+        this.replacement = replacement;
     }
 
     /**
@@ -79,198 +90,303 @@ public class ExqlCompiler {
     /**
      * 从语句编译出: ExqlUnit 对象。
      * 
+     * 逐个字符扫描一遍语句, 识别出以下子句, 其余作为文本输出:
+     * <ul>
+     * <li>:expr、$expr 形式的表达式</li>
+     * <li>{xxx}、##(xxx) 形式的替换</li>
+     * <li>{...}? 形式的可选子句</li>
+     * <li>#(:expr)、#!(:expr)、#if(:expr) {...} #else {...}、#for(variant in :expr) {...}</li>
+     * </ul>
+     * 
+     * #if 子句的右花括号与 #else 之间可以有空白(包括换行)。替换值中含有以上语法时，
+     * 在运行时再编译并执行，见 {@link ReplacementUnit}。
      * 
      * @return ExqlUnit 对象
      */
     protected ExqlUnit compileUnit() {
 
-        // 在输入中查找  PREFIX 字符
-        Matcher matcher = PATTERN_KEYWORD.matcher(pattern);
-
         // 输出的单元列表
         ArrayList<ExqlUnit> units = new ArrayList<ExqlUnit>();
 
         // 组装位置
         int fromIndex = 0;
 
-        while ((position < length) && matcher.find(position)) {
+        while (position < length) {
 
-            // 修改当前位置
-            position = matcher.end();
+            int start = position;
+            char ch = pattern.charAt(position);
+            ExqlUnit unit = null;
 
-            // 检查  :expr | $expr 形式的子句
-            String expr = matcher.group(1);
-            if (expr != null) {
+            if (ch == COLON || ch == DOLLAR) {
 
-                // 创建文本子句
-                if (matcher.start() > fromIndex) {
-                    units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
+                if (ch == COLON && position + 1 < length && pattern.charAt(position + 1) == COLON) {
+                    // 跳过  :: 
+                    position += 2;
+                    continue;
                 }
 
-                // 创建  :expr | $expr 形式的子句
-                if (expr.charAt(0) == '$') {
-
-                    // 创建  $expr 形式的子句, 作为拼接处理
-                    units.add(new JoinExprUnit(expr));
-                } else {
-
-                    // 创建  :expr 形式的子句
-                    units.add(new ExprUnit(expr));
+                // 检查  :expr | $expr 形式的子句
+                int end = start + 1;
+                while (end < length && isExprChar(pattern.charAt(end))) {
+                    end++;
+                }
+                if (end > start + 1) {
+                    String expr = pattern.substring(start, end);
+                    position = end;
+                    if (ch == DOLLAR) {
+                        // 创建  $expr 形式的子句, 作为拼接处理
+                        unit = new JoinExprUnit(expr);
+                    } else {
+                        // 创建  :expr 形式的子句
+                        unit = new ExprUnit(expr);
+                    }
                 }
+            } else if (ch == BLOCK_LEFT) {
 
-                fromIndex = position;
+                // 检查  {xxx} 形式的替换或  {...}? 形式的可选子句
+                unit = compileCurly();
+            } else if (ch == SHARP) {
 
-                continue;
+                // 检查  # 后面的关键字
+                unit = compileSharp();
             }
 
-            // 检查  {...}? 的语法
-            String group = matcher.group(2);
-            if (group != null) {
+            if (unit != null) {
 
                 // 创建文本子句
-                if (matcher.start() > fromIndex) {
-                    units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
+                if (start > fromIndex) {
+                    units.add(new TextUnit(pattern.substring(fromIndex, start)));
                 }
+                units.add(unit);
+                fromIndex = position;
+            } else if (position == start) {
+                position++;
+            }
+        }
 
-                // 编译  {...} 内部的子句
-                ExqlCompiler compiler = new ExqlCompiler(group);
-                System.out.println("DELETE>>>group=" + group);
-                ExqlUnit unit = compiler.compileUnit();
+        if (fromIndex < length) {
+            // 写入最后一个子句后的内容。
+            units.add(new TextUnit(pattern.substring(fromIndex)));
+        }
 
-                // 创建   {...}? 形式的子句
-                units.add(new OptionUnit(unit));
+        if (units.size() > 1) {
 
-                fromIndex = position;
+            // 返回集合对象
+            return new BunchUnit(units);
 
-                continue;
-            }
+        } else if (!units.isEmpty()) {
 
-            // 检查  # 后面的关键字
-            String keyword = matcher.group(3);
+            // 返回单个对象
+            return units.get(0);
 
-            // 处理  #(:expr) 形式的子句
-            if (keyword == null) {
+        } else {
 
-                // 获取括号内的内容
-                expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
-                if (expr != null) {
+            // 返回空对象
+            return new EmptyUnit();
+        }
+    }
 
-                    // 创建文本子句
-                    if (matcher.start() > fromIndex) {
-                        units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
-                    }
+    /**
+     * 编译当前位置(左花括号)开始的  {xxx} 替换或者  {...}? 可选子句。
+     * 
+     * @return ExqlUnit, 都不是时返回 <code>null</code> 且当前位置不变.
+     */
+    private ExqlUnit compileCurly() {
+
+        int start = position + 1;
 
-                    // 创建  #(:expr) 形式的表达式
-                    units.add(new ExprUnit(expr));
+        // 匹配  {xxx} 形式的替换
+        int end = skipReplacement(position);
+        if (replacement && end > 0 && (end >= length || pattern.charAt(end) != QUESTION)) {
+            position = end;
+            return new ReplacementUnit(pattern.substring(start, end - 1),
+                    pattern.substring(start - 1, end));
+        }
 
-                    fromIndex = position;
+        // 匹配  {...}? 形式的可选子句, 其中不能再有花括号(除了  {xxx} 形式的替换)
+        int index = start;
+        while (index < length) {
+            char ch = pattern.charAt(index);
+            if (ch == BLOCK_RIGHT) {
+                break;
+            } else if (ch == BLOCK_LEFT) {
+                index = skipReplacement(index);
+                if (index < 0) {
+                    return null;
                 }
+            } else {
+                index++;
             }
-            // 处理  ##(:expr) 形式的子句
-            else if (keyword.equals(SHARP) || keyword.equals(JOIN)) {
+        }
+        if (index > start && index + 1 < length && pattern.charAt(index + 1) == QUESTION) {
 
-                // 获取括号内的内容
-                expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
-                if (expr != null) {
+            // 编译  {...} 内部的子句
+            ExqlCompiler compiler = new ExqlCompiler(pattern.substring(start, index), replacement);
+            position = index + 2;
 
-                    // 创建文本子句
-                    if (matcher.start() > fromIndex) {
-                        units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
-                    }
+            // 创建   {...}? 形式的子句
+            return new OptionUnit(compiler.compileUnit());
+        }
+        return null;
+    }
 
-                    // 创建  ##(:expr) 形式的表达式
-                    units.add(new JoinExprUnit(expr));
+    /**
+     * 匹配给定位置(左花括号)开始的  {xxx} 形式的替换。
+     * 
+     * @return 右花括号后一个字符的位置, 不匹配时返回 -1.
+     */
+    private int skipReplacement(int fromIndex) {
+        int index = fromIndex + 1;
+        while (index < length && isReplacementChar(pattern.charAt(index))) {
+            index++;
+        }
+        if (index > fromIndex + 1 && index < length && pattern.charAt(index) == BLOCK_RIGHT) {
+            return index + 1;
+        }
+        return -1;
+    }
 
-                    fromIndex = position;
-                }
-            }
-            // 处理  #if(:expr) {...} #else {...} 形式的子句
-            else if (keyword.equals(KEYWORD_IF)) {
+    /**
+     * 编译当前位置(#)开始的子句。
+     * 
+     * @return ExqlUnit, 不能编译时返回 <code>null</code>.
+     */
+    private ExqlUnit compileSharp() {
 
-                // 获取括号内的内容
-                expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
-                if (expr != null) {
+        int start = position;
 
-                    // 编译  {...} 单元
-                    ExqlUnit unitIfTrue = compileBlock();
-                    if (unitIfTrue != null) {
+        // 处理  ##(xxx) 形式的替换
+        if (replacement && match(SHARP_REPLACEMENT, start)) {
+            position = start + 2;
+            String key = findBrace(BRACE_LEFT, BRACE_RIGHT);
+            if (key != null && key.length() > 0) {
+                return new ReplacementUnit(key, pattern.substring(start, position));
+            }
+            position = start + 2;
+            return null;
+        }
 
-                        // 创建文本子句
-                        if (matcher.start() > fromIndex) {
-                            units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
-                        }
+        // 处理  #!(:expr) 形式的子句
+        if (match(SHARP_JOIN, start)) {
+            position = start + SHARP_JOIN.length();
+            String expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
+            if (expr != null) {
+                // 创建  #!(:expr) 形式的表达式
+                return new JoinExprUnit(expr);
+            }
+            return null;
+        }
 
-                        ExqlUnit unitIfFalse = null;
+        // 处理  #if(:expr) {...} #else {...} 形式的子句
+        if (match(SHARP_IF, start)) {
+            position = start + SHARP_IF.length();
+            String expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
+            if (expr != null) {
 
-                        // 匹配  #else {...} 子句
-                        if (match(SHARP_ELSE, position)) {
+                // 编译  {...} 单元
+                ExqlUnit unitIfTrue = compileBlock();
+                if (unitIfTrue != null) {
 
-                            // 编译  {...} 单元
-                            unitIfFalse = compileBlock();
-                        }
+                    ExqlUnit unitIfFalse = null;
 
-                        // 创建  #if(:expr) {...} #else {...} 形式的子句
-                        units.add(new ChoiceUnit(expr, unitIfTrue, unitIfFalse));
+                    // 匹配  #else {...} 子句
+                    int index = skipWhitespace(position);
+                    if (match(SHARP_ELSE, index)) {
 
-                        fromIndex = position;
+                        // 编译  {...} 单元
+                        position = index + SHARP_ELSE.length();
+                        unitIfFalse = compileBlock();
                     }
+
+                    // 创建  #if(:expr) {...} #else {...} 形式的子句
+                    return new ChoiceUnit(expr, unitIfTrue, unitIfFalse);
                 }
             }
-            // 处理  #for(variant in :expr) {...} 形式的子句
-            else if (keyword.equals(KEYWORD_FOR)) {
-
-                // 获取括号内的内容
-                expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
-                if (expr != null) {
-
-                    // 编译  {...} 单元
-                    ExqlUnit unit = compileBlock();
-                    if (unit != null) {
-
-                        // 创建文本子句
-                        if (matcher.start() > fromIndex) {
-                            units.add(new TextUnit(pattern.substring(fromIndex, matcher.start())));
-                        }
+            return null;
+        }
 
-                        // 循环变量名
-                        String variant = null;
+        // 处理  #for(variant in :expr) {...} 形式的子句
+        if (match(SHARP_FOR, start)) {
+            position = start + SHARP_FOR.length();
+            String expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
+            if (expr != null) {
 
-                        // 解析  variant in :expr 表达式
-                        Matcher matcherIn = PATTERN_IN.matcher(expr);
-                        if (matcherIn.matches()) {
-                            variant = matcherIn.group(1);
-                            expr = matcherIn.group(2);
-                        }
+                // 编译  {...} 单元
+                ExqlUnit unit = compileBlock();
+                if (unit != null) {
 
-                        // 创建  #for(variant in :expr) {...} 形式的子句
-                        units.add(new ForEachUnit(expr, variant, unit));
+                    // 循环变量名
+                    String variant = null;
 
-                        fromIndex = position;
+                    // 解析  variant in :expr 表达式
+                    int in = findIn(expr);
+                    if (in >= 0) {
+                        variant = expr.substring(0, in).trim();
+                        expr = expr.substring(in + 2).trim();
                     }
+
+                    // 创建  #for(variant in :expr) {...} 形式的子句
+                    return new ForEachUnit(expr, variant, unit);
                 }
             }
+            return null;
         }
 
-        if (fromIndex < length) {
-            // 写入 PREFIX 字符后的内容。
-            units.add(new TextUnit(pattern.substring(fromIndex)));
+        // 处理  #(:expr) 形式的子句
+        position = start + 1;
+        String expr = findBrace(BRACE_LEFT, BRACE_RIGHT);
+        if (expr != null) {
+            // 创建  #(:expr) 形式的表达式
+            return new ExprUnit(expr);
         }
+        return null;
+    }
 
-        if (units.size() > 1) {
-
-            // 返回集合对象
-            return new BunchUnit(units);
+    /**
+     * 查找  variant in :expr 中的 in 关键字: 之前是变量名和空白, 之后是空白。
+     * 
+     * @return in 关键字的位置, 不匹配时返回 -1.
+     */
+    private static int findIn(String expr) {
+        int length = expr.length();
+        int index = 0;
+        while (index < length && isVariantChar(expr.charAt(index))) {
+            index++;
+        }
+        int in = index;
+        while (in < length && Character.isWhitespace(expr.charAt(in))) {
+            in++;
+        }
+        if (in == index || !expr.startsWith(KEYWORD_IN, in)) {
+            return -1;
+        }
+        int end = in + KEYWORD_IN.length();
+        if (end >= length || !Character.isWhitespace(expr.charAt(end))
+                || expr.substring(end).trim().isEmpty()) {
+            return -1;
+        }
+        return in;
+    }
 
-        } else if (!units.isEmpty()) {
+    private static boolean isExprChar(char ch) {
+        return isVariantChar(ch) || ch == '-' || ch == '.';
+    }
 
-            // 返回单个对象
-            return units.get(0);
+    private static boolean isReplacementChar(char ch) {
+        return isVariantChar(ch) || ch == '.' || ch == COLON;
+    }
 
-        } else {
+    private static boolean isVariantChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                || ch == '_';
+    }
 
-            // 返回空对象
-            return new EmptyUnit();
+    private int skipWhitespace(int fromIndex) {
+        int index = fromIndex;
+        while (index < length && Character.isWhitespace(pattern.charAt(index))) {
+            index++;
         }
+        return index;
     }
 
     /**
@@ -390,7 +506,7 @@ public class ExqlCompiler {
         if (group != null) {
 
             // 编译  {...} 内部的子句
-            ExqlCompiler compiler = new ExqlCompiler(group);
+            ExqlCompiler compiler = new ExqlCompiler(group, replacement);
             return compiler.compileUnit();
         }
 
@@ -400,83 +516,24 @@ public class ExqlCompiler {
     /**
      * 匹配指定的关键字。
      * 
-     * 如果匹配成功, 当前位置是关键字最后一个字符之后。
-     * 
      * @param keyword - 匹配的关键字
-     * @param fromIndex - 查找的起始位置
+     * @param fromIndex - 匹配的起始位置
      * 
      * @return true / false
      */
     private boolean match(String keyword, int fromIndex) {
-
-        int match = 0;
-
-        // 查找非空白字符。
-        for (int index = fromIndex; index < length; index++) {
-
-            char ch = pattern.charAt(index);
-
-            if (!Character.isWhitespace(ch)) {
-                match = index;
-                break;
-            }
-        }
-
-        // 匹配关键字内容。
-        for (int index = 0; index < keyword.length(); index++) {
-
-            char ch = pattern.charAt(match);
-
-            if (ch != keyword.charAt(index)) {
-                // 与关键字不匹配
-                return false;
-            }
-
-            match++;
-        }
-
-        // 修改当前位置
-        position = match;
-
-        return true;
+        return pattern.startsWith(keyword, fromIndex);
     }
 
     // 进行简单测试
-    // 贴士：##(:xxx) 已经被ReplacementInterpreter实现，
+    // 贴士：{xxx}、##(:xxx) 形式的替换也在这里编译
     public static void main(String... args) throws Exception {
 
         String string = "SELECT :expr1, #($expr2.class),"
                 + " WHERE #if(:expr3) {e = $expr3} #else {e IS NULL}"
                 + "#for(variant in $expr4.bytes) { AND c = :variant}" // NL
                 + " {AND d = :expr-5}? {AND f = $expr6}?" // NL
-                + " BY #!(:expr7) ASC";
-
-        // 在输入中查找  PREFIX 字符
-        Matcher matcher = PATTERN_KEYWORD.matcher(string);
-
-        int position = 0;
-
-        while (matcher.find(position)) {
-
-            System.out.println("===============================");
-            System.out.println("group 0: " + matcher.group(0));
-            System.out.println("group 1: " + matcher.group(1));
-            System.out.println("group 2: " + matcher.group(2));
-            System.out.println("group 3: " + matcher.group(3));
-
-            position = matcher.end();
-        }
-
-        // 在循环表达式中查找
-        matcher = PATTERN_IN.matcher("variant in :expr5");
-
-        if (matcher.matches()) {
-
-            System.out.println("===============================");
-            System.out.println("group 0: " + matcher.group(0));
-            System.out.println("group 1: " + matcher.group(1));
-            System.out.println("group 2: " + matcher.group(2));
-        }
+                + " BY #!(:expr7) ASC, ##(:expr1) {expr2}";
 
         // 编译下列语句
         ExqlPattern pattern = new ExqlCompiler(string).compile();
@@ -1,15 +1,20 @@
 package com.hengjue.dao.statement.expression.impl;
 
-import java.util.ArrayList;
+import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
 
 import com.hengjue.dao.statement.expression.ExqlContext;
-import com.hengjue.dao.statement.expression.ExqlUtils;
 
 /**
  * 实现简单的输出上下文。
+ * <p>
+ * 
+ * 每次解析使用一个新的上下文, 不在线程之间共享也不放入 ThreadLocal; 参数直接写入数组,
+ * 个数与预计的相同时 {@link #getArgs()} 不再复制, 输出缓冲区只在需要拼接语句时创建。
  * 
  * @author han.liao
  */
@@ -22,43 +27,209 @@ public class ExqlContextImpl implements ExqlContext  {
 
     private static final char COMMA = ',';
 
-    // 参数列表
-    protected final ArrayList<Object> args = new ArrayList<Object>();
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    // 参数列表, 前 argCount 个有效
+    private Object[] args = EMPTY_ARGS;
+
+    private int argCount;
+
+    // 输出缓冲区, 需要时才创建
+    private StringBuilder builder;
+
+    // 按形状输出时, 记录输出的各部分(文本或者参数个数), 见 ShapeKey
+    private Object[] parts;
+
+    private int partCount;
+
+    private boolean recording;
+
+    // 查找形状缓存用的键, 按形状输出时才创建
+    private ShapeKey shapeKey;
 
-    // 输出缓冲区
-    protected final StringBuilder builder = new StringBuilder(256);
+    // 直接给出的语句内容, 为null时取输出缓冲区的内容
+    private String result;
+
+    // 集合展开的问号个数是否补齐到2的幂
+    private boolean inListBuckets;
 
     /**
      * 构造上下文对象。
-     * 
-     * @param capacity - 缓存的容量
      */
     public ExqlContextImpl() {
     }
 
+    /**
+     * 构造上下文对象。
+     * 
+     * @param argCapacity - 预计的参数个数
+     */
+    public ExqlContextImpl(int argCapacity) {
+        if (argCapacity > 0) {
+            this.args = new Object[argCapacity];
+        }
+    }
+
     /**
      * 清理以便下次使用
      */
     public void clear() {
-        this.args.clear();
-        this.builder.setLength(0);
+        // getArgs() 可能已经交出了参数数组, 不再复用
+        this.args = EMPTY_ARGS;
+        this.argCount = 0;
+        if (builder != null) {
+            this.builder.setLength(0);
+        }
+        this.recording = false;
+        this.result = null;
+        this.inListBuckets = false;
+        if (parts != null) {
+            // 不持有上次调用的替换值
+            Arrays.fill(parts, 0, partCount, null);
+            this.partCount = 0;
+        }
+    }
+
+    /**
+     * 设置集合展开的问号个数是否补齐到不小于元素个数的2的幂, 多出的位置重复最后一个元素。
+     * <p>
+     * 补齐后不同大小的集合只产生少数几种语句, 只适用于 IN (...) 这种重复元素不影响结果的场合。
+     * 
+     * @param inListBuckets - 是否补齐, 调用 {@link #clear()} 后恢复为不补齐
+     */
+    public void setInListBuckets(boolean inListBuckets) {
+        this.inListBuckets = inListBuckets;
+    }
+
+    /**
+     * 直接给出语句内容, 参数按顺序给出(不展开集合, 不转换枚举)。
+     * 
+     * @param sql - 预先生成的语句
+     * @param values - 语句中问号对应的参数, 之后由 {@link #getArgs()} 直接返回
+     */
+    public void fillStatic(String sql, Object[] values) {
+        if (argCount == 0) {
+            // 直接使用给出的数组作为参数列表
+            this.args = values;
+            this.argCount = values.length;
+        } else {
+            for (Object value : values) {
+                addArg(value);
+            }
+        }
+        this.result = sql;
+    }
+
+    /**
+     * 开始按形状输出: 之后输出的文本和参数个数只被记录, 直到 {@link #endShape(BoundedCache)}。
+     */
+    public void beginShape() {
+        beginShape(32, 0);
+    }
+
+    /**
+     * 开始按形状输出, 给出预计的部分数和参数个数(通常取上次输出时的数目)。
+     * 
+     * @param partCapacity - 预计输出的部分数
+     * @param argCapacity - 预计的参数个数
+     */
+    void beginShape(int partCapacity, int argCapacity) {
+        if (parts == null) {
+            parts = new Object[Math.max(partCapacity, 4)];
+        }
+        ensureArgCapacity(argCapacity);
+        recording = true;
+    }
+
+    /**
+     * 结束按形状输出: 从缓存中取出形状相同的语句, 没有时生成并放入缓存。
+     * 
+     * @param shapes - 形状到语句的缓存
+     */
+    void endShape(BoundedCache<ShapeKey, String> shapes) {
+        recording = false;
+        if (shapeKey == null) {
+            shapeKey = new ShapeKey();
+        }
+        shapeKey.reset(parts, partCount);
+        String sql = shapes.get(shapeKey);
+        if (sql == null) {
+            StringBuilder builder = builder();
+            for (int i = 0; i < partCount; i++) {
+                Object part = parts[i];
+                if (part instanceof String) {
+                    builder.append((String) part);
+                } else {
+                    appendValues(((Integer) part).intValue());
+                }
+            }
+            sql = shapes.put(shapeKey.copy(), builder.toString());
+        }
+        this.result = sql;
+    }
+
+    /**
+     * 
+     * @return 记录的部分数, 用于估计下次的容量
+     */
+    int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * 
+     * @return 参数个数, 用于估计下次的容量
+     */
+    int getArgCount() {
+        return argCount;
+    }
+
+    private StringBuilder builder() {
+        if (builder == null) {
+            builder = new StringBuilder(128);
+        }
+        return builder;
+    }
+
+    private void ensureArgCapacity(int capacity) {
+        if (capacity > args.length) {
+            args = Arrays.copyOf(args, capacity);
+        }
+    }
+
+    private void addPart(Object part) {
+        if (partCount == parts.length) {
+            parts = Arrays.copyOf(parts, partCount * 2);
+        }
+        parts[partCount++] = part;
     }
 
     @Override
     public Object[] getArgs() {
-        return args.toArray();
+        if (argCount != args.length) {
+            args = Arrays.copyOf(args, argCount);
+        }
+        return args;
     }
 
     @Override
     public void fillChar(char ch) {
-        builder.append(ch);
+        if (recording) {
+            addPart(String.valueOf(ch));
+        } else {
+            builder().append(ch);
+        }
     }
 
     @Override
     public void fillText(String string) {
 
         // 直接输出字符串
-        builder.append(string);
+        if (recording) {
+            addPart(string);
+        } else {
+            builder().append(string);
+        }
     }
 
     @Override
@@ -72,21 +243,24 @@ public class ExqlContextImpl implements ExqlContext  {
 
         } else if ((obj != null) && obj.getClass().isArray() && obj.getClass() != byte[].class) {
 
-            // 用数组构造  Collection 容器
-            fillCollection(ExqlUtils.asCollection(obj));
+            // 直接展开数组, 不构造  Collection 容器
+            fillArray(obj);
 
         } else {
 
             // 直接输出参数, "uid > :var" --> "uid > ?"
             addArg(obj);
 
-            builder.append(QUESTION);
+            fillValues(1);
         }
     }
 
     @Override
     public String flushOut() {
-        return builder.toString();
+        if (result != null) {
+            return result;
+        }
+        return builder == null ? "" : builder.toString();
     }
 
     @Override
@@ -103,7 +277,10 @@ public class ExqlContextImpl implements ExqlContext  {
         if (value instanceof Enum) {
             value = ((Enum<?>) value).name();
         }
-        args.add(value);
+        if (argCount == args.length) {
+            args = Arrays.copyOf(args, Math.max(argCount * 2, 4));
+        }
+        args[argCount++] = value;
     }
 
     /**
@@ -115,34 +292,119 @@ public class ExqlContextImpl implements ExqlContext  {
      */
     private void fillCollection(Collection<?> collection) {
 
-        int count = 0;
-
         // 展开  Collection 容器, 输出逗号分隔以支持 IN (...) 语法
         // "IN :varlist" --> "IN (?, ?, ...)"
-        if (collection.isEmpty()) {
+        int size = collection.size();
+        if (size == 0) {
 
             // 输出  "IN (NULL)" 保证不会产生错误
-            builder.append(NULL);
+            fillValues(-1);
+            return;
+        }
 
-        } else {
+        int start = argCount;
+        ensureArgCapacity(start + bucket(size));
 
-            // 输出逗号分隔的参数表
+        // 输出逗号分隔的参数表
+        if (collection instanceof List<?> && collection instanceof RandomAccess) {
+            List<?> list = (List<?>) collection;
+            for (int i = 0; i < size; i++) {
+                addValue(list.get(i));
+            }
+        } else {
             for (Object value : collection) {
+                addValue(value);
+            }
+        }
+
+        fillValues(padValues(start));
+    }
+
+    /**
+     * 输出数组到语句内容, 与集合相同展开成 IN (...) 语法。
+     * 
+     * @param array - 输出的数组
+     */
+    private void fillArray(Object array) {
 
-                if (value != null) {
+        int length = Array.getLength(array);
+        if (length == 0) {
 
-                    if (count > 0) {
-                        builder.append(COMMA);
-                    }
+            // 输出  "IN (NULL)" 保证不会产生错误
+            fillValues(-1);
+            return;
+        }
 
-                    // 输出参数内容
-                    addArg(value);
+        int start = argCount;
+        ensureArgCapacity(start + bucket(length));
 
-                    builder.append(QUESTION);
+        // 输出逗号分隔的参数表
+        if (array instanceof Object[]) {
+            Object[] objects = (Object[]) array;
+            for (int i = 0; i < length; i++) {
+                addValue(objects[i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                addValue(Array.get(array, i));
+            }
+        }
 
-                    count++;
-                }
+        fillValues(padValues(start));
+    }
+
+    // 输出集合中的一个元素, 忽略  null
+    private void addValue(Object value) {
+        if (value != null) {
+            addArg(value);
+        }
+    }
+
+    // 补齐从 start 开始输出的参数, 返回问号个数
+    private int padValues(int start) {
+        int count = argCount - start;
+        if (inListBuckets && count > 0) {
+
+            // 重复最后一个元素, 补齐到2的幂
+            Object last = args[argCount - 1];
+            for (int bucket = bucket(count); count < bucket; count++) {
+                addArg(last);
+            }
+        }
+        return count;
+    }
+
+    // 集合展开后的参数个数
+    private int bucket(int count) {
+        if (!inListBuckets) {
+            return count;
+        }
+        int bucket = Integer.highestOneBit(count);
+        return bucket == count ? count : bucket << 1;
+    }
+
+    /**
+     * 输出给定个数的问号, -1 表示空集合, 输出  NULL
+     */
+    private void fillValues(int count) {
+        if (recording) {
+            addPart(Integer.valueOf(count));
+        } else {
+            appendValues(count);
+        }
+    }
+
+    private void appendValues(int count) {
+        StringBuilder builder = builder();
+        if (count < 0) {
+            builder.append(NULL);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(COMMA);
             }
+            builder.append(QUESTION);
         }
     }
 
@@ -1,9 +1,12 @@
 package com.hengjue.dao.statement.expression.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,8 +26,9 @@ public class ExqlPatternImpl implements ExqlPattern {
     // 输出日志
     private static final Log logger = LogFactory.getLog(ExqlPattern.class);
 
-    // 语句的缓存
-    private static final ConcurrentHashMap<String, ExqlPattern> cache = new ConcurrentHashMap<String, ExqlPattern>();
+    // 语句的缓存(只缓存被Interpreter改写过的语句, DAO方法上的原始语句由StatementMetaData持有)
+    private static final BoundedCache<String, ExqlPattern> cache = new BoundedCache<String, ExqlPattern>(
+        Integer.getInteger("jade.exql.patternCacheSize", 1024));
 
     // 编译的语句
     protected final String pattern;
@@ -32,6 +36,32 @@ public class ExqlPatternImpl implements ExqlPattern {
     // 输出的单元
     protected final ExqlUnit unit;
 
+    // 语句只有文本和  :expr 时(不同调用输出的语句不变), 预先生成的语句, 否则为null
+    private final String staticSQL;
+
+    // 与 staticSQL 中问号对应的表达式
+    private final String[] staticExprs;
+
+    // 与 staticExprs 对应的参数名, 不是简单的  :name、:1 形式时为null
+    private final String[] staticNames;
+
+    // 按形状(条件分支、循环次数、集合大小、替换值)缓存的语句
+    private final BoundedCache<ShapeKey, String> shapes = new BoundedCache<ShapeKey, String>(
+        SHAPE_CACHE_SIZE);
+
+    private static final int SHAPE_CACHE_SIZE = Integer.getInteger("jade.exql.shapeCacheSize", 64);
+
+    // 是否把单元树编译成生成的类
+    private static final boolean BYTECODE = Boolean.getBoolean("jade.exql.bytecode");
+
+    // 实际用于输出的单元: 生成的类或者原单元树, 第一次输出时确定
+    private volatile ExqlUnit renderer;
+
+    // 上次按形状输出时的部分数和参数个数, 作为下次输出上下文的初始容量(并发写入无妨)
+    private int partHint = 8;
+
+    private int argHint;
+
     /**
      * 构造语句的执行接口。
      * 
@@ -41,6 +71,61 @@ public class ExqlPatternImpl implements ExqlPattern {
     protected ExqlPatternImpl(String pattern, ExqlUnit unit) {
         this.pattern = pattern;
         this.unit = unit;
+        StringBuilder sql = new StringBuilder(pattern.length());
+        List<String> exprs = new ArrayList<String>();
+        if (collectStatic(unit, sql, exprs)) {
+            this.staticSQL = sql.toString();
+            this.staticExprs = exprs.toArray(new String[exprs.size()]);
+            this.staticNames = new String[staticExprs.length];
+            for (int i = 0; i < staticExprs.length; i++) {
+                staticNames[i] = simpleName(staticExprs[i]);
+            }
+        } else {
+            this.staticSQL = null;
+            this.staticExprs = null;
+            this.staticNames = null;
+        }
+    }
+
+    // 检查是否只有文本和  :expr 单元, 是则生成语句
+    private static boolean collectStatic(ExqlUnit unit, StringBuilder sql, List<String> exprs) {
+        if (unit instanceof TextUnit) {
+            sql.append(((TextUnit) unit).getText());
+            return true;
+        } else if (unit instanceof ExprUnit) {
+            sql.append('?');
+            exprs.add(((ExprUnit) unit).getExpr());
+            return true;
+        } else if (unit instanceof EmptyUnit) {
+            return true;
+        } else if (unit instanceof BunchUnit) {
+            for (ExqlUnit child : ((BunchUnit) unit).getUnits()) {
+                if (!collectStatic(child, sql, exprs)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // :name 返回 name, :1 返回 :1, 其他形式的表达式返回null
+    private static String simpleName(String expr) {
+        if (expr.length() < 2 || expr.charAt(0) != ':') {
+            return null;
+        }
+        boolean digits = true;
+        for (int i = 1; i < expr.length(); i++) {
+            char ch = expr.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                continue;
+            }
+            digits = false;
+            if (!((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_')) {
+                return null;
+            }
+        }
+        return digits ? expr : expr.substring(1);
     }
 
     /**
@@ -66,17 +151,46 @@ public class ExqlPatternImpl implements ExqlPattern {
             compiledPattern = compiler.compile();
 
             // 语句的缓存
-            cache.putIfAbsent(pattern, compiledPattern);
+            compiledPattern = cache.put(pattern, compiledPattern);
         }
 
         return compiledPattern;
     }
 
+    /**
+     * 用常量化简语句: 替换 {CONST}、##(CONST), 去掉条件只依赖常量的 #if 中不成立的分支。
+     * <p>
+     * 
+     * 运行时参数优先于常量, 所以替换名是 parameterNames 中的名称或者 #for 循环变量名时不化简。
+     * 
+     * @param constants - 常量表, 在语句的整个生命周期中不变
+     * @param parameterNames - 运行时参数表中可能出现的名称(":1"、{@link com.hengjue.dao.annotation.SQLParam}名称)
+     * @return 化简后的语句, 没有可化简的内容时返回本身
+     */
+    public ExqlPatternImpl fold(Map<String, ?> constants, Collection<String> parameterNames) {
+        ExqlUnit folded = new ConstantFolder(constants, parameterNames).fold(unit);
+        if (folded == null) {
+            return this;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("EXQL pattern folded with constants:\n    pattern: " + pattern);
+        }
+        return new ExqlPatternImpl(pattern, folded);
+    }
+
+    /**
+     * 
+     * @return 语句的缓存, 可以查看其命中、淘汰次数
+     */
+    public static BoundedCache<String, ExqlPattern> getCache() {
+        return cache;
+    }
+
     @Override
     public void execute(ExqlContext context, Map<String, ?> map) throws Exception {
 
         // 执行转换
-        execute(context, new ExprResolverImpl(map));
+        execute(context, map, Collections.<String, Object> emptyMap(), null);
     }
 
     @Override
@@ -84,17 +198,150 @@ public class ExqlPatternImpl implements ExqlPattern {
             throws Exception {
 
         // 执行转换
-        execute(context, new ExprResolverImpl(mapVars, mapConsts));
+        execute(context, mapVars, mapConsts, null);
+    }
+
+    @Override
+    public void execute(ExqlContext context, Map<String, ?> mapVars, Map<String, ?> mapConsts,
+            Map<String, ?> mapAttributes) throws Exception {
+
+        if (!(context instanceof ExqlContextImpl)) {
+            // 执行转换
+            execute(context, new ExprResolverImpl(mapVars, mapConsts, mapAttributes));
+            return;
+        }
+        ExqlContextImpl contextImpl = (ExqlContextImpl) context;
+
+        // 语句不变时, 只需求出参数
+        if (staticSQL != null) {
+            Object[] values = executeStatic(mapVars, mapConsts, mapAttributes);
+            if (values != null) {
+                contextImpl.fillStatic(staticSQL, values);
+                return;
+            }
+        }
+
+        // 按形状输出, 形状相同的语句只生成一次
+        ExprResolver exprResolver = new ExprResolverImpl(mapVars, mapConsts, mapAttributes);
+        contextImpl.beginShape(partHint, argHint);
+        getRenderer().fill(contextImpl, exprResolver);
+        contextImpl.endShape(shapes);
+        if (partHint != contextImpl.getPartCount()) {
+            partHint = contextImpl.getPartCount();
+        }
+        if (argHint != contextImpl.getArgCount()) {
+            argHint = contextImpl.getArgCount();
+        }
+        debug(context);
+    }
+
+    /**
+     * 
+     * @return 语句编译出的单元树
+     */
+    public ExqlUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * 返回用于输出的单元: 开启 jade.exql.bytecode 时为单元树编译成的类(见 {@link ExqlClassGenerator}),
+     * 否则或者编译失败时为单元树本身。
+     * 
+     * @return 用于输出的单元
+     */
+    public ExqlUnit getRenderer() {
+        ExqlUnit renderer = this.renderer;
+        if (renderer == null) {
+            if (BYTECODE) {
+                renderer = ExqlClassGenerator.generate(pattern, unit);
+            }
+            if (renderer == null) {
+                renderer = unit;
+            }
+            this.renderer = renderer;
+        }
+        return renderer;
+    }
+
+    /**
+     * 
+     * @return 语句是否只有文本(没有任何替换和表达式), 输出与原语句相同且没有参数
+     */
+    public boolean isPlainText() {
+        return staticSQL != null && staticExprs.length == 0 && staticSQL.equals(pattern);
+    }
+
+    /**
+     * 
+     * @return 语句只有文本和  :expr 时预先生成的语句, 否则返回 <code>null</code>
+     */
+    public String getStaticSQL() {
+        return staticSQL;
+    }
+
+    /**
+     * 求出 {@link #getStaticSQL()} 中问号对应的参数, 不经过输出上下文。
+     * 
+     * @param mapVars - 参数表
+     * @param mapConsts - 常量表
+     * @param mapAttributes - 属性表
+     * @return 参数数组; 不是静态语句、有集合参数(语句需要展开)或变量未定义时返回 <code>null</code>
+     * @throws Exception
+     */
+    public Object[] executeStatic(Map<String, ?> mapVars, Map<String, ?> mapConsts,
+            Map<String, ?> mapAttributes) throws Exception {
+        if (staticSQL == null) {
+            return null;
+        }
+        Object[] values = staticValues(mapVars, mapConsts, mapAttributes);
+        if (values != null && logger.isDebugEnabled()) {
+            logger.debug("EXQL pattern executing:\n    origin: " + pattern + "\n    result: "
+                    + staticSQL + "\n    params: " + Arrays.toString(values));
+        }
+        return values;
+    }
+
+    private Object[] staticValues(Map<String, ?> mapVars, Map<String, ?> mapConsts,
+            Map<String, ?> mapAttributes) throws Exception {
+        Object[] values = new Object[staticExprs.length];
+        ExprResolver exprResolver = null;
+        for (int i = 0; i < values.length; i++) {
+            Object value;
+            String name = staticNames[i];
+            if (name != null) {
+                value = mapVars.get(name);
+                if (value == null && !mapVars.containsKey(name)) {
+                    return null;
+                }
+            } else {
+                if (exprResolver == null) {
+                    exprResolver = new ExprResolverImpl(mapVars, mapConsts, mapAttributes);
+                }
+                value = exprResolver.executeExpr(staticExprs[i]);
+            }
+            if (value instanceof Collection<?>
+                    || (value != null && value.getClass().isArray() && value.getClass() != byte[].class)) {
+                return null;
+            }
+            if (value instanceof Enum) {
+                value = ((Enum<?>) value).name();
+            }
+            values[i] = value;
+        }
+        return values;
     }
 
     // 执行转换
     protected void execute(ExqlContext context, ExprResolver exprResolver) throws Exception {
 
         // 转换语句内容
-        unit.fill(context, exprResolver);
+        getRenderer().fill(context, exprResolver);
 
+        debug(context);
+    }
 
-        // 输出日志
+    // 输出日志
+    private void debug(ExqlContext context) {
         if (logger.isDebugEnabled()) {
             String flushOut = context.flushOut();
             String args = Arrays.toString(context.getArgs());
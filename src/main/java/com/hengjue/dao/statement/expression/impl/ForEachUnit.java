@@ -80,4 +80,19 @@ public class ForEachUnit implements ExqlUnit {
             exprResolver.setVar(variant, variantValue);
         }
     }
+
+    // 集合表达式
+    String getExpr() {
+        return expr;
+    }
+
+    // 循环临时变量名, 可以为null
+    String getVariant() {
+        return variant;
+    }
+
+    // 循环输出的单元
+    ExqlUnit getUnit() {
+        return unit;
+    }
 }
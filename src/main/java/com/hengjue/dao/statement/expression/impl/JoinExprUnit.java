@@ -42,4 +42,9 @@ public class JoinExprUnit implements ExqlUnit {
         // 直接输出未经转义的对象内容
         exqlContext.fillText(String.valueOf(obj));
     }
+
+    // 输出的表达式
+    String getExpr() {
+        return expr;
+    }
 }
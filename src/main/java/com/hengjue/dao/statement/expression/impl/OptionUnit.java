@@ -33,4 +33,9 @@ public class OptionUnit implements ExqlUnit {
             unit.fill(exqlContext, exprResolver);
         }
     }
+
+    // 可选输出的子单元
+    ExqlUnit getUnit() {
+        return unit;
+    }
 }
@@ -0,0 +1,390 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译后的属性路径表达式, 不经过 Jexl 直接求值。
+ * <p>
+ *
+ * 支持以  :name、:1、$CONST 开头, 后接任意个  .property 或者  [key] 访问的路径, 以及对路径的
+ * ==&nbsp;null、!=&nbsp;null、empty(...)、!empty(...) 判断; 其他表达式由 {@link #compile(String)}
+ * 返回 <code>null</code>, 仍由 Jexl 处理。
+ * <p>
+ *
+ * 属性按 Jexl 的顺序查找: getXxx()、isXxx()、get("xxx"); 每一级访问缓存上次遇到的类及其
+ * {@link MethodHandle}, 同一个类再次访问时不再反射。遇到无法处理的情况时求值结果为
+ * {@link #FALLBACK}, 调用者应改用 Jexl。
+ *
+ */
+public final class PropertyExpression {
+
+    /**
+     * 求值结果: 需要改用 Jexl 求值
+     */
+    public static final Object FALLBACK = new Object();
+
+    private static final int PATH = 0;
+
+    private static final int IS_NULL = 1;
+
+    private static final int NOT_NULL = 2;
+
+    private static final int EMPTY = 3;
+
+    private static final int NOT_EMPTY = 4;
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // 是否为常量($CONST), 否则为参数
+    private final boolean constant;
+
+    // 参数名(:1 形式的保留冒号)或常量名
+    private final String name;
+
+    // 之后的  .property 或  [key] 访问
+    private final Step[] steps;
+
+    // 对路径的判断
+    private final int test;
+
+    private PropertyExpression(boolean constant, String name, Step[] steps, int test) {
+        this.constant = constant;
+        this.name = name;
+        this.steps = steps;
+        this.test = test;
+    }
+
+    /**
+     * 编译表达式。
+     *
+     * @param expression - 表达式
+     * @return 不支持的表达式返回 <code>null</code>
+     */
+    public static PropertyExpression compile(String expression) {
+        String expr = expression.trim();
+        int test = PATH;
+        if (expr.startsWith("!empty(") && expr.endsWith(")")) {
+            test = NOT_EMPTY;
+            expr = expr.substring(7, expr.length() - 1).trim();
+        } else if (expr.startsWith("empty(") && expr.endsWith(")")) {
+            test = EMPTY;
+            expr = expr.substring(6, expr.length() - 1).trim();
+        } else {
+            int index = expr.indexOf("==");
+            if (index < 0) {
+                index = expr.indexOf("!=");
+            }
+            if (index > 0) {
+                test = expr.charAt(index) == '=' ? IS_NULL : NOT_NULL;
+                String left = expr.substring(0, index).trim();
+                String right = expr.substring(index + 2).trim();
+                if ("null".equals(right)) {
+                    expr = left;
+                } else if ("null".equals(left)) {
+                    expr = right;
+                } else {
+                    return null;
+                }
+            }
+        }
+        return compilePath(expr, test);
+    }
+
+    private static PropertyExpression compilePath(String expr, int test) {
+        int length = expr.length();
+        if (length < 2 || (expr.charAt(0) != ':' && expr.charAt(0) != '$')) {
+            return null;
+        }
+        boolean constant = expr.charAt(0) == '$';
+        int index = 1;
+        while (index < length && isNameChar(expr.charAt(index))) {
+            index++;
+        }
+        if (index == 1) {
+            return null;
+        }
+        String name = expr.substring(1, index);
+        if (!constant && isDigits(name)) {
+            // 按顺序访问变量
+            name = ':' + name;
+        }
+        List<Step> steps = new ArrayList<Step>();
+        while (index < length) {
+            char ch = expr.charAt(index);
+            if (ch == '.') {
+                int start = ++index;
+                while (index < length && isNameChar(expr.charAt(index))) {
+                    index++;
+                }
+                if (index == start || isDigits(expr.substring(start, start + 1))) {
+                    return null;
+                }
+                steps.add(new Step(expr.substring(start, index), false));
+            } else if (ch == '[') {
+                int end = expr.indexOf(']', index);
+                if (end < 0) {
+                    return null;
+                }
+                String key = expr.substring(index + 1, end).trim();
+                index = end + 1;
+                if (key.length() >= 2 && key.charAt(0) == '\''
+                        && key.charAt(key.length() - 1) == '\'') {
+                    // ['key']
+                    key = key.substring(1, key.length() - 1);
+                    if (key.indexOf('\'') >= 0) {
+                        return null;
+                    }
+                    steps.add(new Step(key, true));
+                } else if (key.length() > 0 && key.length() < 10 && isDigits(key)) {
+                    // [5]
+                    steps.add(new Step(Integer.valueOf(key), true));
+                } else if (key.length() > 0 && isKey(key)) {
+                    // [key] 等同于 ['key']
+                    steps.add(new Step(key, true));
+                } else {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return new PropertyExpression(constant, name, steps.toArray(new Step[steps.size()]), test);
+    }
+
+    /**
+     * 求值。
+     *
+     * @param mapVars - 参数表
+     * @param mapConsts - 常量表
+     * @return 表达式的值, 或者 {@link #FALLBACK}
+     * @throws Exception
+     */
+    public Object evaluate(Map<String, ?> mapVars, Map<String, ?> mapConsts) throws Exception {
+        Map<String, ?> map = constant ? mapConsts : mapVars;
+        Object value = map.get(name);
+        if (value == null && !map.containsKey(name)) {
+            if (constant) {
+                throw new IllegalArgumentException("Constant \'" + name
+                        + "\' not defined in DAO class");
+            }
+            throw new IllegalArgumentException("Variable \'" + name
+                    + "\' not defined in DAO method");
+        }
+        for (int i = 0; value != null && i < steps.length; i++) {
+            value = steps[i].get(value);
+            if (value == FALLBACK) {
+                return FALLBACK;
+            }
+        }
+        switch (test) {
+            case IS_NULL:
+                return Boolean.valueOf(value == null);
+            case NOT_NULL:
+                return Boolean.valueOf(value != null);
+            case EMPTY:
+                return Boolean.valueOf(isEmpty(value));
+            case NOT_EMPTY:
+                return Boolean.valueOf(!isEmpty(value));
+            default:
+                return value;
+        }
+    }
+
+    // 与 Jexl 的 empty() 相同
+    private static boolean isEmpty(Object value) {
+        if (value == null) {
+            return true;
+        } else if (value instanceof String) {
+            return ((String) value).length() == 0;
+        } else if (value instanceof Collection<?>) {
+            return ((Collection<?>) value).isEmpty();
+        } else if (value instanceof Map<?, ?>) {
+            return ((Map<?, ?>) value).isEmpty();
+        } else if (value.getClass().isArray()) {
+            return Array.getLength(value) == 0;
+        }
+        return false;
+    }
+
+    private static boolean isNameChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                || ch == '_';
+    }
+
+    private static boolean isKey(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char ch = key.charAt(i);
+            if (!isNameChar(ch) && ch != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigits(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char ch = string.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return string.length() > 0;
+    }
+
+    /**
+     * 一级  .property 或  [key] 访问
+     */
+    private static final class Step {
+
+        // 属性名, 或者  [key] 中的 key(String 或者 Integer)
+        final Object key;
+
+        final boolean index;
+
+        // 上次遇到的类及其访问方法
+        volatile Accessor cached;
+
+        Step(Object key, boolean index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        Object get(Object target) throws Exception {
+            if (index) {
+                return getIndexed(target);
+            }
+            Accessor accessor = cached;
+            if (accessor == null || accessor.type != target.getClass()) {
+                accessor = new Accessor(target.getClass(), findGetter(target.getClass(),
+                    (String) key));
+                cached = accessor;
+            }
+            if (accessor.getter == null) {
+                return FALLBACK;
+            }
+            try {
+                return accessor.getter.invokeExact(target);
+            } catch (Exception e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // 与 Jexl 的  [key] 访问相同
+        private Object getIndexed(Object target) {
+            if (target instanceof Map<?, ?>) {
+                return ((Map<?, ?>) target).get(key);
+            }
+            if (!(key instanceof Integer)) {
+                return FALLBACK;
+            }
+            int i = ((Integer) key).intValue();
+            if (target instanceof List<?>) {
+                List<?> list = (List<?>) target;
+                return i < list.size() ? list.get(i) : null;
+            } else if (target.getClass().isArray()) {
+                return i < Array.getLength(target) ? Array.get(target, i) : null;
+            }
+            return FALLBACK;
+        }
+
+        // 依次查找 getXxx()、isXxx()、get("xxx"), 都没有时返回null
+        private static MethodHandle findGetter(Class<?> type, String property) {
+            String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+            Method method = findMethod(type, "get" + capitalized);
+            if (method == null) {
+                method = findMethod(type, "get" + property);
+            }
+            if (method == null) {
+                method = findMethod(type, "is" + capitalized);
+                if (method != null && method.getReturnType() != boolean.class
+                    && method.getReturnType() != Boolean.class) {
+                    method = null;
+                }
+            }
+            try {
+                if (method != null) {
+                    return unreflect(method).asType(GETTER_TYPE);
+                }
+                method = findMethod(type, "get", Object.class);
+                if (method == null) {
+                    method = findMethod(type, "get", String.class);
+                }
+                if (method != null) {
+                    MethodHandle handle = unreflect(method).asType(
+                        MethodType.methodType(Object.class, Object.class, Object.class));
+                    return MethodHandles.insertArguments(handle, 1, property);
+                }
+            } catch (IllegalAccessException e) {
+                // 交给 Jexl 处理
+            } catch (RuntimeException e) {
+                // 交给 Jexl 处理
+            }
+            return null;
+        }
+
+        private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+            try {
+                Method method = type.getMethod(name, parameterTypes);
+                return Modifier.isStatic(method.getModifiers()) ? null : method;
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        // 优先使用声明在public类或接口上的同一方法, 以免对非public类的方法做 setAccessible
+        private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+            Method accessible = findPublicDeclaration(method.getDeclaringClass(), method);
+            if (accessible == null) {
+                accessible = method;
+                accessible.setAccessible(true);
+            }
+            return MethodHandles.lookup().unreflect(accessible);
+        }
+
+        private static Method findPublicDeclaration(Class<?> type, Method method) {
+            if (type == null) {
+                return null;
+            }
+            if (Modifier.isPublic(type.getModifiers())) {
+                try {
+                    return type.getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    // 继续查找
+                }
+            }
+            for (Class<?> interfaceType : type.getInterfaces()) {
+                Method found = findPublicDeclaration(interfaceType, method);
+                if (found != null) {
+                    return found;
+                }
+            }
+            return findPublicDeclaration(type.getSuperclass(), method);
+        }
+    }
+
+    private static final class Accessor {
+
+        final Class<?> type;
+
+        // 为null表示该类没有对应的属性, 需要交给 Jexl
+        final MethodHandle getter;
+
+        Accessor(Class<?> type, MethodHandle getter) {
+            this.type = type;
+            this.getter = getter;
+        }
+    }
+}
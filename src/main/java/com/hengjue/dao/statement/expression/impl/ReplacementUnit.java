@@ -0,0 +1,125 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import com.hengjue.dao.statement.expression.ExprResolver;
+import com.hengjue.dao.statement.expression.ExqlContext;
+import com.hengjue.dao.statement.expression.ExqlUnit;
+
+/**
+ * 直接拼接替换值的语句单元, 例如: '{table}'、'{:1}' 或者: '##(:table)' 形式的替换。
+ * <p>
+ *
+ * 替换值依次从参数(包括 {name}、{:name}、{1} 几种写法)、常量、DAO属性中查找，都找不到时原样输出。
+ * <p>
+ *
+ * 与先替换再编译整个语句的做法一致，替换值中的 :expr、#if(:expr) {...} 等语法仍然有效：
+ * 这样的替换值被编译(不再识别其中的 {xxx}、##(xxx) 替换)后在当前位置执行。
+ *
+ */
+public class ReplacementUnit implements ExqlUnit {
+
+    // 编译过的替换值
+    private static final BoundedCache<String, ExqlUnit> values = new BoundedCache<String, ExqlUnit>(
+        Integer.getInteger("jade.exql.replacementCacheSize", 256));
+
+    // 原始文本, 找不到替换值时输出
+    private final String text;
+
+    // 依次查找的参数名
+    private final String[] names;
+
+    // 查找的常量名
+    private final String constant;
+
+    // 查找的DAO属性名
+    private final String attribute;
+
+    /**
+     * 构造替换值的语句单元。
+     *
+     * @param key - 花括号或 ##(...) 中的内容
+     * @param text - 包括花括号或 ##(...) 在内的原始文本
+     */
+    public ReplacementUnit(String key, String text) {
+        this.text = text;
+        this.constant = key;
+        if (key.charAt(0) == ':' || key.charAt(0) == '$') {
+            // {:name}
+            this.names = new String[] { key, key.substring(1) };
+        } else if (key.charAt(0) >= '0' && key.charAt(0) <= '9') {
+            // {1}
+            this.names = new String[] { key, ":" + key };
+        } else {
+            this.names = new String[] { key };
+        }
+        this.attribute = text.charAt(0) == '{' ? text : "{" + key + "}";
+    }
+
+    @Override
+    public boolean isValid(ExprResolver exprResolver) {
+
+        // 替换单元始终有效
+        return true;
+    }
+
+    @Override
+    public void fill(ExqlContext exqlContext, ExprResolver exprResolver) throws Exception {
+
+        Object value = null;
+        for (int i = 0; value == null && i < names.length; i++) {
+            value = exprResolver.getVar(names[i]);
+        }
+        if (value == null) {
+            value = exprResolver.getConstant(constant);
+        }
+        if (value == null) {
+            value = exprResolver.getAttribute(attribute);
+        }
+
+        if (value == null) {
+            exqlContext.fillText(text);
+            return;
+        }
+        String string = String.valueOf(value);
+        if (hasSyntax(string)) {
+            // 执行替换值中的表达式
+            compileValue(string).fill(exqlContext, exprResolver);
+        } else {
+            // 直接输出未经转义的替换值
+            exqlContext.fillText(string);
+        }
+    }
+
+    /**
+     * 替换值中是否可能有需要编译的语法。
+     */
+    static boolean hasSyntax(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == ':' || ch == '$' || ch == '#' || ch == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 编译替换值, 其中的 {xxx}、##(xxx) 作为文本。
+     */
+    static ExqlUnit compileValue(String value) {
+        ExqlUnit unit = values.get(value);
+        if (unit == null) {
+            unit = values.put(value, new ExqlCompiler(value, false).compileUnit());
+        }
+        return unit;
+    }
+
+    // 依次查找的参数名
+    String[] getNames() {
+        return names;
+    }
+
+    // 查找的常量名
+    String getConstant() {
+        return constant;
+    }
+}
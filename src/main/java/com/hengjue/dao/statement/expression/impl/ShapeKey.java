@@ -0,0 +1,72 @@
+package com.hengjue.dao.statement.expression.impl;
+
+import java.util.Arrays;
+
+/**
+ * 一次输出的“形状”: 按顺序输出的各部分, 文本(String)或者参数个数(Integer, -1表示空集合)。
+ * <p>
+ *
+ * 形状相同则输出的语句相同(参数可以不同)。查找时直接使用输出上下文中的数组, 放入缓存时才复制。
+ *
+ */
+final class ShapeKey {
+
+    private Object[] parts;
+
+    private int count;
+
+    private int hash;
+
+    /**
+     * 以给定数组的前 count 个元素作为形状(不复制)
+     */
+    void reset(Object[] parts, int count) {
+        this.parts = parts;
+        this.count = count;
+        int hash = 1;
+        for (int i = 0; i < count; i++) {
+            hash = 31 * hash + parts[i].hashCode();
+        }
+        this.hash = hash;
+    }
+
+    /**
+     *
+     * @return 不再引用输出上下文数组的副本, 用于放入缓存
+     */
+    ShapeKey copy() {
+        ShapeKey key = new ShapeKey();
+        key.parts = Arrays.copyOf(parts, count);
+        key.count = count;
+        key.hash = hash;
+        return key;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ShapeKey)) {
+            return false;
+        }
+        ShapeKey other = (ShapeKey) obj;
+        if (hash != other.hash || count != other.count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            // 模板中的文本总是同一个对象, 先比较引用
+            Object a = parts[i];
+            Object b = other.parts[i];
+            if (a != b && !a.equals(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
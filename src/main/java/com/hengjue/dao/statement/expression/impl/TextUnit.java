@@ -35,4 +35,9 @@ public class TextUnit implements ExqlUnit {
         // 输出未经转义的文本
         exqlContext.fillText(text);
     }
+
+    // 输出的文本
+    String getText() {
+        return text;
+    }
 }
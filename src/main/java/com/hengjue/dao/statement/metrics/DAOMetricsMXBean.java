@@ -0,0 +1,38 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.util.List;
+
+/**
+ * 一个DAO的统计数据的JMX接口，ObjectName为 com.hengjue.dao:type=DAOMetrics,name=DAO类名
+ *
+ */
+public interface DAOMetricsMXBean {
+
+    String getDAOClassName();
+
+    /**
+     *
+     * @return 该DAO各个方法的统计快照
+     */
+    List<MetricsSnapshot> getStatements();
+
+    /**
+     * 清空该DAO的统计数据
+     */
+    void reset();
+}
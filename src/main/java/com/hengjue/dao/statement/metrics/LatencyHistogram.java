@@ -0,0 +1,186 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LatencyHistogram} 是一个无锁、分段(striped)记录的延迟直方图，单位为纳秒。
+ * <p>
+ *
+ * 桶按对数-线性划分：每个2的幂区间再等分为16个子桶，所以任何百分位数的相对误差不超过1/16；
+ * 超过2^41纳秒(约36分钟)的值都计入最后一个桶。
+ * <p>
+ *
+ * 每个线程按其id落到一个分段上，分段在第一次使用时才创建，记录时只对分段内的一个计数做原子加；
+ * 读取百分位数时合并所有分段。
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+                                    + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private static final int STRIPE_COUNT = stripeCount();
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(
+        STRIPE_COUNT);
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+        AtomicLongArray counts = stripes.get(stripe);
+        if (counts == null) {
+            stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKET_COUNT));
+            counts = stripes.get(stripe);
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * 清空所有记录；和并发的 {@link #record(long)} 之间没有原子性保证
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes.set(i, null);
+        }
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    /**
+     *
+     * @return 合并所有分段后的各桶计数
+     */
+    long[] counts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                for (int j = 0; j < BUCKET_COUNT; j++) {
+                    counts[j] += stripe.get(j);
+                }
+            }
+        }
+        return counts;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * 求百分位数
+     *
+     * @param percentile 0到1之间，比如0.99
+     * @return 所在桶的上界(不超过记录过的最大值)，没有记录时返回0
+     */
+    public long getPercentile(double percentile) {
+        return percentile(counts(), percentile);
+    }
+
+    /**
+     * 从合并后的计数中求百分位数
+     *
+     * @param counts {@link #counts()} 的返回
+     * @param percentile 0到1之间，比如0.99
+     * @return 所在桶的上界(不超过记录过的最大值)，没有记录时返回0
+     */
+    long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return bucketLowerBound(index + 1) - 1;
+    }
+
+    private static int stripeCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        int count = 1;
+        while (count < processors) {
+            count <<= 1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hengjue.dao.statement.StatementMetaData;
+
+/**
+ * {@link MetricsRegistry} 以 {@link StatementMetaData} 为key登记每个DAO方法的 {@link StatementMetrics}。
+ * <p>
+ *
+ * 设置给 JadeFactory/JadeFactoryBean 后，每个DAO方法的调用次数、失败次数、返回/影响的行数以及延迟都会被记录下来；
+ * 默认每个DAO在JMX中注册一个 {@link DAOMetricsMXBean}，还可以通过 {@link #addSink(MetricsSink)}
+ * 将统计数据定时输出到其它地方。
+ *
+ */
+public class MetricsRegistry {
+
+    private static final Log logger = LogFactory.getLog(MetricsRegistry.class);
+
+    /**
+     * 注册到JMX的ObjectName的domain
+     */
+    public static final String JMX_DOMAIN = "com.hengjue.dao";
+
+    private final ConcurrentHashMap<StatementMetaData, StatementMetrics> metrics = new ConcurrentHashMap<StatementMetaData, StatementMetrics>();
+
+    private final ConcurrentHashMap<Class<?>, DAOMetrics> daoMetrics = new ConcurrentHashMap<Class<?>, DAOMetrics>();
+
+    private final List<MetricsSink> sinks = new CopyOnWriteArrayList<MetricsSink>();
+
+    private boolean jmxEnabled = true;
+
+    private ScheduledExecutorService scheduler;
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * 是否为每个DAO注册一个 {@link DAOMetricsMXBean}，默认为true；须在创建DAO前设置
+     *
+     * @param jmxEnabled
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public void addSink(MetricsSink sink) {
+        this.sinks.add(sink);
+    }
+
+    public void setSinks(List<MetricsSink> sinks) {
+        this.sinks.clear();
+        this.sinks.addAll(sinks);
+    }
+
+    /**
+     * 返回给定DAO方法的统计，第一次调用时创建之(并为其所在的DAO注册JMX)
+     *
+     * @param metaData
+     * @return
+     */
+    public StatementMetrics getMetrics(StatementMetaData metaData) {
+        StatementMetrics statementMetrics = metrics.get(metaData);
+        if (statementMetrics == null) {
+            statementMetrics = metrics.computeIfAbsent(metaData, this::createMetrics);
+        }
+        return statementMetrics;
+    }
+
+    private StatementMetrics createMetrics(StatementMetaData metaData) {
+        StatementMetrics statementMetrics = new StatementMetrics(metaData);
+        Class<?> daoClass = metaData.getDAOMetaData().getDAOClass();
+        DAOMetrics dao = daoMetrics.get(daoClass);
+        if (dao == null) {
+            DAOMetrics created = new DAOMetrics(daoClass);
+            dao = daoMetrics.putIfAbsent(daoClass, created);
+            if (dao == null) {
+                dao = created;
+                if (jmxEnabled) {
+                    registerMBean(dao);
+                }
+            }
+        }
+        dao.statements.add(statementMetrics);
+        return statementMetrics;
+    }
+
+    /**
+     *
+     * @return 所有DAO方法的统计快照
+     */
+    public List<MetricsSnapshot> snapshots() {
+        List<MetricsSnapshot> snapshots = new ArrayList<MetricsSnapshot>(metrics.size());
+        for (StatementMetrics statementMetrics : metrics.values()) {
+            snapshots.add(statementMetrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * 将所有DAO方法的统计快照输出给各个 {@link MetricsSink}
+     */
+    public void report() {
+        if (sinks.isEmpty()) {
+            return;
+        }
+        List<MetricsSnapshot> snapshots = snapshots();
+        for (MetricsSink sink : sinks) {
+            try {
+                sink.report(snapshots);
+            } catch (RuntimeException e) {
+                logger.error("failed to report metrics to " + sink, e);
+            }
+        }
+    }
+
+    /**
+     * 按给定的周期在后台线程定时调用 {@link #report()}
+     *
+     * @param period
+     * @param unit
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jade-metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                report();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * 停止定时输出，并注销所注册的JMX
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (DAOMetrics dao : daoMetrics.values()) {
+            if (dao.registered) {
+                try {
+                    server.unregisterMBean(dao.objectName);
+                    dao.registered = false;
+                } catch (Exception e) {
+                    logger.warn("failed to unregister " + dao.objectName, e);
+                }
+            }
+        }
+    }
+
+    private void registerMBean(DAOMetrics dao) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(dao, dao.objectName);
+            dao.registered = true;
+        } catch (InstanceAlreadyExistsException e) {
+            // 同一个DAO被多个JadeFactory创建时，只有第一个会被注册
+            if (logger.isDebugEnabled()) {
+                logger.debug("ignored duplicated " + dao.objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("failed to register " + dao.objectName, e);
+        }
+    }
+
+    /**
+     * 返回给定DAO在JMX中的ObjectName
+     *
+     * @param daoClass
+     * @return
+     */
+    public static ObjectName getObjectName(Class<?> daoClass) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=DAOMetrics,name=" + daoClass.getName());
+        } catch (Exception e) {
+            throw new IllegalArgumentException(daoClass.getName(), e);
+        }
+    }
+
+    private static class DAOMetrics implements DAOMetricsMXBean {
+
+        private final Class<?> daoClass;
+
+        private final ObjectName objectName;
+
+        private final List<StatementMetrics> statements = new CopyOnWriteArrayList<StatementMetrics>();
+
+        // 是否由本registry注册到了JMX
+        private volatile boolean registered;
+
+        DAOMetrics(Class<?> daoClass) {
+            this.daoClass = daoClass;
+            this.objectName = getObjectName(daoClass);
+        }
+
+        @Override
+        public String getDAOClassName() {
+            return daoClass.getName();
+        }
+
+        @Override
+        public List<MetricsSnapshot> getStatements() {
+            List<MetricsSnapshot> snapshots = new ArrayList<MetricsSnapshot>(statements.size());
+            for (StatementMetrics statementMetrics : statements) {
+                snapshots.add(statementMetrics.snapshot());
+            }
+            return snapshots;
+        }
+
+        @Override
+        public void reset() {
+            for (StatementMetrics statementMetrics : statements) {
+                statementMetrics.reset();
+            }
+        }
+    }
+}
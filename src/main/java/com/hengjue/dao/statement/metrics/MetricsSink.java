@@ -0,0 +1,33 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.util.List;
+
+/**
+ * 统计数据的输出接口，由 {@link MetricsRegistry#report()} 调用(或由
+ * {@link MetricsRegistry#start(long, java.util.concurrent.TimeUnit)} 定时调用)，
+ * 可以将快照写到日志、监控系统等
+ *
+ */
+public interface MetricsSink {
+
+    /**
+     *
+     * @param snapshots 所有DAO方法的统计快照
+     */
+    void report(List<MetricsSnapshot> snapshots);
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * {@link StatementMetrics} 在某一时刻的只读快照，时间单位均为纳秒
+ *
+ */
+public class MetricsSnapshot {
+
+    private final String statement;
+
+    private final long calls;
+
+    private final long errors;
+
+    private final long rowsReturned;
+
+    private final long rowsAffected;
+
+    private final int distinctStatements;
+
+    private final long meanNanos;
+
+    private final long maxNanos;
+
+    private final long p50Nanos;
+
+    private final long p99Nanos;
+
+    private final long p999Nanos;
+
+    @ConstructorProperties({ "statement", "calls", "errors", "rowsReturned", "rowsAffected",
+                             "distinctStatements", "meanNanos", "maxNanos", "p50Nanos",
+                             "p99Nanos", "p999Nanos" })
+    public MetricsSnapshot(String statement, long calls, long errors, long rowsReturned,
+                           long rowsAffected, int distinctStatements, long meanNanos,
+                           long maxNanos, long p50Nanos, long p99Nanos, long p999Nanos) {
+        this.statement = statement;
+        this.calls = calls;
+        this.errors = errors;
+        this.rowsReturned = rowsReturned;
+        this.rowsAffected = rowsAffected;
+        this.distinctStatements = distinctStatements;
+        this.meanNanos = meanNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    /**
+     *
+     * @return DAO方法，形如 com.yourcompany.dao.UserDAO#getById
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRowsReturned() {
+        return rowsReturned;
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    /**
+     *
+     * @return 该方法产生过的不同SQL语句个数(IN (...) 参数个数不同、#if分支不同等)，最多统计到1024
+     * @see com.hengjue.dao.annotation.InListBuckets
+     */
+    public int getDistinctStatements() {
+        return distinctStatements;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return statement + "[calls=" + calls + ", errors=" + errors + ", rowsReturned="
+               + rowsReturned + ", rowsAffected=" + rowsAffected + ", distinctStatements="
+               + distinctStatements + ", meanNanos=" + meanNanos
+               + ", maxNanos=" + maxNanos + ", p50Nanos=" + p50Nanos + ", p99Nanos=" + p99Nanos
+               + ", p999Nanos=" + p999Nanos + "]";
+    }
+}
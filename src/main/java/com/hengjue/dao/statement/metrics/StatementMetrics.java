@@ -0,0 +1,146 @@
+/*
+ * Copyright 2009-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License i distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hengjue.dao.statement.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.hengjue.dao.statement.StatementMetaData;
+
+/**
+ * 一个DAO方法的统计：调用次数、失败次数、返回/影响的行数、产生的不同SQL语句个数以及延迟直方图
+ *
+ * @see MetricsRegistry#getMetrics(StatementMetaData)
+ */
+public class StatementMetrics {
+
+    private final StatementMetaData metaData;
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder rowsReturned = new LongAdder();
+
+    private final LongAdder rowsAffected = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // 最多记录的不同SQL语句个数，超过后不再增加
+    private static final int MAX_STATEMENTS = 1024;
+
+    // 产生过的SQL语句的64位哈希值；不保留语句本身，每个方法最多占用 MAX_STATEMENTS 个 Long
+    private final ConcurrentHashMap<Long, Boolean> statements = new ConcurrentHashMap<Long, Boolean>();
+
+    // 上一次记录的语句；按形状缓存的语句是同一个对象，比较引用即可跳过哈希计算
+    private volatile String lastStatement;
+
+    public StatementMetrics(StatementMetaData metaData) {
+        this.metaData = metaData;
+    }
+
+    public StatementMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * 记录一次调用
+     *
+     * @param nanos 耗时(纳秒)
+     * @param error 是否失败
+     */
+    public void record(long nanos, boolean error) {
+        calls.increment();
+        if (error) {
+            errors.increment();
+        }
+        latency.record(nanos);
+    }
+
+    public void addRowsReturned(long rows) {
+        rowsReturned.add(rows);
+    }
+
+    public void addRowsAffected(long rows) {
+        rowsAffected.add(rows);
+    }
+
+    /**
+     * 记录一次调用实际执行的SQL语句，用于统计该方法产生的不同语句个数
+     *
+     * @param sql 解析后的SQL语句
+     */
+    public void addStatement(String sql) {
+        if (sql == null || sql == lastStatement || statements.size() >= MAX_STATEMENTS) {
+            return;
+        }
+        lastStatement = sql;
+        Long hash = hash64(sql);
+        if (!statements.containsKey(hash)) {
+            statements.putIfAbsent(hash, Boolean.TRUE);
+        }
+    }
+
+    // 64位 FNV-1a 哈希，1024 个语句内碰撞的概率可以忽略
+    private static long hash64(String sql) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sql.length(); i++) {
+            hash ^= sql.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     *
+     * @return 产生过的不同SQL语句个数，最多统计到1024
+     */
+    public int getDistinctStatements() {
+        return statements.size();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        rowsReturned.reset();
+        rowsAffected.reset();
+        latency.reset();
+        statements.clear();
+        lastStatement = null;
+    }
+
+    /**
+     *
+     * @return 当前统计的一个只读快照
+     */
+    public MetricsSnapshot snapshot() {
+        long[] counts = latency.counts();
+        long calls = this.calls.sum();
+        return new MetricsSnapshot(metaData.toString(), calls, errors.sum(), rowsReturned.sum(),
+            rowsAffected.sum(), statements.size(), calls == 0 ? 0 : latency.getTotalNanos() / calls,
+            latency.getMaxNanos(), latency.percentile(counts, 0.5),
+            latency.percentile(counts, 0.99), latency.percentile(counts, 0.999));
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
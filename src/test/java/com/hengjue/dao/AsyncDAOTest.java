@@ -0,0 +1,105 @@
+package com.hengjue.dao;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.annotation.SQLParam;
+import com.hengjue.dao.context.application.JadeFactory;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证返回 CompletableFuture 的异步DAO方法
+ *
+ */
+public class AsyncDAOTest {
+
+    @DAO
+    interface ItemDAO {
+
+        @SQL("create table item (id int, name varchar(200));")
+        void createTable();
+
+        @SQL("insert into item (id, name) values(:1, :2);")
+        CompletableFuture<Integer> insert(int id, String name);
+
+        @SQL("delete from item where id=:1")
+        CompletableFuture<Void> delete(int id);
+
+        @SQL("select name from item where id=:id")
+        CompletableFuture<String> getName(@SQLParam("id") int id);
+
+        @SQL("select name from item order by id")
+        CompletableFuture<List<String>> findNames();
+
+        @SQL("select count(*) from item")
+        CompletableFuture<Long> count();
+    }
+
+    @Test
+    public void test() throws Exception {
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        ItemDAO dao = factory.create(ItemDAO.class);
+        dao.createTable();
+
+        CompletableFuture<Integer> first = dao.insert(1, "apple");
+        CompletableFuture<Integer> second = dao.insert(2, "banana");
+        Assert.assertEquals(Integer.valueOf(1), first.get());
+        Assert.assertEquals(Integer.valueOf(1), second.get());
+
+        CompletableFuture<String> name = dao.getName(2);
+        CompletableFuture<List<String>> names = dao.findNames();
+        Assert.assertEquals("banana", name.get());
+        Assert.assertEquals(2, names.get().size());
+        Assert.assertEquals("apple", names.get().get(0));
+        Assert.assertNull(dao.getName(3).get());
+
+        Assert.assertNull(dao.delete(1).get());
+        Assert.assertEquals(Long.valueOf(1), dao.count().get());
+
+        // 关闭之后不再接受异步调用
+        factory.close();
+        try {
+            dao.count();
+            Assert.fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testInTransaction() throws Exception {
+        DataSource dataSource = DataSources.createUniqueDataSource();
+        JadeFactory factory = new JadeFactory(dataSource);
+        final ItemDAO dao = factory.create(ItemDAO.class);
+        dao.createTable();
+        // 异步DAO方法不会参与事务, 在事务中调用时报错
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+            .execute(new TransactionCallback<Object>() {
+
+                @Override
+                public Object doInTransaction(TransactionStatus status) {
+                    try {
+                        dao.insert(1, "apple");
+                        Assert.fail();
+                    } catch (InvalidDataAccessApiUsageException expected) {
+                    }
+                    return null;
+                }
+            });
+        Assert.assertEquals(Long.valueOf(0), dao.count().get());
+        factory.close();
+    }
+}
@@ -0,0 +1,270 @@
+package com.hengjue.dao;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.beans.TypeMismatchException;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.RowHandler;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.context.application.JadeFactory;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证Bean的映射计划：不同形状的结果集、下划线列名、类型转换、null值、多线程共享同一个mapper，
+ * 以及按构造函数参数、字段的映射
+ *
+ */
+public class BeanPropertyRowMapperTest {
+
+    public enum Status {
+        ACTIVE, CLOSED
+    }
+
+    public static class Account {
+
+        private int id;
+
+        private long balance;
+
+        private double rate;
+
+        private boolean locked;
+
+        private String ownerName;
+
+        private Status status;
+
+        private Integer level;
+
+        // 没有setter的字段不映射，也不要求结果集中有对应的列
+        private String display;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        public void setBalance(long balance) {
+            this.balance = balance;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public void setRate(double rate) {
+            this.rate = rate;
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+
+        public void setLocked(boolean locked) {
+            this.locked = locked;
+        }
+
+        public String getOwnerName() {
+            return ownerName;
+        }
+
+        public void setOwnerName(String ownerName) {
+            this.ownerName = ownerName;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+
+        public Integer getLevel() {
+            return level;
+        }
+
+        public void setLevel(Integer level) {
+            this.level = level;
+        }
+
+        public String getDisplay() {
+            return display;
+        }
+    }
+
+    /**
+     * 不可变的值对象：按构造函数参数名绑定列
+     */
+    public static class AccountValue {
+
+        private final int id;
+
+        private final String ownerName;
+
+        private final Status status;
+
+        @ConstructorProperties({ "id", "ownerName", "status" })
+        public AccountValue(int id, String ownerName, Status status) {
+            this.id = id;
+            this.ownerName = ownerName;
+            this.status = status;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getOwnerName() {
+            return ownerName;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * 按构造函数映射，其余没有setter的字段直接注入(transient的除外)
+     */
+    public static class AccountFields {
+
+        final int id;
+
+        private long balance;
+
+        private transient long cached = -1;
+
+        @ConstructorProperties({ "id" })
+        public AccountFields(int id) {
+            this.id = id;
+        }
+
+        public long balance() {
+            return balance;
+        }
+    }
+
+    @DAO
+    interface AccountDAO {
+
+        @SQL("create table account (id int, balance bigint, rate double, locked boolean, owner_name varchar(100), status varchar(10), level int)")
+        void createTable();
+
+        @SQL("insert into account values (:1, :2, 0.5, false, :3, 'ACTIVE', null)")
+        void insert(int id, Long balance, String ownerName);
+
+        @SQL("select id, balance, rate, locked, owner_name, status, level from account order by id")
+        List<Account> findAll();
+
+        @SQL("select owner_name, id from account order by id")
+        List<Account> findNames();
+
+        @SQL("select id, balance from account order by id")
+        List<Account> findBalances();
+
+        @SQL("select status, owner_name, id from account where id = :1")
+        AccountValue getValue(int id);
+
+        @SQL("select id, owner_name from account where id = :1")
+        AccountValue getValueWithoutStatus(int id);
+
+        @RowHandler(checkColumns = false)
+        @SQL("select id, balance, balance as cached from account where id = :1")
+        AccountFields getFields(int id);
+
+        @RowHandler(checkProperties = true)
+        @SQL("select id, balance, rate, locked, owner_name, status, level from account where id = :1")
+        Account getChecked(int id);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final AccountDAO dao = new JadeFactory(DataSources.createUniqueDataSource())
+            .create(AccountDAO.class);
+        dao.createTable();
+        for (int i = 1; i <= 100; i++) {
+            dao.insert(i, i * 100L, "owner" + i);
+        }
+
+        Account account = dao.findAll().get(1);
+        Assert.assertEquals(2, account.getId());
+        Assert.assertEquals(200L, account.getBalance());
+        Assert.assertEquals(0.5, account.getRate(), 0.0);
+        Assert.assertFalse(account.isLocked());
+        Assert.assertEquals("owner2", account.getOwnerName());
+        Assert.assertEquals(Status.ACTIVE, account.getStatus());
+        Assert.assertNull(account.getLevel());
+
+        // 同一个mapper交替映射不同形状的结果集
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 40; i++) {
+                final boolean names = i % 2 == 0;
+                futures.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        List<Account> accounts = names ? dao.findNames() : dao.findBalances();
+                        for (int j = 0; j < accounts.size(); j++) {
+                            Account account = accounts.get(j);
+                            if (account.getId() != j + 1) {
+                                return false;
+                            }
+                            if (names ? !("owner" + (j + 1)).equals(account.getOwnerName())
+                                    || account.getBalance() != 0 : account.getOwnerName() != null
+                                    || account.getBalance() != (j + 1) * 100L) {
+                                return false;
+                            }
+                        }
+                        return accounts.size() == 100;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        AccountValue value = dao.getValue(3);
+        Assert.assertEquals(3, value.getId());
+        Assert.assertEquals("owner3", value.getOwnerName());
+        Assert.assertEquals(Status.ACTIVE, value.getStatus());
+        // 没有对应列的参数传入null
+        Assert.assertNull(dao.getValueWithoutStatus(3).getStatus());
+        AccountFields fields = dao.getFields(4);
+        Assert.assertEquals(4, fields.id);
+        Assert.assertEquals(400L, fields.balance());
+        Assert.assertEquals(-1L, fields.cached);
+        Assert.assertEquals(4, dao.getChecked(4).getId());
+        Assert.assertNull(dao.getChecked(4).getDisplay());
+
+        // null不能设置到primitive属性
+        dao.insert(101, null, "owner101");
+        try {
+            dao.findBalances();
+            Assert.fail();
+        } catch (TypeMismatchException e) {
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.hengjue.dao;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.annotation.SQLParam;
+import com.hengjue.dao.context.GeneratedDAOSupport;
+import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.statement.BoundParameters;
+import com.hengjue.dao.statement.Statement;
+import com.hengjue.dao.statement.StatementMetaData;
+import com.hengjue.dao.statement.StatementWrapperProvider;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证运行时生成的DAO实现类与Proxy行为一致
+ *
+ */
+public class GeneratedDAOTest {
+
+    @DAO
+    public interface ItemDAO {
+
+        @SQL("create table item (id int, name varchar(200), price double);")
+        void createTable();
+
+        @SQL("insert into item (id, name, price) values(:1, :2, :3);")
+        int insert(int id, String name, double price);
+
+        @SQL("select count(*) from item")
+        long count();
+
+        @SQL("select name from item where id=:id")
+        String getName(@SQLParam("id") int id);
+
+        @SQL("select price from item where id=:id")
+        double getPrice(@SQLParam("id") long id);
+
+        @SQL("select name from item order by id")
+        List<String> findNames();
+    }
+
+    @Test
+    public void test() {
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setGenerateDAOClass(true);
+        ItemDAO dao = factory.create(ItemDAO.class);
+        Assert.assertTrue(dao instanceof GeneratedDAOSupport);
+        Assert.assertFalse(Proxy.isProxyClass(dao.getClass()));
+
+        dao.createTable();
+        Assert.assertEquals(1, dao.insert(1, "apple", 1.5));
+        Assert.assertEquals(1, dao.insert(2, "banana", 2.25));
+        Assert.assertEquals(2L, dao.count());
+        Assert.assertEquals("banana", dao.getName(2));
+        Assert.assertEquals(1.5, dao.getPrice(1L), 0.0);
+        Assert.assertEquals(2, dao.findNames().size());
+        Assert.assertEquals("apple", dao.findNames().get(0));
+
+        Assert.assertEquals(dao, dao);
+        Assert.assertNotNull(dao.toString());
+    }
+
+    @DAO
+    public interface TypesDAO {
+
+        @SQL("select 1 from item")
+        Object find(boolean z, char c, byte b, short s, int i, float f, long j, double d,
+                    @SQLParam("name") String name);
+
+        @SQL("insert into item (id) values(:1)")
+        int[] insert(List<Integer> ids);
+    }
+
+    @Test
+    public void testParameters() {
+        // 生成的参数表按类型保存参数, 取出时装箱
+        final Map<?, ?>[] captured = new Map<?, ?>[1];
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setGenerateDAOClass(true);
+        factory.setStatementWrapperProvider(new StatementWrapperProvider() {
+
+            @Override
+            public Statement wrap(final Statement statement) {
+                return new Statement() {
+
+                    @Override
+                    public StatementMetaData getMetaData() {
+                        return statement.getMetaData();
+                    }
+
+                    @Override
+                    public Object execute(Map<String, Object> parameters) {
+                        captured[0] = parameters;
+                        return statement.execute(parameters);
+                    }
+                };
+            }
+        });
+        TypesDAO dao = factory.create(TypesDAO.class);
+        ItemDAO items = factory.create(ItemDAO.class);
+        items.createTable();
+        dao.find(true, 'c', (byte) 1, (short) 2, 3, 4.5f, 6L, 7.5, "n");
+        BoundParameters parameters = (BoundParameters) captured[0];
+        Assert.assertTrue(parameters.getClass().getName().contains("$$JadeDAO$Parameters"));
+        Assert.assertEquals(Arrays.<Object> asList(true, 'c', (byte) 1, (short) 2, 3, 4.5f, 6L,
+            7.5, "n"), Arrays.asList(parameters.get(":1"), parameters.get(":2"),
+            parameters.get(":3"), parameters.get(":4"), parameters.get(":5"),
+            parameters.get(":6"), parameters.get(":7"), parameters.get(":8"),
+            parameters.get("name")));
+        Assert.assertEquals(10, parameters.size());
+        Assert.assertEquals(Integer.valueOf(9), parameters.replace(4, 9).get(":5"));
+        Assert.assertEquals(Integer.valueOf(3), parameters.get(":5"));
+        try {
+            parameters.getAt(9);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        // 批量更新替换第1个参数
+        Assert.assertEquals(3, dao.insert(Arrays.asList(1, 2, 3)).length);
+        Assert.assertEquals(3L, items.count());
+    }
+
+    @DAO
+    public interface CheckedDAO {
+
+        @SQL("select count(*) from item")
+        long count() throws IOException;
+
+        @SQL("select count(*) from item")
+        long countUndeclared();
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        // 声明的受检异常原样抛出, 未声明的包装为UndeclaredThrowableException, 与Proxy一致
+        for (boolean generate : new boolean[] { true, false }) {
+            JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+            factory.setGenerateDAOClass(generate);
+            factory.setStatementWrapperProvider(new StatementWrapperProvider() {
+
+                @Override
+                public Statement wrap(final Statement statement) {
+                    return new Statement() {
+
+                        @Override
+                        public StatementMetaData getMetaData() {
+                            return statement.getMetaData();
+                        }
+
+                        @Override
+                        public Object execute(Map<String, Object> parameters) {
+                            return GeneratedDAOTest.<RuntimeException> sneakyThrow(new IOException());
+                        }
+                    };
+                }
+            });
+            CheckedDAO dao = factory.create(CheckedDAO.class);
+            Assert.assertEquals(generate, dao instanceof GeneratedDAOSupport);
+            try {
+                dao.count();
+                Assert.fail();
+            } catch (IOException e) {
+            }
+            try {
+                dao.countUndeclared();
+                Assert.fail();
+            } catch (UndeclaredThrowableException e) {
+                Assert.assertTrue(e.getUndeclaredThrowable() instanceof IOException);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> Object sneakyThrow(Throwable e) throws T {
+        throw (T) e;
+    }
+
+    @Test
+    public void testFallback() {
+        // 非public的DAO接口仍然使用Proxy
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setGenerateDAOClass(true);
+        Object dao = factory.create(SelectTest.UserDAO.class);
+        Assert.assertTrue(Proxy.isProxyClass(dao.getClass()));
+    }
+}
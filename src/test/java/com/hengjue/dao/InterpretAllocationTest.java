@@ -0,0 +1,154 @@
+package com.hengjue.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.annotation.SQLParam;
+import com.hengjue.dao.statement.DAOConfig;
+import com.hengjue.dao.statement.DAOMetaData;
+import com.hengjue.dao.statement.DefaultInterpreterFactory;
+import com.hengjue.dao.statement.StatementMetaData;
+import com.hengjue.dao.statement.StatementRuntimeImpl;
+import com.hengjue.dao.statement.SystemInterpreter;
+import com.hengjue.dao.statement.expression.impl.ExqlPatternImpl;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证SQL的解析流程, 并测量解析每次调用分配的字节数(运行时输出, 只对明显的退化做断言)
+ *
+ */
+public class InterpretAllocationTest {
+
+    @DAO
+    public interface UserDAO {
+
+        String TABLE = "user_1";
+
+        boolean SHARDED = false;
+
+        @SQL("select id, name from user where id=:1 and name=:2")
+        List<Object> findStatic(long id, String name);
+
+        @SQL("select id, name from user where id in (:1) #if(:2 != null) {and name=:2}")
+        List<Object> findDynamic(List<Long> ids, String name);
+
+        @SQL("select id, name from {TABLE} where id=:1 {and name=:2}?")
+        List<Object> findReplaced(long id, String name);
+
+        @SQL("select count(*) from user where name like 'a%' and 1::int = 1")
+        int countConstant();
+
+        @SQL("select id from {TABLE} where id=:1 #if($SHARDED) {and shard=:2} #else {and name=:2}")
+        List<Object> findFolded(long id, String name);
+
+        @SQL("select id from {TABLE} where id=:1")
+        List<Object> findShadowed(long id, @SQLParam("TABLE") String table);
+
+        @SQL("select id from $TABLE where id=:1")
+        List<Object> findJoined(long id);
+    }
+
+    private static final int WARMUP = 20000;
+
+    private static final int CALLS = 100000;
+
+    @Test
+    public void testInterpreters() throws Exception {
+        DAOMetaData daoMetaData = new DAOMetaData(UserDAO.class,
+            new DAOConfig(null, null, null, null, null));
+        DefaultInterpreterFactory factory = new DefaultInterpreterFactory();
+        // 没有任何替换和表达式的SQL不需要解析
+        Assert.assertEquals(0, factory.getInterpreters(
+            new StatementMetaData(daoMetaData, UserDAO.class.getMethod("countConstant"))).length);
+        Assert.assertEquals(1, factory.getInterpreters(new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findStatic", long.class, String.class))).length);
+    }
+
+    @Test
+    public void testConstantFolding() throws Exception {
+        DAOMetaData daoMetaData = new DAOMetaData(UserDAO.class,
+            new DAOConfig(null, null, null, null, null));
+        // {TABLE}替换为常量值, 只依赖常量的#if只保留成立的分支
+        StatementMetaData folded = new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findFolded", long.class, String.class));
+        Assert.assertEquals("select id from user_1 where id=? and name=?",
+            ((ExqlPatternImpl) folded.getSQLPattern()).getStaticSQL());
+        // $TABLE同样替换为常量值
+        StatementMetaData joined = new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findJoined", long.class));
+        Assert.assertEquals("select id from user_1 where id=?",
+            ((ExqlPatternImpl) joined.getSQLPattern()).getStaticSQL());
+
+        // 同名的参数优先于常量, 不能化简
+        StatementMetaData shadowed = new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findShadowed", long.class, String.class));
+        Assert.assertNull(((ExqlPatternImpl) shadowed.getSQLPattern()).getStaticSQL());
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(":1", 1L);
+        parameters.put(":2", "user_2");
+        parameters.put("TABLE", "user_2");
+        StatementRuntimeImpl runtime = new StatementRuntimeImpl(shadowed, parameters);
+        new SystemInterpreter().interpret(runtime);
+        Assert.assertEquals("select id from user_2 where id=?", runtime.getSQL());
+    }
+
+    @Test
+    public void testAllocation() throws Exception {
+        DAOMetaData daoMetaData = new DAOMetaData(UserDAO.class,
+            new DAOConfig(null, null, null, null, null));
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(":1", 1L);
+        parameters.put(":2", "name");
+        long staticBytes = measure(new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findStatic", long.class, String.class)), parameters);
+        long replacedBytes = measure(new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findReplaced", long.class, String.class)), parameters);
+        parameters.put(":1", Arrays.asList(1L, 2L, 3L));
+        long dynamicBytes = measure(new StatementMetaData(daoMetaData,
+            UserDAO.class.getMethod("findDynamic", List.class, String.class)), parameters);
+        if (staticBytes >= 0) {
+            Assert.assertTrue("static: " + staticBytes, staticBytes < 256);
+            Assert.assertTrue("dynamic: " + dynamicBytes, dynamicBytes < 512);
+            Assert.assertTrue("replaced: " + replacedBytes, replacedBytes < 512);
+        }
+    }
+
+    // 返回每次调用分配的字节数, JVM不支持时返回-1
+    private static long measure(StatementMetaData metaData, Map<String, Object> parameters) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported()
+                || !threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        SystemInterpreter interpreter = new SystemInterpreter();
+        long threadId = Thread.currentThread().getId();
+        String sql = null;
+        for (int i = 0; i < WARMUP; i++) {
+            StatementRuntimeImpl runtime = new StatementRuntimeImpl(metaData, parameters);
+            interpreter.interpret(runtime);
+            sql = runtime.getSQL();
+        }
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CALLS; i++) {
+            StatementRuntimeImpl runtime = new StatementRuntimeImpl(metaData, parameters);
+            interpreter.interpret(runtime);
+            sql = runtime.getSQL();
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+        Assert.assertNotNull(sql);
+        return (after - before) / CALLS;
+    }
+}
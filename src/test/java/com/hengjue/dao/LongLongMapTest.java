@@ -0,0 +1,60 @@
+package com.hengjue.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.hengjue.dao.dataAccess.LongLongMap;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 用随机的put、remove对照 HashMap 验证 LongLongMap
+ *
+ */
+public class LongLongMapTest {
+
+    @Test
+    public void test() {
+        Random random = new Random(42);
+        LongLongMap map = new LongLongMap(0);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < 100000; i++) {
+            // 取值范围小，使put、remove经常命中已有的key(包括0)
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                Long old = expected.remove(key);
+                Assert.assertEquals(old == null ? 0 : old.longValue(), map.remove(key));
+            } else {
+                long value = random.nextLong();
+                Long old = expected.put(key, value);
+                Assert.assertEquals(old == null ? 0 : old.longValue(), map.put(key, value));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (long key = -1000; key < 1000; key++) {
+            Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+            Assert.assertEquals(expected.containsKey(key) ? expected.get(key) : -1L,
+                map.getOrDefault(key, -1L));
+        }
+        long[] keys = map.keys();
+        long[] values = map.values();
+        Assert.assertEquals(expected.size(), keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(expected.get(keys[i]).longValue(), values[i]);
+        }
+
+        LongLongMap copy = new LongLongMap();
+        for (int i = 0; i < keys.length; i++) {
+            copy.put(keys[i], values[i]);
+        }
+        Assert.assertEquals(map, copy);
+        Assert.assertEquals(map.hashCode(), copy.hashCode());
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey(0));
+    }
+}
@@ -0,0 +1,133 @@
+package com.hengjue.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.InListBuckets;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.statement.metrics.LatencyHistogram;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
+import com.hengjue.dao.statement.metrics.MetricsSnapshot;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证DAO方法的调用统计
+ *
+ */
+public class MetricsTest {
+
+    @DAO
+    interface CounterDAO {
+
+        @SQL("create table counter (id int);")
+        void createTable();
+
+        @SQL("insert into counter (id) values(:1);")
+        int insert(int id);
+
+        @SQL("select id from counter order by id")
+        List<Integer> findAll();
+
+        @SQL("select id from no_such_table")
+        List<Integer> findBad();
+
+        @SQL("select id from counter where id in (:1) order by id")
+        List<Integer> findByIds(List<Integer> ids);
+
+        @InListBuckets
+        @SQL("select id from counter where id in (:1) order by id")
+        List<Integer> findByIdsInBuckets(List<Integer> ids);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertAbout(500000L, histogram.getPercentile(0.5));
+        assertAbout(990000L, histogram.getPercentile(0.99));
+        assertAbout(999000L, histogram.getPercentile(0.999));
+        Assert.assertEquals(1000000L, histogram.getPercentile(1.0));
+        Assert.assertEquals(1000000L, histogram.getMaxNanos());
+    }
+
+    // 直方图的相对误差不超过1/16
+    private static void assertAbout(long expected, long actual) {
+        Assert.assertTrue(expected + " ~ " + actual,
+            Math.abs(actual - expected) <= expected / 16);
+    }
+
+    @Test
+    public void testDAO() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setMetricsRegistry(registry);
+        CounterDAO dao = factory.create(CounterDAO.class);
+        dao.createTable();
+        for (int i = 0; i < 10; i++) {
+            dao.insert(i);
+        }
+        Assert.assertEquals(10, dao.findAll().size());
+        try {
+            dao.findBad();
+            Assert.fail();
+        } catch (RuntimeException expected) {
+        }
+
+        MetricsSnapshot insert = null;
+        MetricsSnapshot findAll = null;
+        MetricsSnapshot findBad = null;
+        for (MetricsSnapshot snapshot : registry.snapshots()) {
+            if (snapshot.getStatement().endsWith("#insert")) {
+                insert = snapshot;
+            } else if (snapshot.getStatement().endsWith("#findAll")) {
+                findAll = snapshot;
+            } else if (snapshot.getStatement().endsWith("#findBad")) {
+                findBad = snapshot;
+            }
+        }
+        Assert.assertEquals(10, insert.getCalls());
+        Assert.assertEquals(10, insert.getRowsAffected());
+        Assert.assertEquals(0, insert.getErrors());
+        Assert.assertTrue(insert.getP50Nanos() > 0);
+        Assert.assertTrue(insert.getP50Nanos() <= insert.getP99Nanos());
+        Assert.assertTrue(insert.getP99Nanos() <= insert.getMaxNanos());
+        Assert.assertEquals(1, findAll.getCalls());
+        Assert.assertEquals(10, findAll.getRowsReturned());
+        Assert.assertEquals(1, findBad.getErrors());
+        Assert.assertEquals(1, insert.getDistinctStatements());
+
+        // 1到10个id: 不补齐时产生10种语句, 补齐到2的幂时只有1、2、4、8、16五种
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(i);
+            Assert.assertEquals(ids, dao.findByIds(ids));
+            Assert.assertEquals(ids, dao.findByIdsInBuckets(ids));
+        }
+        for (MetricsSnapshot snapshot : registry.snapshots()) {
+            if (snapshot.getStatement().endsWith("#findByIds")) {
+                Assert.assertEquals(10, snapshot.getDistinctStatements());
+            } else if (snapshot.getStatement().endsWith("#findByIdsInBuckets")) {
+                Assert.assertEquals(5, snapshot.getDistinctStatements());
+            }
+        }
+
+        CompositeData[] statements = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(MetricsRegistry.getObjectName(CounterDAO.class), "Statements");
+        Assert.assertEquals(6, statements.length);
+        registry.close();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+            .isRegistered(MetricsRegistry.getObjectName(CounterDAO.class)));
+    }
+}
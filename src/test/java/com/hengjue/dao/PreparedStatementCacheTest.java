@@ -0,0 +1,225 @@
+package com.hengjue.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+
+import com.hengjue.dao.dataAccess.DataAccessImpl;
+import com.hengjue.dao.dataAccess.PreparedStatementCache;
+
+import junit.framework.Assert;
+
+/**
+ * 
+ * 每次执行只预编译一次语句; 开启缓存后同一连接上重复执行的语句不再预编译
+ *
+ */
+public class PreparedStatementCacheTest {
+
+    private static final int CALLS = 10;
+
+    @Test
+    public void testWithoutCache() throws Exception {
+        AtomicInteger prepares = new AtomicInteger();
+        DataAccessImpl dataAccess = new DataAccessImpl(createDataSource(prepares), 0);
+        Assert.assertNull(dataAccess.getStatementCache());
+        selectAll(dataAccess);
+        Assert.assertEquals(CALLS, prepares.get());
+    }
+
+    @Test
+    public void testWithCache() throws Exception {
+        AtomicInteger prepares = new AtomicInteger();
+        DataAccessImpl dataAccess = new DataAccessImpl(createDataSource(prepares), 16);
+        PreparedStatementCache cache = dataAccess.getStatementCache();
+        selectAll(dataAccess);
+        Assert.assertEquals(1, prepares.get());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(CALLS - 1, cache.getHitCount());
+
+        // 返回自增主键与否分开缓存
+        for (int i = 0; i < 2; i++) {
+            GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+            dataAccess.update("insert into user (name) values (?)", new Object[] { "x" },
+                keyHolder);
+            Assert.assertNotNull(keyHolder.getKey());
+            dataAccess.update("insert into user (name) values (?)", new Object[] { "y" }, null);
+        }
+        Assert.assertEquals(3, prepares.get());
+        Assert.assertEquals(CALLS + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testWithPool() throws Exception {
+        // 连接池每次返回新的包装对象, 按物理连接缓存仍然命中
+        AtomicInteger prepares = new AtomicInteger();
+        DataAccessImpl dataAccess = new DataAccessImpl(new PooledDataSource(
+            createConnection(prepares)), 16);
+        PreparedStatementCache cache = dataAccess.getStatementCache();
+        selectAll(dataAccess);
+        Assert.assertEquals(1, prepares.get());
+        Assert.assertEquals(CALLS - 1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getConnectionCount());
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        // 默认设置的批量更新也使用缓存
+        AtomicInteger prepares = new AtomicInteger();
+        DataAccessImpl dataAccess = new DataAccessImpl(createDataSource(prepares), 16);
+        PreparedStatementCache cache = dataAccess.getStatementCache();
+        List<Object[]> batchArgs = new ArrayList<Object[]>();
+        batchArgs.add(new Object[] { "a" });
+        batchArgs.add(new Object[] { "b" });
+        for (int i = 0; i < 2; i++) {
+            int[] updated = dataAccess.batchUpdate("insert into user (name) values (?)",
+                batchArgs);
+            Assert.assertEquals(2, updated.length);
+        }
+        Assert.assertEquals(1, prepares.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(CALLS + 4, dataAccess.select("select id from user", null,
+            new SingleColumnRowMapper<Integer>(Integer.class)).size());
+    }
+
+    @Test
+    public void testClosedConnectionsDiscarded() throws Exception {
+        // 登记新连接时丢弃已关闭的连接
+        PreparedStatementCache cache = new PreparedStatementCache(16);
+        String sql = "select id from user";
+        Connection first = createConnection(new AtomicInteger());
+        PreparedStatement ps = cache.prepareStatement(first, sql, false);
+        Assert.assertFalse(Proxy.isProxyClass(ps.getClass()));
+        ps.close();
+        Assert.assertTrue(ps.isClosed());
+        Assert.assertEquals(1, cache.getConnectionCount());
+        first.close();
+
+        Connection second = createConnection(new AtomicInteger());
+        cache.prepareStatement(second, sql, false).close();
+        Assert.assertEquals(1, cache.getConnectionCount());
+        cache.prepareStatement(second, sql, false).close();
+        Assert.assertEquals(1, cache.getHitCount());
+        second.close();
+    }
+
+    private void selectAll(DataAccessImpl dataAccess) {
+        for (int i = 0; i < CALLS; i++) {
+            List<Integer> ids = dataAccess.select("select id from user where name=?",
+                new Object[] { "u" + i }, new SingleColumnRowMapper<Integer>(Integer.class));
+            Assert.assertEquals(1, ids.size());
+        }
+    }
+
+    // 每次返回同一个连接对象的数据源, 记录预编译的次数
+    private DataSource createDataSource(final AtomicInteger prepares) throws Exception {
+        return new SingleConnectionDataSource(createConnection(prepares), true);
+    }
+
+    private Connection createConnection(final AtomicInteger prepares) throws Exception {
+        final Connection target = DataSources.createUniqueDataSource().getConnection();
+        target.createStatement().execute("create table user (id int generated by default"
+                                         + " as identity primary key, name varchar(20))");
+        for (int i = 0; i < CALLS; i++) {
+            target.createStatement().execute("insert into user (name) values ('u" + i + "')");
+        }
+        Connection counting = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("prepareStatement")) {
+                        prepares.incrementAndGet();
+                    } else if (method.getName().equals("isWrapperFor")) {
+                        // 作为驱动的物理连接, 不再unwrap
+                        return false;
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                }
+            });
+        return counting;
+    }
+
+    /**
+     * 只有一个物理连接的连接池: 与Hikari等一样, 每次取出时返回新的包装对象,
+     * 归还时关闭经它创建的语句, unwrap 返回物理连接
+     */
+    private static class PooledDataSource extends SingleConnectionDataSource {
+
+        private final Connection physical;
+
+        PooledDataSource(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+                    private final List<Statement> statements = new ArrayList<Statement>();
+
+                    private boolean closed;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("close")) {
+                            closed = true;
+                            for (Statement statement : statements) {
+                                statement.close();
+                            }
+                            return null;
+                        } else if (name.equals("isClosed")) {
+                            return closed;
+                        } else if (name.equals("unwrap")) {
+                            return physical;
+                        } else if (name.equals("isWrapperFor")) {
+                            return true;
+                        }
+                        Object result;
+                        try {
+                            result = method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                        if (result instanceof Statement) {
+                            statements.add((Statement) result);
+                        }
+                        return result;
+                    }
+                });
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return null;
+        }
+    }
+}
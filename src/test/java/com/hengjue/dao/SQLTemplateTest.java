@@ -0,0 +1,346 @@
+package com.hengjue.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.hengjue.dao.statement.expression.ExqlPattern;
+import com.hengjue.dao.statement.expression.ExqlUnit;
+import com.hengjue.dao.statement.expression.impl.BoundedCache;
+import com.hengjue.dao.statement.expression.impl.ExqlCompiler;
+import com.hengjue.dao.statement.expression.impl.ExprResolverImpl;
+import com.hengjue.dao.statement.expression.impl.ExqlClassGenerator;
+import com.hengjue.dao.statement.expression.impl.ExqlContextImpl;
+import com.hengjue.dao.statement.expression.impl.ExqlPatternImpl;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证@SQL的编译和输出
+ *
+ */
+public class SQLTemplateTest {
+
+    private ExqlContextImpl render(String sql, Map<String, Object> vars,
+                                   Map<String, Object> consts) throws Exception {
+        ExqlPattern pattern = new ExqlCompiler(sql).compile();
+        ExqlContextImpl context = new ExqlContextImpl();
+        pattern.execute(context, vars, consts,
+            Collections.<String, Object> singletonMap("{attr}", "attr_value"));
+        return context;
+    }
+
+    @Test
+    public void testReplacement() throws Exception {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("table", "user_1");
+        vars.put(":1", 5);
+        Map<String, Object> consts = new HashMap<String, Object>();
+        consts.put("COLUMNS", "id, name");
+        ExqlContextImpl context = render(
+            "select {COLUMNS} from ##(:table) where id={1} and x={attr} and y={unknown}", vars,
+            consts);
+        Assert.assertEquals("select id, name from user_1 where id=5 and x=attr_value and y={unknown}",
+            context.flushOut());
+        Assert.assertEquals(0, context.getArgs().length);
+    }
+
+    @Test
+    public void testExpressions() throws Exception {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("table", "user_1");
+        vars.put("name", "n");
+        vars.put("ids", Arrays.asList(1, 2, 3));
+        vars.put("flag", Boolean.FALSE);
+        ExqlContextImpl context = render("select a::int from {table} where name=:name"
+                                         + " #if(:flag) {and flag=1} #else {and flag=0}"
+                                         + " {and age=:age}? {and t='{table}'}?"
+                                         + " #for(id in :ids) { or id=:id}",
+            vars, new HashMap<String, Object>());
+        Assert.assertEquals("select a::int from user_1 where name=?"
+                            + " and flag=0 "
+                            + " and t='user_1'"
+                            + "  or id=? or id=? or id=?",
+            context.flushOut());
+        Assert.assertEquals(Arrays.asList("n", 1, 2, 3), Arrays.asList(context.getArgs()));
+    }
+
+    @Test
+    public void testReplacementSyntax() throws Exception {
+        // 替换值中的表达式与先替换再编译整个语句时一样执行
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("cond", "id=:id #if(:flag) {and flag=1} #else {and flag=0}");
+        vars.put("order", "{name}");
+        vars.put("name", "n");
+        vars.put("id", 5);
+        vars.put("flag", Boolean.FALSE);
+        Map<String, Object> consts = new HashMap<String, Object>();
+        consts.put("BY_NAME", "name=:name");
+        ExqlContextImpl context = render(
+            "select * from t where ##(:cond) and {BY_NAME} order by {order}", vars, consts);
+        // 替换值中的 {xxx} 不再替换
+        Assert.assertEquals("select * from t where id=? and flag=0 and name=? order by {name}",
+            context.flushOut());
+        Assert.assertEquals(Arrays.asList(5, "n"), Arrays.asList(context.getArgs()));
+
+        // 常量化简时同样编译常量值
+        ExqlPatternImpl folded = ((ExqlPatternImpl) new ExqlCompiler(
+            "select * from t where {BY_NAME}").compile()).fold(consts, Arrays.asList("name"));
+        context = new ExqlContextImpl();
+        folded.execute(context, vars);
+        Assert.assertEquals("select * from t where name=?", context.flushOut());
+        Assert.assertEquals(Arrays.asList("n"), Arrays.asList(context.getArgs()));
+    }
+
+    @Test
+    public void testElseAfterWhitespace() throws Exception {
+        // #if 的右花括号与 #else 之间可以有空白, 包括换行
+        Map<String, Object> vars = Collections.<String, Object> singletonMap("flag", Boolean.FALSE);
+        for (String space : new String[] { "", " ", "\t", "\n  " }) {
+            ExqlContextImpl context = render("a #if(:flag) {b}" + space + "#else {c} d", vars,
+                new HashMap<String, Object>());
+            Assert.assertEquals("a c d", context.flushOut());
+        }
+        // 没有 #if 的 #else 原样输出
+        Assert.assertEquals("a #else {c}",
+            render("a #else {c}", vars, new HashMap<String, Object>()).flushOut());
+    }
+
+    @Test
+    public void testShapes() throws Exception {
+        ExqlPattern pattern = new ExqlCompiler("select * from t where id=:1 and a in (:2)").compile();
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put(":1", 1);
+        vars.put(":2", 2);
+        ExqlContextImpl first = new ExqlContextImpl();
+        pattern.execute(first, vars);
+        ExqlContextImpl second = new ExqlContextImpl();
+        pattern.execute(second, vars);
+        // 语句不变, 不用每次生成
+        Assert.assertEquals("select * from t where id=? and a in (?)", first.flushOut());
+        Assert.assertSame(first.flushOut(), second.flushOut());
+
+        // 集合参数按大小缓存
+        vars.put(":2", Arrays.asList(1, 2));
+        ExqlContextImpl third = new ExqlContextImpl();
+        pattern.execute(third, vars);
+        vars.put(":2", Arrays.asList(3, 4));
+        ExqlContextImpl fourth = new ExqlContextImpl();
+        pattern.execute(fourth, vars);
+        Assert.assertEquals("select * from t where id=? and a in (?,?)", third.flushOut());
+        Assert.assertSame(third.flushOut(), fourth.flushOut());
+        Assert.assertEquals(Arrays.asList(1, 3, 4), Arrays.asList(fourth.getArgs()));
+        vars.put(":2", Collections.emptyList());
+        ExqlContextImpl fifth = new ExqlContextImpl();
+        pattern.execute(fifth, vars);
+        Assert.assertEquals("select * from t where id=? and a in (NULL)", fifth.flushOut());
+    }
+
+    @Test
+    public void testBoundedCache() {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(8);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, String.valueOf(i));
+            // 最近放入的总是可以取到
+            Assert.assertEquals(String.valueOf(i), cache.get(i));
+        }
+        Assert.assertEquals(8, cache.size());
+        Assert.assertEquals(92, cache.getEvictionCount());
+        Assert.assertEquals(100, cache.getHitCount());
+        Assert.assertNull(cache.get(-1));
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // 时钟指针保持位置: 依次放入新的条目时, 原有的条目都会被淘汰, 而不是反复淘汰新放入的
+        cache = new BoundedCache<Integer, String>(8);
+        for (int i = 0; i < 8; i++) {
+            cache.put(i, String.valueOf(i));
+        }
+        for (int i = 100; i < 108; i++) {
+            cache.put(i, String.valueOf(i));
+        }
+        for (int i = 0; i < 8; i++) {
+            Assert.assertNull(cache.get(i));
+            Assert.assertEquals(String.valueOf(100 + i), cache.get(100 + i));
+        }
+    }
+
+    public static class Bean {
+
+        int itemsCalls;
+
+        public List<Integer> getItems() {
+            itemsCalls++;
+            return Arrays.asList(1, 2);
+        }
+
+        public String getName() {
+            return "bean";
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public Map<String, Object> getProps() {
+            return Collections.<String, Object> singletonMap("k", "v");
+        }
+    }
+
+    @Test
+    public void testPropertyExpressions() throws Exception {
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("bean", new Bean());
+        vars.put(":1", new int[] { 7, 8 });
+        vars.put("list", Arrays.asList("a", "b"));
+        vars.put("empty", Collections.emptyList());
+        vars.put("nothing", null);
+        Map<String, Object> consts = Collections.<String, Object> singletonMap("LIMIT", 10);
+        ExprResolverImpl resolver = new ExprResolverImpl(vars, consts);
+        Assert.assertEquals("bean", resolver.executeExpr(":bean.name"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr(":bean.active"));
+        Assert.assertEquals("v", resolver.executeExpr(":bean.props.k"));
+        Assert.assertEquals("v", resolver.executeExpr(":bean.props[k]"));
+        Assert.assertEquals(8, resolver.executeExpr(":1[1]"));
+        Assert.assertNull(resolver.executeExpr(":1[5]"));
+        Assert.assertEquals("b", resolver.executeExpr(":list[1]"));
+        Assert.assertEquals(10, resolver.executeExpr("$LIMIT"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr(":nothing == null"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr(":nothing.name == null"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr("null != :bean"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr("empty(:empty)"));
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr("!empty(:list)"));
+        // 不支持的表达式和属性仍由 Jexl 处理
+        Assert.assertEquals(Boolean.TRUE, resolver.executeExpr("$LIMIT > 5"));
+        Assert.assertEquals(2, resolver.executeExpr(":list.size()"));
+        Assert.assertNull(resolver.executeExpr(":bean.unknown"));
+        try {
+            resolver.executeExpr(":undefined.name");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Variable 'undefined' not defined in DAO method", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEvaluateOnce() throws Exception {
+        Bean bean = new Bean();
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put("bean", bean);
+        ExqlContextImpl context = render("select * from t where 1=1"
+                                         + " {and a in (:bean.items)}?"
+                                         + " #if(:bean.items) { #for(x in :bean.items) { or b=:x}}",
+            vars, new HashMap<String, Object>());
+        Assert.assertEquals("select * from t where 1=1 and a in (?,?)   or b=? or b=?",
+            context.flushOut());
+        Assert.assertEquals(Arrays.asList(1, 2, 1, 2), Arrays.asList(context.getArgs()));
+        // 检查和输出共用一次求值
+        Assert.assertEquals(1, bean.itemsCalls);
+    }
+
+    // 对比生成的类与单元树的输出
+    private static final String[] TEMPLATES = {
+            "select id, name from user where id=:1 and name=:2",
+            "select * from t where id=:1 and a in (:2)",
+            "select {COLUMNS} from ##(:table) where id={1} and x={attr} and y={unknown}",
+            "select a::int from {table} where name=:name #if(:flag) {and flag=1} #else {and flag=0}"
+                    + " {and age=:age}? {and t='{table}'}? #for(id in :ids) { or id=:id}",
+            "select * from t where 1=1 {and a in (:ids)}? #if(:ids) { #for(x in :ids) { or b=:x}}",
+            "select * from t where 1=1 #if(:name != null) {and name=:name #if(:flag) {and f=1}}"
+                    + " {and a=:age and b=:name}? #for(:ids) { or c=:_loop} order by $COLUMNS",
+            "update t set a=:1 {, b=:age}? #if(empty(:ids)) {where 1=0} #else {where id in (:ids)}",
+            "create table t (id int)" };
+
+    @Test
+    public void testGeneratedUnits() throws Exception {
+        Map<String, Object> consts = new HashMap<String, Object>();
+        consts.put("COLUMNS", "id, name");
+        List<Map<String, Object>> varsList = new java.util.ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 4; i++) {
+            Map<String, Object> vars = new HashMap<String, Object>();
+            vars.put(":1", i);
+            vars.put(":2", i % 2 == 0 ? "n" : Arrays.asList(1, 2));
+            vars.put("table", "user_" + i);
+            vars.put("name", i % 2 == 0 ? null : "n" + i);
+            vars.put("flag", i > 1);
+            vars.put("age", i == 3 ? null : i);
+            vars.put("ids", i == 0 ? Collections.emptyList() : Arrays.asList(1, 2, 3).subList(0, i));
+            varsList.add(vars);
+        }
+        Map<String, Object> attrs = Collections.<String, Object> singletonMap("{attr}", "v");
+        for (String template : TEMPLATES) {
+            ExqlUnit unit = ((ExqlPatternImpl) new ExqlCompiler(template).compile()).getUnit();
+            ExqlUnit generated = ExqlClassGenerator.generate(template, unit);
+            Assert.assertNotNull(template, generated);
+            Assert.assertNotSame(unit, generated);
+            // 第二次使用缓存的类
+            ExqlUnit cached = ExqlClassGenerator.generate(template,
+                ((ExqlPatternImpl) new ExqlCompiler(template).compile()).getUnit());
+            Assert.assertSame(generated.getClass(), cached.getClass());
+            for (Map<String, Object> vars : varsList) {
+                ExqlContextImpl expected = new ExqlContextImpl();
+                String expectedError = null;
+                try {
+                    unit.fill(expected, new ExprResolverImpl(vars, consts, attrs));
+                } catch (Exception e) {
+                    expectedError = e.getClass().getName();
+                }
+                ExqlContextImpl actual = new ExqlContextImpl();
+                String actualError = null;
+                try {
+                    cached.fill(actual, new ExprResolverImpl(vars, consts, attrs));
+                } catch (Exception e) {
+                    actualError = e.getClass().getName();
+                }
+                String message = template + " " + vars;
+                Assert.assertEquals(message, expectedError, actualError);
+                Assert.assertEquals(message, expected.flushOut(), actual.flushOut());
+                Assert.assertEquals(message, Arrays.asList(expected.getArgs()),
+                    Arrays.asList(actual.getArgs()));
+                Assert.assertEquals(message, unit.isValid(new ExprResolverImpl(vars, consts)),
+                    cached.isValid(new ExprResolverImpl(vars, consts)));
+            }
+        }
+    }
+
+    @Test
+    public void testGeneratedFoldedUnits() throws Exception {
+        // 同一语句用不同DAO的常量化简后, 生成的类输出各自的常量
+        String template = "select * from {TABLE} where #if(:1 > 0){id=:1}#else{id=0}";
+        Map<String, Object> vars = Collections.<String, Object> singletonMap(":1", 1);
+        for (String table : new String[] { "a", "b", "a" }) {
+            ExqlPatternImpl folded = ((ExqlPatternImpl) new ExqlCompiler(template).compile())
+                .fold(Collections.singletonMap("TABLE", table), Arrays.asList(":1"));
+            ExqlUnit generated = ExqlClassGenerator.generate(template, folded.getUnit());
+            ExqlContextImpl context = new ExqlContextImpl();
+            generated.fill(context, new ExprResolverImpl(vars));
+            Assert.assertEquals("select * from " + table + " where id=?", context.flushOut());
+        }
+    }
+
+    @Test
+    public void testGeneratedUnitsByTree() throws Exception {
+        // 同一语句传入结构不同的单元树时, 各自生成类, 不使用对方的类和原单元
+        String pattern = "select * from t where #if(:1 > 0){id=:1}#else{id=0}";
+        ExqlUnit first = ((ExqlPatternImpl) new ExqlCompiler(
+            "select * from a where #if(:1 > 0){id=:1}#else{id=0} {and b=:2}?").compile()).getUnit();
+        ExqlUnit second = ((ExqlPatternImpl) new ExqlCompiler(
+            "select * from b where #if(:1 > 0){id=:1} {and c=:2}? {and d=:2}?").compile()).getUnit();
+        ExqlUnit firstGenerated = ExqlClassGenerator.generate(pattern, first);
+        ExqlUnit secondGenerated = ExqlClassGenerator.generate(pattern, second);
+        Assert.assertNotSame(firstGenerated.getClass(), secondGenerated.getClass());
+        Map<String, Object> vars = new HashMap<String, Object>();
+        vars.put(":1", 1);
+        vars.put(":2", 2);
+        ExqlContextImpl context = new ExqlContextImpl();
+        secondGenerated.fill(context, new ExprResolverImpl(vars));
+        Assert.assertEquals("select * from b where id=? and c=? and d=?", context.flushOut());
+        context = new ExqlContextImpl();
+        firstGenerated.fill(context, new ExprResolverImpl(vars));
+        Assert.assertEquals("select * from a where id=? and b=?", context.flushOut());
+    }
+}
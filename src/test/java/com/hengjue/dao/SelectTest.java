@@ -8,17 +8,23 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
 
 import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.KeyColumnOfMap;
 import com.hengjue.dao.annotation.SQL;
 import com.hengjue.dao.annotation.SQLParam;
 import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.dataAccess.LongLongMap;
+import com.hengjue.dao.rowMapper.Row;
 
 import junit.framework.Assert;
 
@@ -77,6 +83,43 @@ public class SelectTest {
         @SQL("select name from user where id=:id")
         String getUserName(@SQLParam("id") long id);
 
+        @SQL("select id, name from user order by id")
+        User[] findAllAsArray();
+
+        @SQL("select id from user order by id")
+        long[] findIds();
+
+        @SQL("select id from user order by id")
+        int[] findIntIds();
+
+        @SQL("select id / 2.0 from user order by id")
+        double[] findHalfIds();
+
+        @SQL("select id * 10, id from user")
+        LongLongMap findIdsByTen();
+
+        @KeyColumnOfMap("id")
+        @SQL("select id * 10, id from user")
+        LongLongMap findTensById();
+
+        @SQL("select name from user")
+        Set<String> findNames();
+
+        @SQL("select id, name from user order by id")
+        Iterator<User> findAllAsIterator();
+
+        @SQL("select id, name from user where id > :1")
+        User findAfter(long id);
+
+        @SQL("select id from user where name = :1")
+        long getIdByName(String name);
+
+        @SQL("select id, name from user order by id")
+        List<Row> findRows();
+
+        @SQL("select id, name from user where id = :1")
+        Row getRow(long id);
+
     }
 
     public static class User {
@@ -198,6 +241,91 @@ public class SelectTest {
 
 
 
+    @Test
+    public void testArrayAndSingleResult() {
+        UserDAO dao = getUserDAO();
+        // 超过数组的初始长度
+        List<User> users = new ArrayList<User>();
+        for (int i = 1; i <= 40; i++) {
+            User user = new User();
+            user.id = i;
+            user.name = "user" + i;
+            users.add(user);
+        }
+        dao.insert(users);
+
+        User[] array = dao.findAllAsArray();
+        Assert.assertEquals(40, array.length);
+        Assert.assertEquals(users.get(39), array[39]);
+        long[] ids = dao.findIds();
+        Assert.assertEquals(40, ids.length);
+        Assert.assertEquals(40L, ids[39]);
+        Assert.assertEquals(40, dao.findIntIds()[39]);
+        Assert.assertEquals(20.0, dao.findHalfIds()[39], 0.0);
+        LongLongMap idsByTen = dao.findIdsByTen();
+        Assert.assertEquals(40, idsByTen.size());
+        Assert.assertEquals(7L, idsByTen.get(70L));
+        Assert.assertEquals(70L, dao.findTensById().get(7L));
+        Assert.assertEquals(40, dao.findNames().size());
+        Assert.assertEquals(users.get(0), dao.findAllAsIterator().next());
+
+        Assert.assertEquals(users.get(39), dao.findAfter(39));
+        Assert.assertNull(dao.findAfter(40));
+        try {
+            dao.findAfter(37);
+            Assert.fail();
+        } catch (IncorrectResultSizeDataAccessException e) {
+            Assert.assertEquals(3, e.getActualSize());
+        }
+        Assert.assertEquals(7L, dao.getIdByName("user7"));
+        try {
+            dao.getIdByName("none");
+            Assert.fail();
+        } catch (EmptyResultDataAccessException e) {
+        }
+    }
+
+    @Test
+    public void testRows() {
+        UserDAO dao = getUserDAO();
+        List<User> users = new ArrayList<User>();
+        for (int i = 1; i <= 3; i++) {
+            User user = new User();
+            user.id = i;
+            user.name = "user" + i;
+            users.add(user);
+        }
+        dao.insert(users);
+
+        List<Row> rows = dao.findRows();
+        Assert.assertEquals(3, rows.size());
+        Row row = rows.get(1);
+        // 列名不区分大小写, 按列的顺序遍历
+        Assert.assertEquals("user2", row.get("name"));
+        Assert.assertEquals(row.get("NAME"), row.get("Name"));
+        Assert.assertEquals(2, ((Number) row.get("id")).intValue());
+        Assert.assertEquals("ID", row.keySet().iterator().next().toUpperCase());
+        Assert.assertSame(row.getColumnNames(), rows.get(0).getColumnNames());
+        Map<String, Object> expected = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            expected.put(entry.getKey(), entry.getValue());
+        }
+        Assert.assertEquals(expected, row);
+        Assert.assertEquals(expected.hashCode(), row.hashCode());
+
+        // 放入新的key不影响同一结果集的其他行
+        row.put("name", "renamed");
+        row.put("extra", 1);
+        Assert.assertEquals("renamed", row.get("NAME"));
+        Assert.assertEquals(1, row.get("EXTRA"));
+        Assert.assertEquals(3, row.size());
+        Assert.assertEquals(2, rows.get(0).size());
+        Assert.assertEquals("user1", rows.get(0).get("name"));
+
+        Assert.assertEquals("user3", dao.getRow(3).get("name"));
+        Assert.assertNull(dao.getRow(4));
+    }
+
     /**
      * @return
      */
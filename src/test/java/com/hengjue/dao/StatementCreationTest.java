@@ -0,0 +1,96 @@
+package com.hengjue.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.statement.Statement;
+import com.hengjue.dao.statement.StatementWrapperProvider;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证每个DAO方法的Statement只创建一次, 包括并发的第一次调用和预热
+ *
+ */
+public class StatementCreationTest {
+
+    @DAO
+    interface CounterDAO {
+
+        @SQL("create table counter (id int);")
+        void createTable();
+
+        @SQL("select count(*) from counter")
+        long count();
+    }
+
+    @Test
+    public void testConcurrentFirstCalls() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setStatementWrapperProvider(new StatementWrapperProvider() {
+
+            @Override
+            public Statement wrap(Statement statement) {
+                created.incrementAndGet();
+                return statement;
+            }
+        });
+        final CounterDAO dao = factory.create(CounterDAO.class);
+        dao.createTable();
+        Assert.assertEquals(1, created.get());
+
+        int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<Long>() {
+
+                @Override
+                public Long call() throws Exception {
+                    start.await();
+                    return dao.count();
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Long> future : futures) {
+            Assert.assertEquals(Long.valueOf(0), future.get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testWarmUp() {
+        final AtomicInteger created = new AtomicInteger();
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setWarmUp(true);
+        factory.setStatementWrapperProvider(new StatementWrapperProvider() {
+
+            @Override
+            public Statement wrap(Statement statement) {
+                created.incrementAndGet();
+                return statement;
+            }
+        });
+        CounterDAO dao = factory.create(CounterDAO.class);
+        Assert.assertEquals(2, created.get());
+        dao.createTable();
+        Assert.assertEquals(0L, dao.count());
+        Assert.assertEquals(2, created.get());
+    }
+}
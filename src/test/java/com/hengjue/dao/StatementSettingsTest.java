@@ -0,0 +1,79 @@
+package com.hengjue.dao;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.FetchSize;
+import com.hengjue.dao.annotation.MaxRows;
+import com.hengjue.dao.annotation.QueryTimeout;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.dataAccess.StatementSettings;
+import com.hengjue.dao.statement.DAOConfig;
+import com.hengjue.dao.statement.DAOMetaData;
+import com.hengjue.dao.statement.StatementMetaData;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证 @FetchSize、@MaxRows、@QueryTimeout 的取值顺序(方法、DAO接口、DAOConfig), 以及maxRows对查询结果的限制
+ *
+ */
+public class StatementSettingsTest {
+
+    @DAO
+    @MaxRows(5)
+    @QueryTimeout(30)
+    interface ItemDAO {
+
+        @SQL("create table item (id int, name varchar(200));")
+        void createTable();
+
+        @QueryTimeout(10)
+        @SQL("insert into item (id, name) values(:1, 'item');")
+        int[] insert(List<Integer> ids);
+
+        @SQL("select id from item order by id")
+        List<Integer> findIds();
+
+        @MaxRows(2)
+        @FetchSize(100)
+        @SQL("select id from item order by id")
+        List<Integer> findFirstTwo();
+
+        @MaxRows(0)
+        @SQL("select count(*) from item")
+        int count();
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        DAOConfig config = new DAOConfig(null, null, null, null, null);
+        config.setStatementSettings(new StatementSettings(50, 0, 60));
+        DAOMetaData daoMetaData = new DAOMetaData(ItemDAO.class, config);
+        Assert.assertEquals(new StatementSettings(50, 5, 30), new StatementMetaData(daoMetaData,
+            ItemDAO.class.getMethod("findIds")).getStatementSettings());
+        Assert.assertEquals(new StatementSettings(100, 2, 30), new StatementMetaData(daoMetaData,
+            ItemDAO.class.getMethod("findFirstTwo")).getStatementSettings());
+        Assert.assertEquals(new StatementSettings(50, 0, 30), new StatementMetaData(daoMetaData,
+            ItemDAO.class.getMethod("count")).getStatementSettings());
+        Assert.assertEquals(new StatementSettings(50, 5, 10), new StatementMetaData(daoMetaData,
+            ItemDAO.class.getMethod("insert", List.class)).getStatementSettings());
+    }
+
+    @Test
+    public void testMaxRows() throws Exception {
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setStatementSettings(new StatementSettings(20, 0, 0));
+        ItemDAO dao = factory.create(ItemDAO.class);
+        dao.createTable();
+        Assert.assertEquals(8, dao.insert(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)).length);
+        Assert.assertEquals(8, dao.count());
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), dao.findIds());
+        Assert.assertEquals(Arrays.asList(1, 2), dao.findFirstTwo());
+    }
+}
@@ -0,0 +1,233 @@
+package com.hengjue.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.hengjue.dao.annotation.DAO;
+import com.hengjue.dao.annotation.SQL;
+import com.hengjue.dao.context.application.JadeFactory;
+import com.hengjue.dao.dataAccess.CloseableIterator;
+import com.hengjue.dao.statement.metrics.MetricsRegistry;
+import com.hengjue.dao.statement.metrics.MetricsSnapshot;
+
+import junit.framework.Assert;
+
+/**
+ *
+ * 验证返回 Stream、CloseableIterator 以及带 Consumer 参数的方法逐行读取结果, 读完或关闭后释放连接
+ *
+ */
+public class StreamTest {
+
+    @DAO
+    interface ItemDAO {
+
+        @SQL("create table item (id int, name varchar(200));")
+        void createTable();
+
+        @SQL("insert into item (id, name) values(:1, :2);")
+        int insert(int id, String name);
+
+        @SQL("select id from item where id > :1 order by id")
+        Stream<Integer> streamIds(int from);
+
+        @SQL("select name from item order by id")
+        CloseableIterator<String> iterateNames();
+
+        @SQL("select name from item where id > :1 order by id")
+        int forEachName(int from, Consumer<String> consumer);
+
+        @SQL("select id from item")
+        void forEachId(Consumer<Long> consumer);
+    }
+
+    @Test
+    public void test() throws Exception {
+        final AtomicInteger openConnections = new AtomicInteger();
+        ItemDAO dao = new JadeFactory(countConnections(DataSources.createUniqueDataSource(),
+            openConnections)).create(ItemDAO.class);
+        dao.createTable();
+        for (int i = 1; i <= 100; i++) {
+            dao.insert(i, "item" + i);
+        }
+        Assert.assertEquals(0, openConnections.get());
+
+        // 关闭Stream时释放连接
+        try (Stream<Integer> ids = dao.streamIds(90)) {
+            Assert.assertEquals(1, openConnections.get());
+            List<Integer> list = ids.limit(3).collect(Collectors.toList());
+            Assert.assertEquals(91, list.get(0).intValue());
+            Assert.assertEquals(3, list.size());
+        }
+        Assert.assertEquals(0, openConnections.get());
+
+        // 读完时自动释放连接
+        Iterator<String> names = dao.iterateNames();
+        int count = 0;
+        while (names.hasNext()) {
+            Assert.assertEquals("item" + (++count), names.next());
+            Assert.assertEquals(1, openConnections.get());
+        }
+        Assert.assertEquals(100, count);
+        Assert.assertEquals(0, openConnections.get());
+
+        try (CloseableIterator<String> it = dao.iterateNames()) {
+            Assert.assertEquals("item1", it.next());
+        }
+        Assert.assertEquals(0, openConnections.get());
+    }
+
+    @Test
+    public void testMetricsOnClose() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        JadeFactory factory = new JadeFactory(DataSources.createUniqueDataSource());
+        factory.setMetricsRegistry(registry);
+        ItemDAO dao = factory.create(ItemDAO.class);
+        dao.createTable();
+        for (int i = 1; i <= 10; i++) {
+            dao.insert(i, "item" + i);
+        }
+
+        // 关闭之前还在读取结果，不记录调用
+        Stream<Integer> ids = dao.streamIds(0);
+        CloseableIterator<String> names = dao.iterateNames();
+        Assert.assertEquals(0, getCalls(registry, "#streamIds"));
+        Assert.assertEquals(0, getCalls(registry, "#iterateNames"));
+        ids.close();
+        ids.close();
+        Assert.assertEquals(1, getCalls(registry, "#streamIds"));
+        while (names.hasNext()) {
+            names.next();
+        }
+        names.close();
+        Assert.assertEquals(1, getCalls(registry, "#iterateNames"));
+        registry.close();
+    }
+
+    private static long getCalls(MetricsRegistry registry, String method) {
+        for (MetricsSnapshot snapshot : registry.snapshots()) {
+            if (snapshot.getStatement().endsWith(method)) {
+                return snapshot.getCalls();
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testReleaseOnRuntimeException() throws Exception {
+        final AtomicInteger openConnections = new AtomicInteger();
+        final AtomicBoolean failPrepare = new AtomicBoolean();
+        ItemDAO dao = new JadeFactory(countConnections(DataSources.createUniqueDataSource(),
+            openConnections, failPrepare)).create(ItemDAO.class);
+        dao.createTable();
+        failPrepare.set(true);
+        try {
+            dao.iterateNames();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals(0, openConnections.get());
+    }
+
+    @Test
+    public void testConsumer() throws Exception {
+        final AtomicInteger openConnections = new AtomicInteger();
+        ItemDAO dao = new JadeFactory(countConnections(DataSources.createUniqueDataSource(),
+            openConnections)).create(ItemDAO.class);
+        dao.createTable();
+        for (int i = 1; i <= 10; i++) {
+            dao.insert(i, "item" + i);
+        }
+        final List<String> names = new ArrayList<String>();
+        Assert.assertEquals(3, dao.forEachName(7, new Consumer<String>() {
+
+            @Override
+            public void accept(String name) {
+                names.add(name);
+            }
+        }));
+        Assert.assertEquals("[item8, item9, item10]", names.toString());
+        Assert.assertEquals(0, openConnections.get());
+
+        final long[] sum = new long[1];
+        dao.forEachId(new Consumer<Long>() {
+
+            @Override
+            public void accept(Long id) {
+                sum[0] += id;
+            }
+        });
+        Assert.assertEquals(55, sum[0]);
+
+        // 处理某一行出错时也释放连接
+        try {
+            dao.forEachName(0, new Consumer<String>() {
+
+                @Override
+                public void accept(String name) {
+                    throw new IllegalStateException(name);
+                }
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("item1", e.getMessage());
+        }
+        Assert.assertEquals(0, openConnections.get());
+    }
+
+    // 记录打开的连接数
+    private static DataSource countConnections(DataSource dataSource,
+                                               final AtomicInteger openConnections) {
+        return countConnections(dataSource, openConnections, new AtomicBoolean());
+    }
+
+    // 记录打开的连接数, failPrepare为true时创建语句抛出 IllegalStateException
+    private static DataSource countConnections(DataSource dataSource,
+                                               final AtomicInteger openConnections,
+                                               final AtomicBoolean failPrepare) {
+        return new DelegatingDataSource(dataSource) {
+
+            @Override
+            public Connection getConnection() throws SQLException {
+                final Connection target = super.getConnection();
+                openConnections.incrementAndGet();
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            if (method.getName().equals("close") && !target.isClosed()) {
+                                openConnections.decrementAndGet();
+                            }
+                            if (method.getName().equals("prepareStatement") && failPrepare.get()) {
+                                throw new IllegalStateException("prepareStatement");
+                            }
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getTargetException();
+                            }
+                        }
+                    });
+            }
+        };
+    }
+}